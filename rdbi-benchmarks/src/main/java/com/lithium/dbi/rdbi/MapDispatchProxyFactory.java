@@ -0,0 +1,100 @@
+package com.lithium.dbi.rdbi;
+
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+import redis.clients.jedis.Jedis;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The proxies rdbi used to generate, kept as a baseline: one interceptor per attach for all methods of the DAO,
+ * looking up the context of every call in a {@code Map<Method, MethodContext>} and binding arguments by asking the
+ * {@link LuaContext} about each of them.
+ */
+class MapDispatchProxyFactory {
+
+    // not rdbi's own, whose cglib is relocated in the packaged rdbi-core
+    private static final MethodInterceptor NO_OP = (o, method, objects, methodProxy) -> null;
+
+    private final Factory factory;
+    private final Map<Method, MethodContext> contexts;
+
+    MapDispatchProxyFactory(Class<?> t, Map<Method, MethodContext> contexts) {
+        this.contexts = contexts;
+
+        Enhancer e = new Enhancer();
+        e.setSuperclass(t);
+        e.setCallbacks(new Callback[]{NO_OP, NO_OP});
+        e.setCallbackFilter(new FinalizeFilter());
+        factory = (Factory) e.create();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T createInstance(Jedis jedis) {
+        return (T) factory.newInstance(new Callback[]{NO_OP, new MapDispatchInterceptor(jedis, contexts)});
+    }
+
+    private static class MapDispatchInterceptor implements MethodInterceptor {
+        private final Jedis jedis;
+        private final Map<Method, MethodContext> contexts;
+
+        private MapDispatchInterceptor(Jedis jedis, Map<Method, MethodContext> contexts) {
+            this.jedis = jedis;
+            this.contexts = contexts;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object intercept(Object o, Method method, Object[] objects, MethodProxy methodProxy) {
+            MethodContext context = contexts.get(method);
+
+            List<String> keys = new ArrayList<>();
+            List<String> argv = new ArrayList<>();
+            for (int i = 0; i < objects.length; i++) {
+                if (context.getLuaContext().isKey(i)) {
+                    keys.add(objects[i].toString());
+                } else {
+                    argv.add(objects[i].toString());
+                }
+            }
+
+            Object ret = jedis.evalsha(context.getSha1(), keys, argv);
+            if (ret == null) {
+                return null;
+            }
+            if (contexts.get(method).getMapper() != null) {
+                return contexts.get(method).getMapper().map(ret);
+            }
+            return ret;
+        }
+    }
+
+    private static class FinalizeFilter implements CallbackFilter {
+        @Override
+        public int accept(Method method) {
+            if (method.getName().equals("finalize") &&
+                    method.getParameterTypes().length == 0 &&
+                    method.getReturnType() == Void.TYPE) {
+                return 0;
+            }
+            return 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FinalizeFilter;
+        }
+
+        @Override
+        public int hashCode() {
+            return FinalizeFilter.class.hashCode();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.lithium.dbi.rdbi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of attaching a DAO and calling it, with the per-method bound proxies of {@link ProxyFactory} against the
+ * map-dispatch proxies rdbi used before ({@link MapDispatchProxyFactory}). Both use the same method contexts and a
+ * stubbed connection, so only proxy creation, dispatch and argument binding are measured.
+ * <p>
+ * Run with {@code -prof gc} to compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBenchmark {
+
+    public interface BenchmarkDAO {
+        @Query("return redis.call('SET', $key$, $value$, 'EX', $ttl$);")
+        long set(@BindKey("key") String key, @BindArg("value") String value, @BindArg("ttl") int ttl);
+
+        @Query("return redis.call('GET', $key$);")
+        long get(@BindKey("key") String key);
+
+        @Query("return redis.call('DEL', $key$);")
+        long delete(@BindKey("key") String key);
+    }
+
+    private StubJedis jedis;
+    private ProxyFactory proxyFactory;
+    private MapDispatchProxyFactory mapDispatchProxyFactory;
+    private BenchmarkDAO attached;
+    private BenchmarkDAO mapDispatchAttached;
+
+    @Setup
+    public void setUp() {
+        jedis = new StubJedis();
+        proxyFactory = new ProxyFactory();
+        attached = proxyFactory.createInstance(jedis, BenchmarkDAO.class);
+        mapDispatchProxyFactory = new MapDispatchProxyFactory(BenchmarkDAO.class,
+                                                              proxyFactory.methodContextCache.get(BenchmarkDAO.class));
+        mapDispatchAttached = mapDispatchProxyFactory.createInstance(jedis);
+    }
+
+    @Benchmark
+    public long attachAndInvoke() {
+        return proxyFactory.createInstance(jedis, BenchmarkDAO.class).set("key", "value", 10);
+    }
+
+    @Benchmark
+    public long attachAndInvokeMapDispatch() {
+        BenchmarkDAO dao = mapDispatchProxyFactory.createInstance(jedis);
+        return dao.set("key", "value", 10);
+    }
+
+    @Benchmark
+    public long invoke() {
+        return attached.set("key", "value", 10);
+    }
+
+    @Benchmark
+    public long invokeMapDispatch() {
+        return mapDispatchAttached.set("key", "value", 10);
+    }
+}
@@ -0,0 +1,22 @@
+package com.lithium.dbi.rdbi;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import redis.clients.jedis.Jedis;
+
+import java.util.List;
+
+/**
+ * Answers script calls without a redis server, so that benchmarks measure rdbi and not the network.
+ */
+class StubJedis extends Jedis {
+
+    @Override
+    public String scriptLoad(String script) {
+        return DigestUtils.sha1Hex(script);
+    }
+
+    @Override
+    public Object evalsha(String sha1, List<String> keys, List<String> args) {
+        return 1L;
+    }
+}
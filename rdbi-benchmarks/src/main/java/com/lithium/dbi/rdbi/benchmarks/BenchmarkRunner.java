@@ -0,0 +1,29 @@
+package com.lithium.dbi.rdbi.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks matching a pattern once per thread count, with the allocation profiler:
+ * <pre>
+ *     java -Dthreads=1,4,16 -cp rdbi-benchmarks/target/benchmarks.jar com.lithium.dbi.rdbi.benchmarks.BenchmarkRunner Cache
+ * </pre>
+ * JMH itself takes a single thread count ({@code -t}); {@code java -jar benchmarks.jar} works as well.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        final String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName();
+        for (String threads : System.getProperty("threads", "1,4,16").split(",")) {
+            final Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.lithium.dbi.rdbi.benchmarks;
+
+import com.lithium.dbi.rdbi.recipes.cache.CallbackResult;
+import com.lithium.dbi.rdbi.recipes.cache.PassthroughSerializationHelper;
+import com.lithium.dbi.rdbi.recipes.cache.RedisCache;
+import com.lithium.dbi.rdbi.recipes.cache.RedisHashCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * The read paths of the caches against a {@link LocalRedis}: a {@link RedisCache} hit, a miss that locks, loads and
+ * stores the value, and {@link RedisHashCache#getAllPresent(Iterable)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final String VALUE = "{\"id\":42,\"name\":\"a cached value of a typical size\"}";
+
+    @State(Scope.Benchmark)
+    public static class Caches {
+
+        @Param({"1", "10", "100"})
+        public int keysPerRead;
+
+        RedisCache<String, String> cache;
+        RedisHashCache<String, String> hashCache;
+        List<String> hashKeys;
+
+        @Setup(Level.Trial)
+        public void setUp(LocalRedis redis) {
+            cache = new RedisCache<>(key -> key,
+                                     new PassthroughSerializationHelper(),
+                                     redis.rdbi(),
+                                     key -> VALUE,
+                                     "benchmark",
+                                     "benchmark:cache",
+                                     3600,
+                                     0,
+                                     60,
+                                     Optional.empty(),
+                                     () -> { },
+                                     () -> { },
+                                     () -> { },
+                                     () -> { });
+            cache.put("hit", VALUE);
+
+            hashCache = new RedisHashCache<>(Function.identity(),
+                                             new PassthroughSerializationHelper(),
+                                             Function.identity(),
+                                             new PassthroughSerializationHelper(),
+                                             redis.rdbi(),
+                                             Function.identity(),
+                                             ArrayList::new,
+                                             "benchmark-hash",
+                                             "benchmark:hash",
+                                             3600,
+                                             0,
+                                             60,
+                                             Optional.empty(),
+                                             () -> { },
+                                             () -> { },
+                                             () -> { },
+                                             () -> { });
+            final Map<String, String> values = new HashMap<>();
+            hashKeys = new ArrayList<>();
+            for (int i = 0; i < keysPerRead; i++) {
+                values.put("key" + i, "key" + i);
+                hashKeys.add("key" + i);
+            }
+            hashCache.putAll(values);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Misses {
+        private final String prefix = "miss:" + Thread.currentThread().getId() + ":";
+        private long count;
+
+        String next() {
+            return prefix + count++;
+        }
+    }
+
+    @Benchmark
+    public CallbackResult<String> hit(Caches caches) {
+        return caches.cache.getCallback("hit");
+    }
+
+    /**
+     * Every call misses on a new key, so redis keeps growing over the trial.
+     */
+    @Benchmark
+    public CallbackResult<String> miss(Caches caches, Misses misses) {
+        return caches.cache.getCallback(misses.next());
+    }
+
+    @Benchmark
+    public Map<String, String> hashGetAllPresent(Caches caches) {
+        return caches.hashCache.getAllPresent(caches.hashKeys);
+    }
+}
@@ -0,0 +1,64 @@
+package com.lithium.dbi.rdbi.benchmarks;
+
+import com.lithium.dbi.rdbi.recipes.channel.ChannelLuaReceiver;
+import com.lithium.dbi.rdbi.recipes.channel.ChannelPublisher;
+import com.lithium.dbi.rdbi.recipes.channel.GetResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChannelPublisher#publish(String, String)} and {@link ChannelLuaReceiver#get(String, Long)} on one channel
+ * holding {@code depth} messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelBenchmark {
+
+    private static final String CHANNEL = "benchmark:channel";
+    private static final String MESSAGE = "{\"event\":\"updated\",\"id\":42}";
+
+    @Param({"10", "100"})
+    public int depth;
+
+    private ChannelPublisher publisher;
+    private ChannelLuaReceiver receiver;
+
+    @Setup(Level.Trial)
+    public void setUp(LocalRedis redis) {
+        publisher = new ChannelPublisher(redis.rdbi());
+        publisher.setChannelDepth(depth);
+        receiver = new ChannelLuaReceiver(redis.rdbi());
+        for (int i = 0; i < depth; i++) {
+            publisher.publish(CHANNEL, MESSAGE);
+        }
+    }
+
+    @Benchmark
+    public void publish() {
+        publisher.publish(CHANNEL, MESSAGE);
+    }
+
+    /**
+     * Reads every message the channel holds.
+     */
+    @Benchmark
+    public GetResult get() {
+        return receiver.get(CHANNEL, 0L);
+    }
+}
@@ -0,0 +1,111 @@
+package com.lithium.dbi.rdbi.benchmarks;
+
+import com.lithium.dbi.rdbi.Instrumentation;
+import com.lithium.dbi.rdbi.RDBI;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The redis server the recipe benchmarks run against, shared by the threads of a benchmark: the one at
+ * {@code -Drdbi.benchmark.redis=host:port} if given, otherwise a {@code redis-server} (from the PATH, or
+ * {@code -Drdbi.benchmark.redisServer=/path/to/redis-server}) started on a free port without persistence, and stopped
+ * with the trial. The database is flushed before each trial, which a given server must allow with
+ * {@code -Drdbi.benchmark.flush=true}.
+ */
+@State(Scope.Benchmark)
+public class LocalRedis {
+
+    /**
+     * The size of the connection pool; run with more threads ({@code -t}) than connections to measure contention.
+     */
+    @Param("16")
+    public int poolSize;
+
+    private Process server;
+    private JedisPool pool;
+    private RDBI rdbi;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        final String configured = System.getProperty("rdbi.benchmark.redis");
+        final HostAndPort address;
+        if (configured != null) {
+            if (!Boolean.getBoolean("rdbi.benchmark.flush")) {
+                throw new IllegalStateException("The benchmarks flush the database of redis at " + configured
+                                                + "; run with -Drdbi.benchmark.flush=true if that is fine");
+            }
+            address = HostAndPort.from(configured);
+        } else {
+            address = new HostAndPort("localhost", freePort());
+            server = new ProcessBuilder(System.getProperty("rdbi.benchmark.redisServer", "redis-server"),
+                                        "--port", String.valueOf(address.getPort()),
+                                        "--save", "",
+                                        "--appendonly", "no")
+                    .redirectErrorStream(true)
+                    .redirectOutput(File.createTempFile("rdbi-benchmark-redis", ".log"))
+                    .start();
+        }
+        awaitPing(address);
+
+        final JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(poolSize);
+        config.setMaxIdle(poolSize);
+        pool = new JedisPool(config, address.getHost(), address.getPort());
+        try (Jedis jedis = pool.getResource()) {
+            jedis.flushDB();
+        }
+        // measure rdbi and redis, not the tracer
+        rdbi = RDBI.builder(pool)
+                   .instrumentation(Instrumentation.NONE)
+                   .prefillConnections(poolSize)
+                   .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        rdbi.close();
+        pool.close();
+        if (server != null) {
+            server.destroy();
+            server.waitFor(10, TimeUnit.SECONDS);
+        }
+    }
+
+    public RDBI rdbi() {
+        return rdbi;
+    }
+
+    private void awaitPing(HostAndPort address) throws InterruptedException {
+        final long giveUpAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try (Jedis jedis = new Jedis(address)) {
+                jedis.ping();
+                return;
+            } catch (RuntimeException e) {
+                if (System.nanoTime() > giveUpAt || server != null && !server.isAlive()) {
+                    throw new IllegalStateException("No redis server at " + address, e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.lithium.dbi.rdbi.benchmarks;
+
+import com.lithium.dbi.rdbi.ratelimiter.RateLimiter;
+import com.lithium.dbi.rdbi.ratelimiter.StrictRateLimiter;
+import com.lithium.dbi.rdbi.ratelimiter.TokenBucketRateLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One permit from each rate limiter, all threads sharing one key. The limits are high enough that permits are
+ * granted, so the script takes its usual path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    @Param({"strict", "tokenBucket"})
+    public String limiter;
+
+    private RateLimiter rateLimiter;
+
+    @Setup(Level.Trial)
+    public void setUp(LocalRedis redis) {
+        switch (limiter) {
+            case "strict":
+                rateLimiter = new StrictRateLimiter("benchmark", redis.rdbi(), "strict", 1_000_000_000);
+                break;
+            case "tokenBucket":
+                rateLimiter = new TokenBucketRateLimiter(redis.rdbi(), "benchmark", "tokenBucket",
+                                                         1_000_000_000, 1_000_000_000, Duration.ofSeconds(1));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown rate limiter " + limiter);
+        }
+    }
+
+    @Benchmark
+    public OptionalLong acquire() {
+        return rateLimiter.getWaitTimeForPermit();
+    }
+}
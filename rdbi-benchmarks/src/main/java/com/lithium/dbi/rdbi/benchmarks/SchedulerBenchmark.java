@@ -0,0 +1,126 @@
+package com.lithium.dbi.rdbi.benchmarks;
+
+import com.lithium.dbi.rdbi.RDBI;
+import com.lithium.dbi.rdbi.recipes.scheduler.ExclusiveJobScheduler;
+import com.lithium.dbi.rdbi.recipes.scheduler.JobInfo;
+import com.lithium.dbi.rdbi.recipes.scheduler.MultiChannelScheduler;
+import com.lithium.dbi.rdbi.recipes.scheduler.PriorityBasedJobScheduler;
+import com.lithium.dbi.rdbi.recipes.scheduler.StateDedupedJobScheduler;
+import com.lithium.dbi.rdbi.recipes.scheduler.TimeBasedJobScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One job through every scheduler: schedule it, reserve it and ack it. Each thread has its own tube, so that it
+ * reserves the job it scheduled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    private static final long TTR_MILLIS = 60_000;
+
+    interface Cycle {
+        /**
+         * @return the number of jobs reserved, one.
+         */
+        int run(String tube, String job);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Schedulers {
+
+        @Param({"exclusive", "timeBased", "priority", "stateDeduped", "multiChannel"})
+        public String scheduler;
+
+        Cycle cycle;
+
+        @Setup(Level.Trial)
+        public void setUp(LocalRedis redis) {
+            cycle = cycle(scheduler, redis.rdbi());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Jobs {
+        final String tube = "tube" + Thread.currentThread().getId();
+        private long count;
+
+        String next() {
+            return "job" + count++;
+        }
+    }
+
+    @Benchmark
+    public int scheduleReserveAck(Schedulers schedulers, Jobs jobs) {
+        return schedulers.cycle.run(jobs.tube, jobs.next());
+    }
+
+    private static Cycle cycle(String scheduler, RDBI rdbi) {
+        switch (scheduler) {
+            case "exclusive": {
+                final ExclusiveJobScheduler jobs = new ExclusiveJobScheduler(rdbi, "benchmark:exclusive");
+                return (tube, job) -> {
+                    jobs.schedule(tube, job, 0);
+                    final List<? extends JobInfo> reserved = jobs.reserveMulti(tube, TTR_MILLIS, 1);
+                    jobs.deleteJob(tube, job);
+                    return reserved.size();
+                };
+            }
+            case "timeBased": {
+                final TimeBasedJobScheduler jobs = new TimeBasedJobScheduler(rdbi, "benchmark:timeBased");
+                return (tube, job) -> {
+                    jobs.schedule(tube, job, 0, 0);
+                    final List<? extends JobInfo> reserved = jobs.reserveMulti(tube, TTR_MILLIS, 1);
+                    jobs.deleteRunningJob(tube, job);
+                    return reserved.size();
+                };
+            }
+            case "priority": {
+                final PriorityBasedJobScheduler jobs = new PriorityBasedJobScheduler(rdbi, "benchmark:priority");
+                return (tube, job) -> {
+                    jobs.schedule(tube, job, 1);
+                    final List<? extends JobInfo> reserved = jobs.reserveMulti(tube, TTR_MILLIS, 1);
+                    jobs.deleteRunningJob(tube, job);
+                    return reserved.size();
+                };
+            }
+            case "stateDeduped": {
+                final StateDedupedJobScheduler jobs = new StateDedupedJobScheduler(rdbi, "benchmark:stateDeduped");
+                return (tube, job) -> {
+                    jobs.schedule(tube, job, 0);
+                    final List<? extends JobInfo> reserved = jobs.reserveMulti(tube, TTR_MILLIS, 1);
+                    jobs.ackJob(tube, job);
+                    return reserved.size();
+                };
+            }
+            case "multiChannel": {
+                final MultiChannelScheduler jobs = new MultiChannelScheduler(rdbi, "benchmark:multiChannel");
+                return (tube, job) -> {
+                    jobs.schedule("channel", tube, job, 0);
+                    final List<? extends JobInfo> reserved = jobs.reserveMulti(tube, TTR_MILLIS, 1);
+                    jobs.ackJob("channel", tube, job);
+                    return reserved.size();
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown scheduler " + scheduler);
+        }
+    }
+}
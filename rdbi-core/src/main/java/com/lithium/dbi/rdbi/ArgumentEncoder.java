@@ -0,0 +1,84 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns an argument of a binary DAO method into the bytes sent to redis. The encoder is picked once per parameter
+ * from its declared type, so arguments do not go through {@code toString()} on every call.
+ */
+enum ArgumentEncoder {
+
+    BYTES {
+        @Override
+        byte[] encode(Object value) {
+            return (byte[]) value;
+        }
+    },
+    BYTE_BUFFER {
+        @Override
+        byte[] encode(Object value) {
+            // read from a duplicate so the caller's position is left alone
+            final ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+    },
+    INTEGER {
+        @Override
+        byte[] encode(Object value) {
+            return encodeLong(((Number) value).longValue());
+        }
+    },
+    STRING {
+        @Override
+        byte[] encode(Object value) {
+            return SafeEncoder.encode(value.toString());
+        }
+    };
+
+    abstract byte[] encode(Object value);
+
+    static ArgumentEncoder forType(Class<?> type) {
+        if (type == byte[].class) {
+            return BYTES;
+        } else if (ByteBuffer.class.isAssignableFrom(type)) {
+            return BYTE_BUFFER;
+        } else if (type == long.class || type == Long.class
+                || type == int.class || type == Integer.class
+                || type == short.class || type == Short.class
+                || type == byte.class || type == Byte.class) {
+            return INTEGER;
+        }
+        return STRING;
+    }
+
+    /**
+     * @return the decimal digits of the value, as redis expects numbers, written without an intermediate String.
+     */
+    static byte[] encodeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return SafeEncoder.encode(Long.toString(value));
+        }
+        final boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+
+        int length = negative ? 2 : 1;
+        for (long v = remaining; v >= 10; v /= 10) {
+            length++;
+        }
+
+        final byte[] bytes = new byte[length];
+        int i = length;
+        do {
+            bytes[--i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            bytes[0] = '-';
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,23 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.List;
+
+class BatchInvoker implements DaoInvoker {
+
+    private final ScriptBatch batch;
+
+    BatchInvoker(ScriptBatch batch) {
+        this.batch = batch;
+    }
+
+    @Override
+    public Object invoke(MethodContext context, List<?> keys, List<?> argv) {
+
+        PipelinedResponse<Object> response = batch.queue(context, keys, argv);
+
+        if (context.isAsync()) {
+            return response.toCompletableFuture();
+        }
+        return PipelinedInvoker.defaultValue(context.getReturnType());
+    }
+}
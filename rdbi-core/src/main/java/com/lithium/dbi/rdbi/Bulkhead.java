@@ -0,0 +1,175 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.exceptions.JedisException;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of operations of one kind (e.g. presence heartbeats) running at once, so that when redis slows down
+ * they cannot hold every thread and connection of the service; see
+ * {@link RDBI.Builder#bulkhead(String, int, Duration, CircuitBreaker)} and {@link RDBI#inBulkhead(String, Supplier)}.
+ * An operation waits up to {@code maxWait} for room, and is otherwise rejected with a
+ * {@link BulkheadRejectedException}, as it is while the bulkhead's {@link CircuitBreaker} is open.
+ * <p>
+ * The counts are live and can be read at any time.
+ */
+@ThreadSafe
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final long maxWaitNanos;
+    private final CircuitBreaker circuitBreaker;
+    private final Semaphore permits;
+    private final LatencyHistogram queued;
+    private final LongAdder calls;
+    private final LongAdder rejected;
+    private final LongAdder shortCircuited;
+
+    Bulkhead(String name, int maxConcurrentCalls, Duration maxWait, CircuitBreaker circuitBreaker) {
+        if (maxConcurrentCalls < 1) {
+            throw new IllegalArgumentException("Bulkhead " + name + " needs room for at least one call");
+        }
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.circuitBreaker = circuitBreaker;
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+        this.queued = new LatencyHistogram();
+        this.calls = new LongAdder();
+        this.rejected = new LongAdder();
+        this.shortCircuited = new LongAdder();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public int getInFlight() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+
+    /**
+     * @return an estimate of the number of operations waiting for room right now.
+     */
+    public int getQueueLength() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return how long operations waited for room, including those that were rejected.
+     */
+    public LatencyHistogram getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return the number of operations run.
+     */
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    /**
+     * @return the number of operations rejected because the bulkhead stayed full for {@code maxWait}.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the number of operations rejected because the circuit breaker was open.
+     */
+    public long getShortCircuitedCount() {
+        return shortCircuited.sum();
+    }
+
+    /**
+     * @return the circuit breaker of the bulkhead, or null.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    <T> T call(Supplier<T> operation) {
+        // an open circuit rejects at once, rather than after waiting for room
+        final CircuitBreaker.Permit permit = circuitBreaker == null ? null : circuitBreaker.tryAcquire();
+        if (permit == CircuitBreaker.Permit.REJECTED) {
+            shortCircuited.increment();
+            throw new BulkheadRejectedException(name, true);
+        }
+
+        final long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        queued.record(System.nanoTime() - start);
+        if (!acquired) {
+            if (circuitBreaker != null) {
+                circuitBreaker.cancel(permit);
+            }
+            rejected.increment();
+            throw new BulkheadRejectedException(name, false);
+        }
+
+        try {
+            calls.increment();
+            final long began = System.nanoTime();
+            boolean failed = true;
+            try {
+                final T result = operation.get();
+                failed = false;
+                return result;
+            } catch (RuntimeException | Error e) {
+                failed = isRedisFailure(e);
+                throw e;
+            } finally {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onResult(permit, System.nanoTime() - began, failed);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * @return true if redis failed, or was too slow, for the operation; other errors of the operation do not count
+     * against the circuit breaker. RDBI wraps some Jedis exceptions in a RuntimeException.
+     */
+    static boolean isRedisFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof JedisException || cause instanceof DeadlineExceededException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead{" +
+                "name='" + name + '\'' +
+                ", inFlight=" + getInFlight() +
+                ", queueLength=" + getQueueLength() +
+                ", queuedP99Micros=" + queued.percentileMicros(99) +
+                ", calls=" + getCallCount() +
+                ", rejected=" + getRejectedCount() +
+                ", shortCircuited=" + getShortCircuitedCount() +
+                ", circuitBreaker=" + circuitBreaker +
+                '}';
+    }
+}
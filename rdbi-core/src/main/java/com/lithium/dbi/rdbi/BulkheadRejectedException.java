@@ -0,0 +1,29 @@
+package com.lithium.dbi.rdbi;
+
+/**
+ * Thrown instead of running a call in a {@link Bulkhead} that is full, or whose circuit breaker is open, so that the
+ * caller can fall back at once.
+ */
+public class BulkheadRejectedException extends RuntimeException {
+
+    private final String bulkhead;
+    private final boolean circuitOpen;
+
+    BulkheadRejectedException(String bulkhead, boolean circuitOpen) {
+        super(circuitOpen ? "The circuit breaker of bulkhead " + bulkhead + " is open"
+                          : "Bulkhead " + bulkhead + " is full");
+        this.bulkhead = bulkhead;
+        this.circuitOpen = circuitOpen;
+    }
+
+    public String getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * @return true if the call was rejected by the circuit breaker, false if the bulkhead had no room for it.
+     */
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+}
@@ -0,0 +1,109 @@
+package com.lithium.dbi.rdbi;
+
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
+import net.sf.cglib.proxy.FixedValue;
+import net.sf.cglib.proxy.MethodInterceptor;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cglib proxy class of a DAO type, generated at runtime. Each DAO method gets its own callback, bound once to its
+ * {@link MethodContext}, so a call goes straight to its context instead of looking it up by {@link Method}.
+ * Attaching only fills in the {@link DaoInvoker} slot of a copy of the callbacks, with a {@link FixedValue} answering
+ * {@link DaoProxyDoNotUse#rdbiInvoker()}.
+ */
+class CglibDaoFactory implements DaoFactory {
+
+    private static final MethodInterceptor NO_OP = new MethodNoOpInterceptor();
+    private static final DaoInvoker NOT_ATTACHED = (context, keys, argv) -> {
+        throw new IllegalStateException("DAO is not attached");
+    };
+
+    private static final int NO_OP_INDEX = 0;
+    private static final int INVOKER_INDEX = 1;
+
+    private final Factory factory;
+    private final Callback[] callbacks;
+    private final Map<Method, MethodContext> contexts;
+
+    CglibDaoFactory(Class<?> t, Map<Method, MethodContext> contexts) {
+        this.contexts = contexts;
+
+        // a stable order, so that cglib can reuse the generated class for equal filters
+        List<Method> methods = new ArrayList<>(contexts.keySet());
+        methods.sort(Comparator.comparing(Method::toString));
+
+        Map<Method, Integer> indexes = new HashMap<>();
+        callbacks = new Callback[methods.size() + 2];
+        callbacks[NO_OP_INDEX] = NO_OP;
+        callbacks[INVOKER_INDEX] = invoker(NOT_ATTACHED);
+        for (int i = 0; i < methods.size(); i++) {
+            indexes.put(methods.get(i), i + 2);
+            callbacks[i + 2] = new MethodContextInterceptor(contexts.get(methods.get(i)));
+        }
+
+        Enhancer e = new Enhancer();
+        if (t.isInterface()) {
+            e.setInterfaces(new Class[]{t, DaoProxyDoNotUse.class});
+        } else {
+            e.setSuperclass(t);
+            e.setInterfaces(new Class[]{DaoProxyDoNotUse.class});
+        }
+        e.setCallbacks(callbacks);
+        e.setCallbackFilter(new DaoCallbackFilter(indexes));
+
+        factory = (Factory) e.create();
+    }
+
+    @Override
+    public Collection<MethodContext> contexts() {
+        return contexts.values();
+    }
+
+    @Override
+    public Object newInstance(DaoInvoker invoker) {
+        Callback[] instanceCallbacks = callbacks.clone();
+        instanceCallbacks[INVOKER_INDEX] = invoker(invoker);
+        return factory.newInstance(instanceCallbacks);
+    }
+
+    private static FixedValue invoker(DaoInvoker invoker) {
+        return () -> invoker;
+    }
+
+    private static class DaoCallbackFilter implements CallbackFilter {
+        private final Map<Method, Integer> indexes;
+
+        private DaoCallbackFilter(Map<Method, Integer> indexes) {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public int accept(Method method) {
+            if (method.getDeclaringClass() == DaoProxyDoNotUse.class) {
+                return INVOKER_INDEX;
+            }
+            // finalize, and anything that is not a @Query method
+            return indexes.getOrDefault(method, NO_OP_INDEX);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof DaoCallbackFilter && indexes.equals(((DaoCallbackFilter) o).indexes);
+        }
+
+        @Override
+        public int hashCode() {
+            return indexes.hashCode();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.lithium.dbi.rdbi;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+
+/**
+ * Stops the calls of a {@link Bulkhead} while redis fails or is slow for them, so that callers fall back at once
+ * instead of piling up. Calls are counted in fixed windows: once a window has seen enough calls, and either too many
+ * of them failed or the 99th percentile of their latency reached the slow call threshold, the breaker opens. Calls
+ * are then rejected until it has been open for a while; the next call is let through as a trial, and closes the
+ * breaker if it succeeds in time, or opens it again.
+ */
+@ThreadSafe
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * What {@link #tryAcquire()} let a call do; only the result of the trial call decides a half open breaker.
+     */
+    enum Permit { REJECTED, CALL, TRIAL }
+
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final int minimumCalls;
+    private final long windowNanos;
+    private final long openNanos;
+
+    @GuardedBy("this")
+    private State state;
+    @GuardedBy("this")
+    private long openedAt;
+    @GuardedBy("this")
+    private long windowStart;
+    @GuardedBy("this")
+    private int calls;
+    @GuardedBy("this")
+    private int failures;
+    @GuardedBy("this")
+    private int slowCalls;
+    @GuardedBy("this")
+    private boolean trialInFlight;
+
+    /**
+     * @param failureRateThreshold open when this share of the calls of a window failed, from 0 to 1.
+     * @param slowCallThreshold open when the 99th percentile latency of a window is at least this long.
+     * @param minimumCalls a window with fewer calls never opens the breaker.
+     * @param window how long calls are counted together.
+     * @param openFor how long calls are rejected before a trial call.
+     */
+    public CircuitBreaker(double failureRateThreshold, Duration slowCallThreshold, int minimumCalls, Duration window, Duration openFor) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("The failure rate threshold must be in (0, 1], got " + failureRateThreshold);
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallThreshold.toNanos();
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.windowNanos = window.toNanos();
+        this.openNanos = openFor.toNanos();
+        this.state = State.CLOSED;
+        this.windowStart = System.nanoTime();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return {@link Permit#REJECTED} if the call must be rejected, {@link Permit#TRIAL} if it is the trial call of a
+     * half open breaker.
+     */
+    synchronized Permit tryAcquire() {
+        switch (state) {
+            case OPEN:
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return Permit.REJECTED;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return Permit.TRIAL;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return Permit.REJECTED;
+                }
+                trialInFlight = true;
+                return Permit.TRIAL;
+            default:
+                return Permit.CALL;
+        }
+    }
+
+    /**
+     * Count a call let through by {@link #tryAcquire()}.
+     * @param permit what {@link #tryAcquire()} returned for the call.
+     */
+    synchronized void onResult(Permit permit, long nanos, boolean failed) {
+        final long now = System.nanoTime();
+        final boolean slow = nanos >= slowCallNanos;
+        if (permit == Permit.TRIAL) {
+            trialInFlight = false;
+            if (failed || slow) {
+                open(now);
+            } else {
+                state = State.CLOSED;
+                startWindow(now);
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            // a call made before the breaker opened
+            return;
+        }
+
+        if (now - windowStart >= windowNanos) {
+            startWindow(now);
+        }
+        calls++;
+        if (failed) {
+            failures++;
+        }
+        if (slow) {
+            slowCalls++;
+        }
+        // the 99th percentile reaches the threshold once more than 1% of the calls are slow
+        if (calls >= minimumCalls && (failures >= failureRateThreshold * calls || slowCalls * 100 > calls)) {
+            open(now);
+        }
+    }
+
+    /**
+     * Give back a permit whose call was not made after all, e.g. because the bulkhead was full: a trial permit leaves
+     * the breaker half open, for the next call to be the trial.
+     */
+    synchronized void cancel(Permit permit) {
+        if (permit == Permit.TRIAL) {
+            trialInFlight = false;
+        }
+    }
+
+    @GuardedBy("this")
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+    }
+
+    @GuardedBy("this")
+    private void startWindow(long now) {
+        windowStart = now;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" +
+                "state=" + state +
+                ", calls=" + calls +
+                ", failures=" + failures +
+                ", slowCalls=" + slowCalls +
+                '}';
+    }
+}
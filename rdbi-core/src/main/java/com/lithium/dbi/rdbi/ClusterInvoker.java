@@ -0,0 +1,109 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Backs the DAOs returned by {@link ClusterRDBI#onDemand(Class)}: every call is sent to the node serving the hash
+ * slot of its keys.
+ */
+class ClusterInvoker implements DaoInvoker {
+
+    private final ClusterRDBI rdbi;
+
+    ClusterInvoker(ClusterRDBI rdbi) {
+        this.rdbi = rdbi;
+    }
+
+    @Override
+    public Object invoke(final MethodContext context, final List<?> keys, final List<?> argv) {
+
+        if (!context.isAsync()) {
+            return invoke(rdbi.cluster(), context, keys, argv);
+        }
+
+        return CompletableFuture.supplyAsync(() -> invoke(rdbi.cluster(), context, keys, argv), rdbi.asyncExecutor());
+    }
+
+    static Object invoke(UnifiedJedis cluster, MethodContext context, List<?> keys, List<?> argv) {
+        // checked before anything is sent, redis would only answer CROSSSLOT
+        slot(context, keys);
+        final byte[] sampleKey = encoded(keys.get(0));
+
+        final long start = System.nanoTime();
+        final Object ret;
+        try {
+            ret = evalShaHandleReloadScript(cluster, context, sampleKey, keys, argv);
+        } catch (RuntimeException e) {
+            context.getMetrics().recordError(System.nanoTime() - start);
+            throw e;
+        }
+        context.getMetrics().record(System.nanoTime() - start, ret);
+
+        return context.map(ret);
+    }
+
+    /**
+     * @return the hash slot of the call's keys.
+     * @throws IllegalArgumentException if the call has no key, or keys in more than one slot.
+     */
+    static int slot(MethodContext context, List<?> keys) {
+        if (keys == null || keys.isEmpty()) {
+            throw new IllegalArgumentException(context.getMetrics().getName()
+                                               + " was called without keys, so it cannot be routed to a cluster node");
+        }
+        final int slot = JedisClusterCRC16.getSlot(encoded(keys.get(0)));
+        for (int i = 1; i < keys.size(); i++) {
+            if (JedisClusterCRC16.getSlot(encoded(keys.get(i))) != slot) {
+                throw new IllegalArgumentException(context.getMetrics().getName() + " was called with keys in different hash slots ("
+                                                   + SafeEncoder.encode(encoded(keys.get(0))) + ", "
+                                                   + SafeEncoder.encode(encoded(keys.get(i)))
+                                                   + "); give them a common {hash tag}");
+            }
+        }
+        return slot;
+    }
+
+    private static Object evalShaHandleReloadScript(UnifiedJedis cluster, MethodContext context, byte[] sampleKey,
+                                                    List<?> keys, List<?> argv) {
+        try {
+            return evalsha(cluster, context, sampleKey, keys, argv);
+        } catch (JedisDataException e) {
+            if (JedisInvoker.isNoScript(e)) {
+                context.getMetrics().recordNoScript();
+                // each node has its own script cache, so this only loads the script on the node serving the keys
+                if (context.getLibrary() != null) {
+                    context.getLibrary().load(cluster, sampleKey);
+                } else {
+                    final byte[] newSha = cluster.scriptLoad(SafeEncoder.encode(context.getScript()), sampleKey);
+                    if (!Arrays.equals(newSha, context.getBinarySha1())) {
+                        throw new IllegalStateException("sha should match but they did not");
+                    }
+                }
+                return evalsha(cluster, context, sampleKey, keys, argv);
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object evalsha(UnifiedJedis cluster, MethodContext context, byte[] sampleKey, List<?> keys, List<?> argv) {
+        if (context.usesCommand()) {
+            return cluster.sendCommand(sampleKey, context.command(), context.commandArgs(keys, argv));
+        } else if (context.isBinary()) {
+            return cluster.evalsha(context.getBinarySha1(), (List<byte[]>) keys, (List<byte[]>) argv);
+        }
+        return cluster.evalsha(context.getSha1(), (List<String>) keys, (List<String>) argv);
+    }
+
+    private static byte[] encoded(Object key) {
+        return key instanceof byte[] ? (byte[]) key : SafeEncoder.encode(key.toString());
+    }
+}
@@ -0,0 +1,182 @@
+package com.lithium.dbi.rdbi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.ConnectionPool;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisClusterOperationException;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The counterpart of {@link RDBI} for a redis cluster. Each DAO call is sent to the node serving the hash slot of its
+ * keys, so the keys a script binds must share a hash tag, e.g. {@code {tube}:ready} and {@code {tube}:running}:
+ * <pre>
+ *     ClusterConnectionProvider provider = new ClusterConnectionProvider(nodes, clientConfig);
+ *     ClusterRDBI rdbi = new ClusterRDBI(provider);
+ *     rdbi.register(RedisSemaphoreDAO.class);
+ *     rdbi.onDemand(RedisSemaphoreDAO.class).acquireSemaphore("{jobs}:lock", owner, 10);
+ * </pre>
+ * There are no handles: DAOs are used {@link #onDemand(Class) on demand}, or batched per node with
+ * {@link #pipelined()}. Each node has its own script cache and loads a script on its first NOSCRIPT, or on
+ * {@link #register(Class[])}.
+ */
+@ThreadSafe
+public class ClusterRDBI implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRDBI.class);
+
+    private final ClusterConnectionProvider provider;
+    private final UnifiedJedis cluster;
+    private final ExecutorService asyncExecutor;
+    private final boolean ownsAsyncExecutor;
+    private final AtomicBoolean closed;
+    final ProxyFactory proxyFactory;
+
+    public ClusterRDBI(ClusterConnectionProvider provider) {
+        this(provider, (ExecutorService) null);
+    }
+
+    /**
+     * @param provider      the connection pools of the cluster nodes, and the slots they serve. It is not closed
+     *                      by rdbi.
+     * @param asyncExecutor runs the CompletableFuture-returning methods of {@link #onDemand(Class)} DAOs.
+     *                      It is not shut down by rdbi.
+     */
+    public ClusterRDBI(ClusterConnectionProvider provider, ExecutorService asyncExecutor) {
+        this(provider,
+             new UnifiedJedis(provider, JedisCluster.DEFAULT_MAX_ATTEMPTS,
+                              Duration.ofMillis((long) JedisCluster.DEFAULT_TIMEOUT * JedisCluster.DEFAULT_MAX_ATTEMPTS)),
+             asyncExecutor);
+    }
+
+    /**
+     * @param asyncExecutor the caller's executor, or null for one of our own that {@link #close()} shuts down.
+     */
+    ClusterRDBI(ClusterConnectionProvider provider, UnifiedJedis cluster, ExecutorService asyncExecutor) {
+        this.provider = provider;
+        this.cluster = cluster;
+        this.ownsAsyncExecutor = asyncExecutor == null;
+        this.asyncExecutor = ownsAsyncExecutor ? RDBI.newAsyncExecutor() : asyncExecutor;
+        this.closed = new AtomicBoolean();
+        this.proxyFactory = new ProxyFactory();
+        logger.info("ClusterRDBI created, ready for action.");
+    }
+
+    /**
+     * Attach a DAO that routes each call to the node serving its keys, following redirections when slots move.
+     * The DAO can be shared between threads.
+     * @throws IllegalArgumentException if one of the DAO's scripts binds no key.
+     */
+    public <T> T onDemand(Class<T> type) {
+        final T dao = proxyFactory.createClusterInstance(type, this);
+        checkRoutable(type);
+        return dao;
+    }
+
+    /**
+     * @return a pipeline that sends its calls to each node in a single round trip, one node after the other.
+     * @see PipelinedHandle
+     */
+    public PipelinedHandle pipelined() {
+        return new PipelinedHandle(this, proxyFactory);
+    }
+
+    /**
+     * Render the scripts of DAO types up front and load them into every node of the cluster.
+     * @return how long the warm-up took.
+     * @throws IllegalArgumentException if one of the scripts binds no key.
+     */
+    public Duration register(Class<?>... types) {
+        final long start = System.nanoTime();
+        // before loading anything into the nodes
+        for (Class<?> type : types) {
+            checkRoutable(type);
+        }
+        final List<Jedis> nodes = new ArrayList<>();
+        final int scripts;
+        try {
+            for (ConnectionPool pool : provider.getNodes().values()) {
+                nodes.add(new Jedis(pool.getResource()));
+            }
+            scripts = proxyFactory.register(nodes, Arrays.asList(types));
+        } finally {
+            nodes.forEach(Jedis::close);
+        }
+
+        final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+        logger.info("ClusterRDBI warmed up {} DAO types ({} scripts and function libraries loaded on {} nodes) in {} ms",
+                    types.length, scripts, nodes.size(), duration.toMillis());
+        return duration;
+    }
+
+    /**
+     * @see RDBI#getDaoMetrics()
+     */
+    public List<DaoMethodMetrics> getDaoMetrics() {
+        return proxyFactory.metrics();
+    }
+
+    /**
+     * Shut down the async executor, unless it was passed in. The connection provider is not closed, it belongs to
+     * the caller. Closing again does nothing.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (ownsAsyncExecutor) {
+            asyncExecutor.shutdown();
+        }
+        logger.info("ClusterRDBI closed.");
+    }
+
+    UnifiedJedis cluster() {
+        return cluster;
+    }
+
+    ExecutorService asyncExecutor() {
+        return asyncExecutor;
+    }
+
+    HostAndPort node(int slot) {
+        HostAndPort node = provider.getNode(slot);
+        if (node == null) {
+            provider.renewSlotCache();
+            node = provider.getNode(slot);
+        }
+        if (node == null) {
+            throw new JedisClusterOperationException("No node serves slot " + slot);
+        }
+        return node;
+    }
+
+    Jedis connection(HostAndPort node) {
+        return new Jedis(provider.getConnection(node));
+    }
+
+    void renewSlotCache() {
+        provider.renewSlotCache();
+    }
+
+    private void checkRoutable(Class<?> type) {
+        for (MethodContext context : proxyFactory.contexts(type)) {
+            if (!context.bindsKeys()) {
+                throw new IllegalArgumentException(context.getMetrics().getName()
+                                                   + " binds no @BindKey, so it cannot be routed to a cluster node");
+            }
+        }
+    }
+}
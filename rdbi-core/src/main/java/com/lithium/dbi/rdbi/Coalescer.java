@@ -0,0 +1,203 @@
+package com.lithium.dbi.rdbi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects the calls of many threads and sends them as one pipeline on one pooled connection: a batch is sent once it
+ * holds {@code maxBatchSize} calls, or once its first call has waited for {@code window}. Batches are sent one at a
+ * time by a single daemon thread, so a slow batch holds up the ones behind it rather than borrowing more connections.
+ */
+@ThreadSafe
+class Coalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(Coalescer.class);
+
+    private final RDBI rdbi;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<Call> queue;
+    private final CoalescingMetrics metrics;
+    private final Thread sender;
+    private volatile boolean closed;
+
+    Coalescer(RDBI rdbi, Duration window, int maxBatchSize, int maxQueued) {
+        if (maxBatchSize < 1 || maxQueued < 1) {
+            throw new IllegalArgumentException("The batch size and queue depth must be positive");
+        }
+        this.rdbi = rdbi;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new ArrayBlockingQueue<>(maxQueued);
+        this.metrics = new CoalescingMetrics();
+        this.sender = new Thread(this::run, "rdbi-coalescer");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * @param queue queues the call on the batch's pipeline.
+     * @return the result of the call, completed on the async executor once its batch has been sent.
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> submit(Function<PipelinedHandle, PipelinedResponse<T>> queue) {
+        final Call call = new Call(queue);
+        if (closed) {
+            call.result.completeExceptionally(new RejectedExecutionException("The RDBI is closed"));
+        } else if (!this.queue.offer(call)) {
+            metrics.recordRejected();
+            call.result.completeExceptionally(new RejectedExecutionException("Too many calls are waiting to be coalesced"));
+        } else if (closed) {
+            // closed while it was queued, the sender may have gone already
+            failQueued();
+        }
+        return (CompletableFuture<T>) call.result;
+    }
+
+    /**
+     * @return true on the thread that sends the batches, which must not wait for a result itself.
+     */
+    boolean isSender() {
+        return Thread.currentThread() == sender;
+    }
+
+    CoalescingMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Stop the sender. The batch being sent completes, the calls still queued fail.
+     */
+    void close() {
+        closed = true;
+        sender.interrupt();
+    }
+
+    private void run() {
+        final List<Call> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                // closed, or the jvm is shutting down
+                break;
+            }
+            try {
+                send(batch);
+            } catch (Throwable e) {
+                // the sender must outlive anything a batch throws, or every later call would wait forever
+                logger.error("Failed a batch of {} coalesced calls", batch.size(), e);
+                for (Call call : batch) {
+                    complete(call, null, e);
+                }
+            }
+            batch.clear();
+        }
+        queue.drainTo(batch);
+        fail(batch);
+    }
+
+    private void failQueued() {
+        final List<Call> calls = new ArrayList<>();
+        queue.drainTo(calls);
+        fail(calls);
+    }
+
+    private static void fail(List<Call> calls) {
+        for (Call call : calls) {
+            call.result.completeExceptionally(new RejectedExecutionException("The RDBI is closed"));
+        }
+    }
+
+    private void collect(List<Call> batch) throws InterruptedException {
+        final Call first = queue.take();
+        batch.add(first);
+        // the window starts when the first call was made, it may have waited behind the previous batch already
+        final long deadline = first.queuedAt + windowNanos;
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            final long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxBatchSize || remaining <= 0) {
+                return;
+            }
+            final Call next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void send(List<Call> batch) {
+        final long start = System.nanoTime();
+        for (Call call : batch) {
+            metrics.recordQueued(start - call.queuedAt);
+        }
+        metrics.recordBatch(batch.size());
+
+        final List<PipelinedResponse<?>> responses = new ArrayList<>(batch.size());
+        try (Handle handle = rdbi.open()) {
+            final PipelinedHandle pipeline = handle.pipelined();
+            for (Call call : batch) {
+                responses.add(call.queue.apply(pipeline));
+            }
+            pipeline.sync();
+        } catch (Throwable e) {
+            logger.warn("Failed to send a batch of {} coalesced calls", batch.size(), e);
+            for (Call call : batch) {
+                complete(call, null, e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                complete(batch.get(i), responses.get(i).get(), null);
+            } catch (RuntimeException e) {
+                complete(batch.get(i), null, e);
+            }
+        }
+    }
+
+    /**
+     * Complete the call on the async executor, so that its callbacks (which run on the completing thread) cannot hold
+     * up the sender; on the sender itself if the executor is shut down.
+     */
+    private void complete(Call call, Object value, Throwable error) {
+        final Runnable completion = () -> {
+            if (error == null) {
+                call.result.complete(value);
+            } else {
+                call.result.completeExceptionally(error);
+            }
+        };
+        try {
+            rdbi.asyncExecutor().execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    private static class Call {
+        private final Function<PipelinedHandle, ? extends PipelinedResponse<?>> queue;
+        private final long queuedAt;
+        private final CompletableFuture<Object> result;
+
+        private Call(Function<PipelinedHandle, ? extends PipelinedResponse<?>> queue) {
+            this.queue = queue;
+            this.queuedAt = System.nanoTime();
+            this.result = new CompletableFuture<>();
+        }
+    }
+}
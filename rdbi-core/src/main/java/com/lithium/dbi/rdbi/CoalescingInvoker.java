@@ -0,0 +1,50 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Backs the DAOs returned by {@link RDBI#coalesced(Class)}: every call is queued on the coalescer and sent in its next
+ * batch.
+ */
+class CoalescingInvoker implements DaoInvoker {
+
+    private final Coalescer coalescer;
+
+    CoalescingInvoker(Coalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    @Override
+    public Object invoke(final MethodContext context, final List<?> keys, final List<?> argv) {
+
+        final boolean async = context.isAsync();
+        if (!async && coalescer.isSender()) {
+            throw new IllegalStateException("A callback of a coalesced call cannot wait for another one, it would wait for itself");
+        }
+
+        final CompletableFuture<Object> result = coalescer.submit(pipeline -> pipeline.queue(context, keys, argv));
+        if (async) {
+            return result;
+        }
+        return await(result);
+    }
+
+    /**
+     * @throws RuntimeException the exception that failed the call.
+     */
+    static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
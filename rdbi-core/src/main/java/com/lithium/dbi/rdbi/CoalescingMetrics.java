@@ -0,0 +1,89 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The batches sent by the coalescing executor of an RDBI, see {@link RDBI#getCoalescingMetrics()}. The counts are live
+ * and can be read at any time.
+ */
+public class CoalescingMetrics {
+
+    private final LongAdder batches;
+    private final LongAdder calls;
+    private final LongAccumulator largestBatch;
+    private final LatencyHistogram queued;
+    private final LongAdder rejected;
+
+    CoalescingMetrics() {
+        this.batches = new LongAdder();
+        this.calls = new LongAdder();
+        this.largestBatch = new LongAccumulator(Math::max, 0);
+        this.queued = new LatencyHistogram();
+        this.rejected = new LongAdder();
+    }
+
+    /**
+     * @return the number of pipelines sent, each on one connection in one round trip (plus one if scripts had to be
+     * reloaded).
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the number of calls and commands sent in all batches.
+     */
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    public double getAverageBatchSize() {
+        final long count = getBatchCount();
+        return count == 0 ? 0 : (double) getCallCount() / count;
+    }
+
+    public long getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    /**
+     * @return how long each call waited for its batch to be sent, from the moment it was made.
+     */
+    public LatencyHistogram getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return the number of calls failed with a {@link java.util.concurrent.RejectedExecutionException} because the
+     * queue was full.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    void recordBatch(int size) {
+        batches.increment();
+        calls.add(size);
+        largestBatch.accumulate(size);
+    }
+
+    void recordQueued(long nanos) {
+        queued.record(nanos);
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    @Override
+    public String toString() {
+        return "CoalescingMetrics{" +
+                "batches=" + getBatchCount() +
+                ", calls=" + getCallCount() +
+                ", largestBatch=" + getLargestBatch() +
+                ", queuedP99Micros=" + queued.percentileMicros(99) +
+                ", rejected=" + getRejectedCount() +
+                '}';
+    }
+}
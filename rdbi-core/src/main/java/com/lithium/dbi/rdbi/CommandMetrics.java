@@ -0,0 +1,51 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the latency and counts the errors of every command, by Jedis method name. Recording allocates nothing
+ * once a command has been seen, and the results can be read at any time, e.g. by a metrics scraper.
+ */
+public class CommandMetrics implements Instrumentation {
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    @Override
+    public Object onStart(String command, Object[] args) {
+        return null;
+    }
+
+    @Override
+    public void onEnd(String command, Object context, long durationNanos, Throwable error) {
+        LatencyHistogram histogram = latencies.get(command);
+        if (histogram == null) {
+            histogram = latencies.computeIfAbsent(command, c -> new LatencyHistogram());
+        }
+        histogram.record(durationNanos);
+
+        if (error != null) {
+            LongAdder count = errors.get(command);
+            if (count == null) {
+                count = errors.computeIfAbsent(command, c -> new LongAdder());
+            }
+            count.increment();
+        }
+    }
+
+    /**
+     * @return the latencies of the commands made so far, by command.
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    public long getErrorCount(String command) {
+        LongAdder count = errors.get(command);
+        return count == null ? 0 : count.sum();
+    }
+}
@@ -0,0 +1,42 @@
+package com.lithium.dbi.rdbi;
+
+/**
+ * @see Instrumentation#both(Instrumentation, Instrumentation)
+ */
+class CompositeInstrumentation implements Instrumentation {
+
+    // marks the half that was not enabled for a command
+    private static final Object SKIPPED = new Object();
+
+    private final Instrumentation first;
+    private final Instrumentation second;
+
+    CompositeInstrumentation(Instrumentation first, Instrumentation second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public boolean isEnabled(String command) {
+        return first.isEnabled(command) || second.isEnabled(command);
+    }
+
+    @Override
+    public Object onStart(String command, Object[] args) {
+        Object firstContext = first.isEnabled(command) ? first.onStart(command, args) : SKIPPED;
+        Object secondContext = second.isEnabled(command) ? second.onStart(command, args) : SKIPPED;
+        return new Object[]{firstContext, secondContext};
+    }
+
+    @Override
+    public void onEnd(String command, Object context, long durationNanos, Throwable error) {
+        Object[] contexts = (Object[]) context;
+        // the second was started last, so it ends first
+        if (contexts[1] != SKIPPED) {
+            second.onEnd(command, contexts[1], durationNanos, error);
+        }
+        if (contexts[0] != SKIPPED) {
+            first.onEnd(command, contexts[0], durationNanos, error);
+        }
+    }
+}
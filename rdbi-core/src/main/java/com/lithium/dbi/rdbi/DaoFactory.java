@@ -0,0 +1,16 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.Collection;
+
+/**
+ * Creates the instances of one DAO type, attached to an invoker.
+ */
+interface DaoFactory {
+
+    /**
+     * @return the contexts of the DAO methods, with the scripts they need loaded.
+     */
+    Collection<MethodContext> contexts();
+
+    Object newInstance(DaoInvoker invoker);
+}
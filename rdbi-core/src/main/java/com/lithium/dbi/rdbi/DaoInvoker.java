@@ -0,0 +1,14 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.List;
+
+/**
+ * Makes the DAO calls of an attached proxy: on a connection, on a pipeline or with a connection from the pool.
+ * <p>
+ * The per-method interceptors are shared by every proxy of a DAO type, so each proxy carries its invoker, answering
+ * {@link DaoProxyDoNotUse#rdbiInvoker()}. Generated DAOs are handed theirs by {@link GeneratedDao#attach}.
+ */
+interface DaoInvoker {
+
+    Object invoke(MethodContext context, List<?> keys, List<?> argv);
+}
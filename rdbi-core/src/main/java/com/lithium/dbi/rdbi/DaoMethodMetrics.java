@@ -0,0 +1,118 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The calls made to one {@link Query} method, under the name of its DAO type and method and the sha1 of its script.
+ * Each method records into its own instance, with no lookup or locking, and the counts can be read at any time, e.g.
+ * to rank scripts by the total time spent in them. See {@link RDBI#getDaoMetrics()}.
+ * <p>
+ * Pipelined calls are timed from the moment their batch is sent until its replies are read.
+ */
+public class DaoMethodMetrics {
+
+    private final String name;
+    private final String sha1;
+    private final LatencyHistogram latency;
+    private final LongAdder errors;
+    private final LongAdder noScriptReloads;
+    private final LongAdder replyBytes;
+
+    DaoMethodMetrics(String name, String sha1) {
+        this.name = name;
+        this.sha1 = sha1;
+        this.latency = new LatencyHistogram();
+        this.errors = new LongAdder();
+        this.noScriptReloads = new LongAdder();
+        this.replyBytes = new LongAdder();
+    }
+
+    /**
+     * @return the DAO type and method, e.g. {@code com.example.CounterDAO.incr}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    /**
+     * @return the latency of every call, its count being the number of calls.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getCallCount() {
+        return latency.getCount();
+    }
+
+    public long getTotalNanos() {
+        return latency.getTotalNanos();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * @return how many times redis did not have the script, and it was loaded again.
+     */
+    public long getNoScriptReloadCount() {
+        return noScriptReloads.sum();
+    }
+
+    /**
+     * @return the approximate size of all replies: the length of strings, 8 bytes for integers.
+     */
+    public long getReplyBytes() {
+        return replyBytes.sum();
+    }
+
+    void record(long nanos, Object reply) {
+        latency.record(nanos);
+        replyBytes.add(size(reply));
+    }
+
+    void recordError(long nanos) {
+        latency.record(nanos);
+        errors.increment();
+    }
+
+    void recordNoScript() {
+        noScriptReloads.increment();
+    }
+
+    private static long size(Object reply) {
+        if (reply instanceof byte[]) {
+            return ((byte[]) reply).length;
+        } else if (reply instanceof String) {
+            return ((String) reply).length();
+        } else if (reply instanceof Long) {
+            return 8;
+        } else if (reply instanceof List) {
+            long size = 0;
+            for (Object element : (List<?>) reply) {
+                size += size(element);
+            }
+            return size;
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DaoMethodMetrics{" +
+                "name='" + name + '\'' +
+                ", sha1='" + sha1 + '\'' +
+                ", calls=" + getCallCount() +
+                ", totalNanos=" + getTotalNanos() +
+                ", errors=" + getErrorCount() +
+                ", noScriptReloads=" + getNoScriptReloadCount() +
+                ", replyBytes=" + getReplyBytes() +
+                '}';
+    }
+}
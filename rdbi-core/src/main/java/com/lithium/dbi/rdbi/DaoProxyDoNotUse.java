@@ -0,0 +1,9 @@
+package com.lithium.dbi.rdbi;
+
+/**
+ * Implemented by the generated DAO proxies so that rdbi can find the invoker a proxy is attached to.
+ * It is public only because the proxies live in the package of the DAO; do not use it.
+ */
+public interface DaoProxyDoNotUse {
+    Object rdbiInvoker();
+}
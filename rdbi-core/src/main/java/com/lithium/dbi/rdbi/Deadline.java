@@ -0,0 +1,78 @@
+package com.lithium.dbi.rdbi;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which an operation must be done, set for the calls of a thread with
+ * {@link RDBI#withDeadline(Duration, java.util.function.Supplier)} and read back with {@link RDBI#getDeadline()}.
+ * <p>
+ * {@link RDBI#open()} fails fast once it has passed, waits for a pooled connection no longer than it allows, and
+ * lowers the socket timeout of the handle's connection to the time left. Recipes that wait or retry stop at the
+ * deadline and throw a {@link DeadlineExceededException}.
+ */
+public final class Deadline {
+
+    /**
+     * No deadline: never expires.
+     */
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    // System.nanoTime() when it expires, or Long.MAX_VALUE for NONE
+    private final long expiresAt;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public static Deadline after(Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * @return the time left, at least zero, or {@link Long#MAX_VALUE} for {@link #NONE}.
+     */
+    public long remainingNanos() {
+        return this == NONE ? Long.MAX_VALUE : Math.max(0, expiresAt - System.nanoTime());
+    }
+
+    /**
+     * @return the time left rounded up to the millisecond, so that it is only zero once the deadline has passed.
+     */
+    public long remainingMillis() {
+        final long nanos = remainingNanos();
+        return nanos == Long.MAX_VALUE ? nanos : (nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the shorter of a timeout and the time left.
+     */
+    public long capMillis(long timeoutMillis) {
+        return Math.min(timeoutMillis, remainingMillis());
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() == 0;
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline has passed.
+     */
+    public void check(String operation) {
+        if (isExpired()) {
+            throw new DeadlineExceededException("Deadline exceeded before " + operation);
+        }
+    }
+
+    /**
+     * @return the earlier of the two deadlines.
+     */
+    Deadline min(Deadline other) {
+        return this == NONE || other != NONE && other.expiresAt - expiresAt < 0 ? other : this;
+    }
+
+    @Override
+    public String toString() {
+        return this == NONE ? "Deadline{none}" : "Deadline{remainingMillis=" + remainingMillis() + '}';
+    }
+}
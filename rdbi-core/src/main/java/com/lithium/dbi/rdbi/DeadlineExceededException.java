@@ -0,0 +1,15 @@
+package com.lithium.dbi.rdbi;
+
+/**
+ * Thrown when the {@link Deadline} of an operation passes before it could be done.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,25 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.commands.ProtocolCommand;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * The Redis 7 function and read-only script commands, which this version of Jedis does not know about.
+ */
+enum FunctionCommand implements ProtocolCommand {
+    FUNCTION,
+    FCALL,
+    FCALL_RO,
+    EVALSHA_RO;
+
+    private final byte[] raw;
+
+    FunctionCommand() {
+        raw = SafeEncoder.encode(name());
+    }
+
+    @Override
+    public byte[] getRaw() {
+        return raw;
+    }
+}
@@ -0,0 +1,23 @@
+package com.lithium.dbi.rdbi;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs the {@link Query} methods of a DAO as Redis 7 functions instead of cached scripts. All methods are compiled
+ * into one library, loaded with a single {@code FUNCTION LOAD REPLACE} and called with {@code FCALL}. Unlike the
+ * script cache, libraries are persisted and replicated, so a failover does not make every method miss its script.
+ * <p>
+ * The library is named after the value (letters, digits and underscores) and a hash of its scripts, so that
+ * differing versions of a DAO can share a server during a deploy. When a process first loads its library, it deletes
+ * the libraries of the other versions; a process still running one of them reloads its own on its next call, without
+ * deleting any, so each version runs its own scripts throughout a rolling deploy and at most one stale version is
+ * left behind. The value must therefore not be shared by unrelated DAOs.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FunctionLibrary {
+    String value();
+}
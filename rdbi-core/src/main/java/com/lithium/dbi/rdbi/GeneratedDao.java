@@ -0,0 +1,135 @@
+package com.lithium.dbi.rdbi;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base class of the DAO implementations generated at compile time by rdbi-processor. Those are used instead of
+ * runtime proxies when they are on the classpath: their scripts are rendered and hashed at build time, and they
+ * build keys and argv without reflection.
+ * <p>
+ * The members are only meant for generated code.
+ */
+public abstract class GeneratedDao {
+
+    static final String SUFFIX = "RdbiImpl";
+
+    private final List<Statement> statements;
+    private DaoInvoker invoker;
+
+    protected GeneratedDao(Statement... statements) {
+        this.statements = Collections.unmodifiableList(Arrays.asList(statements));
+    }
+
+    /**
+     * @return the name of the class generated for a DAO type, e.g. {@code a.b.Outer_InnerRdbiImpl} for
+     * {@code a.b.Outer.Inner}.
+     */
+    public static String implementationName(String packageName, String nestedName) {
+        String simpleName = nestedName.replace('.', '_').replace('$', '_') + SUFFIX;
+        return packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+    }
+
+    static String implementationName(Class<?> type) {
+        String packageName = type.getPackage() != null ? type.getPackage().getName() : "";
+        String nestedName = packageName.isEmpty() ? type.getName() : type.getName().substring(packageName.length() + 1);
+        return implementationName(packageName, nestedName);
+    }
+
+    void attach(DaoInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    Collection<MethodContext> contexts() {
+        final List<MethodContext> contexts = new ArrayList<>(statements.size());
+        for (Statement statement : statements) {
+            contexts.add(statement.context);
+        }
+        return contexts;
+    }
+
+    protected final Object call(Statement statement, List<?> keys, List<?> argv) {
+        return invoker.invoke(statement.context, keys, argv);
+    }
+
+    /**
+     * @param name the DAO type and method, under which its metrics are recorded.
+     */
+    protected static Statement statement(String name, String script, String sha1, Class<?> returnType, ResultMapper<?, ?> mapper) {
+        return new Statement(new MethodContext(name, sha1, script, mapper, returnType, returnType, false));
+    }
+
+    /**
+     * For methods taking or returning {@code byte[]} or {@link ByteBuffer}, called with keys and argv of
+     * {@code byte[]} built with the {@code bytes} methods.
+     */
+    protected static Statement binaryStatement(String name, String script, String sha1, Class<?> returnType,
+                                               Class<?> resultType, ResultMapper<?, ?> mapper) {
+        return new Statement(new MethodContext(name, sha1, script, mapper, returnType, resultType, true));
+    }
+
+    protected static byte[] bytes(byte[] value) {
+        return value;
+    }
+
+    protected static byte[] bytes(ByteBuffer value) {
+        return ArgumentEncoder.BYTE_BUFFER.encode(value);
+    }
+
+    protected static byte[] bytes(long value) {
+        return ArgumentEncoder.encodeLong(value);
+    }
+
+    protected static byte[] bytes(Object value) {
+        return ArgumentEncoder.STRING.encode(value);
+    }
+
+    // null results unbox to zero, as they do for the runtime proxies
+
+    protected static boolean booleanValue(Object result) {
+        return result != null && (Boolean) result;
+    }
+
+    protected static byte byteValue(Object result) {
+        return result == null ? 0 : ((Number) result).byteValue();
+    }
+
+    protected static short shortValue(Object result) {
+        return result == null ? 0 : ((Number) result).shortValue();
+    }
+
+    protected static int intValue(Object result) {
+        return result == null ? 0 : ((Number) result).intValue();
+    }
+
+    protected static long longValue(Object result) {
+        return result == null ? 0L : ((Number) result).longValue();
+    }
+
+    protected static float floatValue(Object result) {
+        return result == null ? 0f : ((Number) result).floatValue();
+    }
+
+    protected static double doubleValue(Object result) {
+        return result == null ? 0d : ((Number) result).doubleValue();
+    }
+
+    protected static char charValue(Object result) {
+        return result == null ? '\0' : (Character) result;
+    }
+
+    /**
+     * A pre-rendered script of a generated DAO method.
+     */
+    public static final class Statement {
+        private final MethodContext context;
+
+        private Statement(MethodContext context) {
+            this.context = context;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.lithium.dbi.rdbi;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
+
+/**
+ * Instantiates the implementation of a DAO type generated by rdbi-processor.
+ */
+class GeneratedDaoFactory implements DaoFactory {
+
+    private final Constructor<? extends GeneratedDao> constructor;
+    private final Collection<MethodContext> contexts;
+
+    private GeneratedDaoFactory(Constructor<? extends GeneratedDao> constructor) {
+        this.constructor = constructor;
+        this.contexts = newDao().contexts();
+    }
+
+    /**
+     * @return a factory for the generated implementation of the type, or null if there is none.
+     */
+    static GeneratedDaoFactory forType(Class<?> t) {
+        final Class<?> implementation;
+        try {
+            implementation = Class.forName(GeneratedDao.implementationName(t), true, t.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        if (!GeneratedDao.class.isAssignableFrom(implementation) || !t.isAssignableFrom(implementation)) {
+            return null;
+        }
+        try {
+            return new GeneratedDaoFactory(implementation.asSubclass(GeneratedDao.class).getConstructor());
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Generated DAO " + implementation.getName() + " has no public constructor", e);
+        }
+    }
+
+    @Override
+    public Collection<MethodContext> contexts() {
+        return contexts;
+    }
+
+    @Override
+    public Object newInstance(DaoInvoker invoker) {
+        final GeneratedDao dao = newDao();
+        dao.attach(invoker);
+        return dao;
+    }
+
+    private GeneratedDao newDao() {
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
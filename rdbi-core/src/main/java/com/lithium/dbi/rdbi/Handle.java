@@ -1,41 +1,236 @@
 package com.lithium.dbi.rdbi;
 
 import io.opentelemetry.api.trace.Tracer;
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.resps.Tuple;
+import redis.clients.jedis.util.SafeEncoder;
 
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @NotThreadSafe
 public class Handle implements Closeable {
 
     private final Jedis jedis;
-    private final Tracer tracer;
-    private JedisWrapperDoNotUse jedisWrapper;
+    private final Instrumentation instrumentation;
+    private final Replicas replicas;
+    private final PoolMetrics poolMetrics;
+    private final long borrowed;
+    private boolean returned;
+    // the socket timeout of the connection before a deadline lowered it, or -1
+    private int socketTimeout = -1;
+    private Jedis jedisWrapper;
+    private Jedis replica;
+    private Jedis readOnlyWrapper;
+    private int reentered;
+    private List<ScanCursor<?>> cursors;
 
     private final ProxyFactory proxyFactory;
 
     public Handle(Jedis jedis, ProxyFactory proxyFactory, Tracer tracer) {
+        this(jedis, proxyFactory, new OpenTelemetryInstrumentation(tracer), null);
+    }
+
+    Handle(Jedis jedis, ProxyFactory proxyFactory, Instrumentation instrumentation, Replicas replicas) {
+        this(jedis, proxyFactory, instrumentation, replicas, null);
+    }
+
+    /**
+     * @param poolMetrics records how long the connection, borrowed from the pool just now, is held.
+     */
+    Handle(Jedis jedis, ProxyFactory proxyFactory, Instrumentation instrumentation, Replicas replicas, PoolMetrics poolMetrics) {
         this.jedis = jedis;
         this.proxyFactory = proxyFactory;
-        this.tracer = tracer;
+        this.instrumentation = instrumentation;
+        this.replicas = replicas;
+        this.poolMetrics = poolMetrics;
+        this.borrowed = poolMetrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Lower the socket timeout of the connection to the time left before the deadline, until the handle is closed. It
+     * applies to each reply on its own, so a handle making many calls can still outlast the deadline.
+     */
+    void limitSocketTimeout(Deadline deadline) {
+        final Connection connection = jedis.getConnection();
+        final int timeout = connection.getSoTimeout();
+        final long remaining = deadline.remainingMillis();
+        if (timeout == 0 || remaining < timeout) {
+            // a deadline weeks away does not fit in an int
+            connection.setSoTimeout((int) Math.min(Integer.MAX_VALUE, Math.max(1, remaining)));
+            socketTimeout = timeout;
+        }
     }
 
     public Jedis jedis() {
 
         if (jedisWrapper == null) {
-            jedisWrapper = proxyFactory.attachJedis(jedis, tracer);
+            jedisWrapper = instrumentation == Instrumentation.NONE ? jedis : proxyFactory.attachJedis(jedis, instrumentation);
         }
 
         return jedisWrapper;
     }
 
+    /**
+     * @return a connection for reads: to a read replica if the RDBI has them and they are available and recent
+     * enough, otherwise {@link #jedis()}. Replicas may not have seen the latest writes, including this handle's.
+     */
+    public Jedis readOnly() {
+
+        if (readOnlyWrapper == null) {
+            replica = replicas == null ? null : replicas.borrow();
+            if (replica == null) {
+                readOnlyWrapper = jedis();
+            } else {
+                readOnlyWrapper = instrumentation == Instrumentation.NONE ? replica : proxyFactory.attachJedis(replica, instrumentation);
+            }
+        }
+
+        return readOnlyWrapper;
+    }
+
+    /**
+     * @return the replica connection that {@link ReadOnly} methods should run on, or null to use the primary.
+     */
+    Jedis replica() {
+        readOnly();
+        return replica == null ? null : readOnlyWrapper;
+    }
+
+    /**
+     * The replica connection broke: read from the primary for the rest of this handle, and for a while after.
+     */
+    void replicaFailed(Exception e) {
+        replicas.markUnavailable(e);
+        replica.close();
+        replica = null;
+        readOnlyWrapper = jedis();
+    }
+
     public <T> T attach(Class<T> type) {
-        return proxyFactory.createInstance(jedis(), type);
+        return proxyFactory.createInstance(this, type);
+    }
+
+    /**
+     * @return a pipeline on this handle's connection, batching DAO calls into a single round trip.
+     * @see PipelinedHandle
+     */
+    public PipelinedHandle pipelined() {
+        return new PipelinedHandle(jedis(), proxyFactory);
+    }
+
+    /**
+     * @return a batch on this handle's connection, running DAO calls together in a single script.
+     * @see ScriptBatch
+     */
+    public ScriptBatch batch() {
+        return new ScriptBatch(jedis(), proxyFactory);
+    }
+
+    /**
+     * Hands this handle out again, to a nested {@link RDBI#open()} in {@link RDBI#inScope(Callback)}. It is only
+     * closed once every nested user has closed it.
+     */
+    Handle reenter() {
+        reentered++;
+        return this;
+    }
+
+    /**
+     * @return the keys matching the options, fetched lazily a batch at a time with SCAN. Close the stream (or this
+     * handle) if it is not consumed to the end.
+     */
+    public Stream<String> scan(ScanOptions options) {
+        return stream(cursor -> ScanCursor.options(new CommandArguments(Protocol.Command.SCAN).add(cursor), options),
+                      1, (batch, i) -> SafeEncoder.encode((byte[]) batch.get(i)), options);
+    }
+
+    public Stream<String> scan(String pattern) {
+        return scan(ScanOptions.match(pattern));
+    }
+
+    /**
+     * @return the fields and values of the hash, fetched lazily with HSCAN, see {@link #scan(ScanOptions)}.
+     */
+    public Stream<Map.Entry<String, String>> hscan(String key, ScanOptions options) {
+        return stream(cursor -> ScanCursor.options(new CommandArguments(Protocol.Command.HSCAN).key(key).add(cursor), options),
+                      2, (batch, i) -> new AbstractMap.SimpleImmutableEntry<>(SafeEncoder.encode((byte[]) batch.get(i)),
+                                                                              SafeEncoder.encode((byte[]) batch.get(i + 1))),
+                      options);
+    }
+
+    /**
+     * @return the members of the set, fetched lazily with SSCAN, see {@link #scan(ScanOptions)}.
+     */
+    public Stream<String> sscan(String key, ScanOptions options) {
+        return stream(cursor -> ScanCursor.options(new CommandArguments(Protocol.Command.SSCAN).key(key).add(cursor), options),
+                      1, (batch, i) -> SafeEncoder.encode((byte[]) batch.get(i)), options);
+    }
+
+    /**
+     * @return the members of the sorted set with their scores, fetched lazily with ZSCAN, see
+     * {@link #scan(ScanOptions)}.
+     */
+    public Stream<Tuple> zscan(String key, ScanOptions options) {
+        return stream(cursor -> ScanCursor.options(new CommandArguments(Protocol.Command.ZSCAN).key(key).add(cursor), options),
+                      2, (batch, i) -> new Tuple((byte[]) batch.get(i), BuilderFactory.DOUBLE.build(batch.get(i + 1))),
+                      options);
+    }
+
+    private <T> Stream<T> stream(Function<String, CommandArguments> command, int stride,
+                                 BiFunction<List<Object>, Integer, T> decoder, ScanOptions options) {
+        // the commands go to the connection itself, so that read-ahead can send one without reading its reply
+        final ScanCursor<T> cursor = new ScanCursor<>(jedis.getConnection(), command, stride, decoder, options.isReadAhead());
+        if (cursors == null) {
+            cursors = new ArrayList<>();
+        }
+        cursors.add(cursor);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(cursor::close);
     }
 
     @Override
     public void close() {
+        if (reentered > 0) {
+            reentered--;
+            return;
+        }
+        if (cursors != null) {
+            // a cursor left with a batch on its way would hand its reply to the connection's next user
+            for (ScanCursor<?> cursor : cursors) {
+                cursor.close();
+            }
+        }
+        if (replica != null) {
+            replica.close();
+        }
+        if (socketTimeout >= 0) {
+            try {
+                jedis.getConnection().setSoTimeout(socketTimeout);
+            } catch (JedisConnectionException e) {
+                // the connection is broken, the pool will not hand it out again
+            }
+            socketTimeout = -1;
+        }
         jedis.close();
+        if (poolMetrics != null && !returned) {
+            returned = true;
+            poolMetrics.recordReturn(System.nanoTime() - borrowed);
+        }
     }
 }
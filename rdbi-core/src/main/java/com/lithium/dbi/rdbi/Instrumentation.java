@@ -0,0 +1,60 @@
+package com.lithium.dbi.rdbi;
+
+/**
+ * Observes the commands sent through {@link Handle#jedis()}, e.g. to trace them or to measure their latency.
+ * <p>
+ * The calls are made on the calling thread around every command, so implementations must be cheap and thread safe.
+ * {@link #isEnabled(String)} is asked first, and when it returns false the command runs without anything else being
+ * called or allocated.
+ *
+ * @see OpenTelemetryInstrumentation
+ * @see CommandMetrics
+ */
+public interface Instrumentation {
+
+    /**
+     * Observes nothing, and {@link Handle#jedis()} hands out the connection itself rather than a wrapper.
+     */
+    Instrumentation NONE = new Instrumentation() {
+        @Override
+        public boolean isEnabled(String command) {
+            return false;
+        }
+
+        @Override
+        public Object onStart(String command, Object[] args) {
+            return null;
+        }
+
+        @Override
+        public void onEnd(String command, Object context, long durationNanos, Throwable error) {
+        }
+    };
+
+    /**
+     * @param command the name of the Jedis method called, e.g. {@code get} or {@code evalsha}.
+     * @return false to leave the command alone, e.g. when it is sampled out.
+     */
+    default boolean isEnabled(String command) {
+        return true;
+    }
+
+    /**
+     * @param args the arguments of the command, not to be kept.
+     * @return whatever the matching {@link #onEnd} needs, e.g. a span, or null.
+     */
+    Object onStart(String command, Object[] args);
+
+    /**
+     * @param context what {@link #onStart} returned.
+     * @param error the exception thrown by the command, or null if it succeeded.
+     */
+    void onEnd(String command, Object context, long durationNanos, Throwable error);
+
+    /**
+     * @return an instrumentation calling both, e.g. to trace commands and measure them.
+     */
+    static Instrumentation both(Instrumentation first, Instrumentation second) {
+        return new CompositeInstrumentation(first, second);
+    }
+}
@@ -0,0 +1,112 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+class JedisInvoker implements DaoInvoker {
+
+    private final Jedis jedis;
+    private final Handle handle;
+
+    /**
+     * @param handle lends a replica connection to {@link ReadOnly} methods, or null to run them on the primary too.
+     */
+    JedisInvoker(Jedis jedis, Handle handle) {
+        this.jedis = jedis;
+        this.handle = handle;
+    }
+
+    @Override
+    public Object invoke(MethodContext context, List<?> keys, List<?> argv) {
+
+        if (!context.isAsync()) {
+            return invoke(jedis, handle, context, keys, argv);
+        }
+
+        // a handle is bound to the calling thread, so the call is made right away and the future already complete
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        try {
+            future.complete(invoke(jedis, handle, context, keys, argv));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    static Object invoke(Jedis jedis, Handle handle, MethodContext context, List<?> keys, List<?> argv) {
+        if (context.isReadOnly() && handle != null) {
+            final Jedis replica = handle.replica();
+            if (replica != null) {
+                try {
+                    return invoke(replica, context, keys, argv);
+                } catch (JedisConnectionException e) {
+                    handle.replicaFailed(e);
+                } catch (JedisDataException e) {
+                    // replicas cannot load a missing function library, the primary does and replicates it
+                    if (e.getMessage() == null || !e.getMessage().startsWith("READONLY")) {
+                        throw e;
+                    }
+                }
+            }
+        }
+        return invoke(jedis, context, keys, argv);
+    }
+
+    static Object invoke(Jedis jedis, MethodContext context, List<?> keys, List<?> argv) {
+        final long start = System.nanoTime();
+        final Object ret;
+        try {
+            ret = evalShaHandleReloadScript(jedis, context, keys, argv);
+        } catch (RuntimeException e) {
+            context.getMetrics().recordError(System.nanoTime() - start);
+            throw e;
+        }
+        context.getMetrics().record(System.nanoTime() - start, ret);
+
+        return context.map(ret);
+    }
+
+    private static Object evalShaHandleReloadScript(Jedis jedis, MethodContext context, List<?> keys, List<?> argv) {
+        try {
+            return evalsha(jedis, context, keys, argv);
+        } catch (JedisDataException e) {
+            if (isNoScript(e)) {
+                context.getMetrics().recordNoScript();
+                //If it throws again, we can back-off or we can just let it throw again. In this case, I think we should
+                //let it throw because most likely will be trying the same thing again and hopefully it will succeed later.
+                if (context.getLibrary() != null) {
+                    context.getLibrary().load(jedis);
+                } else {
+                    final String newSha = jedis.scriptLoad(context.getScript());
+                    if (!newSha.equals(context.getSha1())) {
+                        throw new IllegalStateException("sha should match but they did not");
+                    }
+                }
+                return evalsha(jedis, context, keys, argv);
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object evalsha(Jedis jedis, MethodContext context, List<?> keys, List<?> argv) {
+        if (context.usesCommand()) {
+            return jedis.sendCommand(context.command(), context.commandArgs(keys, argv));
+        } else if (context.isBinary()) {
+            return jedis.evalsha(context.getBinarySha1(), (List<byte[]>) keys, (List<byte[]>) argv);
+        }
+        return jedis.evalsha(context.getSha1(), (List<String>) keys, (List<String>) argv);
+    }
+
+    /**
+     * @return true if redis does not know the script, or the function library, of the call.
+     */
+    static boolean isNoScript(JedisDataException e) {
+        return e.getMessage() != null && (e.getMessage().contains("NOSCRIPT") || e.getMessage().contains("Function not found"));
+    }
+}
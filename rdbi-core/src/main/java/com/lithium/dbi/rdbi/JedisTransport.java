@@ -0,0 +1,106 @@
+package com.lithium.dbi.rdbi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisClientConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The default {@link Transport}: a jedis connection, written to by the threads sending commands, with a thread of its
+ * own reading the replies.
+ */
+@ThreadSafe
+class JedisTransport extends Connection implements Transport {
+
+    private static final Logger logger = LoggerFactory.getLogger(JedisTransport.class);
+    private static final AtomicInteger count = new AtomicInteger();
+
+    private final Queue<CompletableFuture<Object>> pending;
+
+    JedisTransport(HostAndPort address, JedisClientConfig config) {
+        super(address, config);
+        this.pending = new ConcurrentLinkedQueue<>();
+        // the reader waits for replies as long as it takes, the callers time out on their own
+        setTimeoutInfinite();
+        final Thread reader = new Thread(this::read, "rdbi-transport-" + count.incrementAndGet());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public synchronized CompletableFuture<Object> send(CommandArguments args) {
+        final CompletableFuture<Object> reply = new CompletableFuture<>();
+        if (isBroken()) {
+            reply.completeExceptionally(new JedisConnectionException("The connection is broken"));
+            return reply;
+        }
+        // queued before it is written, so it is in place before its reply can be read
+        pending.add(reply);
+        try {
+            sendCommand(args);
+            flush();
+        } catch (RuntimeException e) {
+            // closing the socket wakes the reader up, which fails this and all other pending replies
+            disconnect();
+        }
+        return reply;
+    }
+
+    private void read() {
+        while (true) {
+            final Object reply;
+            try {
+                reply = readProtocolWithCheckingBroken();
+            } catch (JedisDataException e) {
+                // an error reply, the connection is fine
+                complete(e);
+                continue;
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+            complete(reply);
+        }
+    }
+
+    private void complete(Object reply) {
+        final CompletableFuture<Object> future = pending.poll();
+        if (future == null) {
+            logger.warn("Dropping a reply no command was waiting for: {}", reply);
+        } else if (reply instanceof JedisDataException) {
+            future.completeExceptionally((JedisDataException) reply);
+        } else {
+            future.complete(reply);
+        }
+    }
+
+    private synchronized void fail(RuntimeException e) {
+        setBroken();
+        if (!pending.isEmpty()) {
+            logger.warn("Lost the connection with {} commands waiting for a reply", pending.size(), e);
+        }
+        CompletableFuture<Object> future;
+        while ((future = pending.poll()) != null) {
+            future.completeExceptionally(e);
+        }
+        try {
+            disconnect();
+        } catch (RuntimeException ignored) {
+            // already broken
+        }
+    }
+
+    static TransportFactory factory(HostAndPort address, JedisClientConfig config) {
+        return () -> new JedisTransport(address, config);
+    }
+}
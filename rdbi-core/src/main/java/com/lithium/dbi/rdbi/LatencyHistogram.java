@@ -0,0 +1,88 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies counted in power-of-two microsecond buckets, recorded without locking or allocating. Bucket {@code i}
+ * counts the latencies of up to 2<sup>i</sup> microseconds that did not fit the bucket before it; the last bucket
+ * counts everything longer.
+ */
+public class LatencyHistogram {
+
+    public static final int BUCKETS = 32;
+
+    private final LongAdder[] buckets;
+    private final LongAdder totalNanos;
+
+    public LatencyHistogram() {
+        buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+        totalNanos = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        final long micros = nanos <= 0 ? 0 : (nanos - 1) / 1000 + 1;
+        // the base 2 logarithm, rounded up
+        final int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @return the count of every bucket, see {@link #bucketUpperBoundMicros(int)}.
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return the longest latency counted in the bucket, or {@link Long#MAX_VALUE} for the last one.
+     */
+    public static long bucketUpperBoundMicros(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * @param percentile from 0 to 100.
+     * @return the upper bound of the bucket holding that percentile, i.e. an estimate within a factor of two, or 0 if
+     * nothing was recorded.
+     */
+    public long percentileMicros(double percentile) {
+        final long[] counts = getBucketCounts();
+        long count = 0;
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketUpperBoundMicros(i);
+            }
+        }
+        return bucketUpperBoundMicros(BUCKETS - 1);
+    }
+}
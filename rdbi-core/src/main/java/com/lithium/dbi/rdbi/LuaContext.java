@@ -1,15 +1,22 @@
 package com.lithium.dbi.rdbi;
 
+import java.util.Collections;
 import java.util.Set;
 
 class LuaContext {
 
     private final String renderedLuaString;
     private final Set<Integer> keys;
+    private final Set<Integer> groups;
 
     public LuaContext(String renderedLuaString, Set<Integer> keys) {
+        this(renderedLuaString, keys, Collections.emptySet());
+    }
+
+    public LuaContext(String renderedLuaString, Set<Integer> keys, Set<Integer> groups) {
         this.renderedLuaString = renderedLuaString;
         this.keys = keys;
+        this.groups = groups;
     }
 
     public String getRenderedLuaString() {
@@ -20,11 +27,19 @@ class LuaContext {
         return keys.contains(key);
     }
 
+    /**
+     * @return true if the parameter is a collection that expands into one entry per element.
+     */
+    public boolean isGroup(int param) {
+        return groups.contains(param);
+    }
+
     @Override
     public String toString() {
         return "RenderedResult{" +
                 "renderedLuaString='" + renderedLuaString + '\'' +
                 ", keys=" + keys +
+                ", groups=" + groups +
                 '}';
     }
 }
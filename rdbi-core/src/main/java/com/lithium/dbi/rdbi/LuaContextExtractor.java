@@ -4,9 +4,27 @@ import org.antlr.stringtemplate.StringTemplate;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+/**
+ * Renders the bindings of a {@link Query} into KEYS and ARGV, in parameter order.
+ * <p>
+ * Collection-valued parameters expand into as many entries as they have elements. Those groups go after the
+ * scalar bindings, so scalars keep fixed positions, and the element count of each group is passed in ARGV right
+ * after the scalar arguments:
+ * <pre>
+ *     KEYS: scalar keys, then the elements of each key group
+ *     ARGV: scalar args, then the count of each group (keys and args, in parameter order),
+ *           then the elements of each arg group
+ * </pre>
+ * In the script, a group renders as {@code unpack(...)} of its entries, e.g. {@code redis.call('MGET', $keys$)},
+ * and exposes {@code $keys.count$} and {@code $keys.offset$}, the number of entries before it, for loops like
+ * {@code for i = 1, $keys.count$ do redis.call('GET', KEYS[$keys.offset$ + i]) end}.
+ */
 class LuaContextExtractor {
 
     public LuaContext render(String query, Method method) {
@@ -14,23 +32,25 @@ class LuaContextExtractor {
         StringTemplate st = new StringTemplate(query);
 
         Annotation[][] annotationsParams = method.getParameterAnnotations();
-        int paramCounter = 0;
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        String[] attributes = new String[annotationsParams.length];
+        boolean[] isBinds = new boolean[annotationsParams.length];
         Set<Integer> keys = new HashSet<>();
-        int keyCounter = 0;
-        int argCounter = 0;
-        for ( Annotation[] annotations : annotationsParams) {
+        Set<Integer> groups = new HashSet<>();
+        int scalarKeys = 0;
+        int scalarArgs = 0;
+
+        for (int paramCounter = 0; paramCounter < annotationsParams.length; paramCounter++) {
             String attribute = null;
             boolean isBind = false;
 
-            for (Annotation annotation : annotations) {
+            for (Annotation annotation : annotationsParams[paramCounter]) {
                 if (annotation instanceof BindArg) {
                     attribute = ((BindArg) annotation).value();
                     isBind = true;
-                    argCounter++;
                     break;
                 } else if (annotation instanceof BindKey) {
                     attribute = ((BindKey) annotation).value();
-                    keyCounter++;
                     break;
                 }
             }
@@ -41,17 +61,83 @@ class LuaContextExtractor {
                         " Parameter at " + paramCounter + " does not have Bind or BindKey annotation.");
             }
 
-            String value;
-            if (isBind) {
-                value = "ARGV[" + argCounter + "]";
-            } else {
-                value = "KEYS[" + keyCounter + "]";
+            attributes[paramCounter] = attribute;
+            isBinds[paramCounter] = isBind;
+            if (!isBind) {
                 keys.add(paramCounter);
             }
-            st.setAttribute(attribute, value);
+            if (Collection.class.isAssignableFrom(parameterTypes[paramCounter])) {
+                groups.add(paramCounter);
+            } else if (isBind) {
+                scalarArgs++;
+            } else {
+                scalarKeys++;
+            }
+        }
+
+        int keyCounter = 0;
+        int argCounter = 0;
+        int groupCounter = 0;
+        List<String> keyGroupCounts = new ArrayList<>();
+        List<String> argGroupCounts = new ArrayList<>();
+        for (int paramCounter = 0; paramCounter < attributes.length; paramCounter++) {
+            Object value;
+            if (groups.contains(paramCounter)) {
+                String count = "tonumber(ARGV[" + (scalarArgs + (++groupCounter)) + "])";
+                if (isBinds[paramCounter]) {
+                    value = new Group("ARGV", offset(scalarArgs + groups.size(), argGroupCounts), count);
+                    argGroupCounts.add(count);
+                } else {
+                    value = new Group("KEYS", offset(scalarKeys, keyGroupCounts), count);
+                    keyGroupCounts.add(count);
+                }
+            } else if (isBinds[paramCounter]) {
+                value = "ARGV[" + (++argCounter) + "]";
+            } else {
+                value = "KEYS[" + (++keyCounter) + "]";
+            }
+            st.setAttribute(attributes[paramCounter], value);
+        }
+        return new LuaContext(st.toString(), keys, groups);
+    }
+
+    private static String offset(int base, List<String> previousCounts) {
+        if (previousCounts.isEmpty()) {
+            return Integer.toString(base);
+        }
+        StringBuilder offset = new StringBuilder("(");
+        if (base > 0) {
+            offset.append(base).append(" + ");
+        }
+        return offset.append(String.join(" + ", previousCounts)).append(')').toString();
+    }
+
+    /**
+     * The template attribute of a collection-valued parameter. Public for StringTemplate, which reads the
+     * properties reflectively.
+     */
+    public static class Group {
+        private final String list;
+        private final String offset;
+        private final String count;
+
+        Group(String list, String offset, String count) {
+            this.list = list;
+            this.offset = offset;
+            this.count = count;
+        }
+
+        public String getOffset() {
+            return offset;
+        }
+
+        public String getCount() {
+            return count;
+        }
 
-            paramCounter++;
+        @Override
+        public String toString() {
+            return "unpack(" + list + ", " + offset + " + 1, " + offset + " + " + count + ")";
         }
-        return new LuaContext(st.toString(), keys);
     }
 }
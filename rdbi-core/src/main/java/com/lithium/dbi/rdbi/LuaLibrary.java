@@ -0,0 +1,163 @@
+package com.lithium.dbi.rdbi;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The function library of a DAO annotated with {@link FunctionLibrary}: each method's script becomes the body of a
+ * function taking KEYS and ARGV, so the scripts run unchanged.
+ */
+final class LuaLibrary {
+
+    private static final Logger logger = LoggerFactory.getLogger(LuaLibrary.class);
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_]+");
+    private static final int HASH_LENGTH = 12;
+    private static final byte[] LOAD = SafeEncoder.encode("LOAD");
+    private static final byte[] REPLACE = SafeEncoder.encode("REPLACE");
+
+    private final String baseName;
+    private final String name;
+    private final String code;
+    private final Map<Method, String> functions;
+
+    private LuaLibrary(String baseName, String name, String code, Map<Method, String> functions) {
+        this.baseName = baseName;
+        this.name = name;
+        this.code = code;
+        this.functions = functions;
+    }
+
+    /**
+     * @param scripts the rendered script of every method of the DAO.
+     */
+    static LuaLibrary of(String baseName, Map<Method, String> scripts) {
+        if (!NAME.matcher(baseName).matches()) {
+            throw new IllegalArgumentException("Function library names may only contain letters, digits and underscores: " + baseName);
+        }
+
+        List<Method> methods = new ArrayList<>(scripts.keySet());
+        methods.sort(Comparator.comparing(Method::toString));
+
+        StringBuilder content = new StringBuilder();
+        for (Method method : methods) {
+            content.append(method).append('\n').append(scripts.get(method)).append('\n');
+        }
+        String name = baseName + "_" + DigestUtils.sha1Hex(content.toString()).substring(0, HASH_LENGTH);
+
+        // function names are global on the server, so they carry the library name
+        Map<Method, String> functions = new HashMap<>();
+        Set<String> taken = new HashSet<>();
+        StringBuilder code = new StringBuilder("#!lua name=").append(name).append('\n');
+        for (Method method : methods) {
+            String function = name + "_" + method.getName();
+            for (int i = 2; !taken.add(function); i++) {
+                function = name + "_" + method.getName() + "_" + i;
+            }
+            functions.put(method, function);
+            code.append("redis.register_function('").append(function).append("', function(KEYS, ARGV)\n")
+                .append(scripts.get(method)).append("\nend)\n");
+        }
+        return new LuaLibrary(baseName, name, code.toString(), functions);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getCode() {
+        return code;
+    }
+
+    String functionName(Method method) {
+        return functions.get(method);
+    }
+
+    void load(Jedis jedis) {
+        verify(jedis.sendCommand(FunctionCommand.FUNCTION, "LOAD", "REPLACE", code));
+    }
+
+    /**
+     * Load the library on the cluster node serving the slot of the sample key.
+     */
+    void load(UnifiedJedis cluster, byte[] sampleKey) {
+        verify(cluster.sendCommand(sampleKey, FunctionCommand.FUNCTION, LOAD, REPLACE, SafeEncoder.encode(code)));
+    }
+
+    Response<Object> load(Pipeline pipeline) {
+        return pipeline.sendCommand(FunctionCommand.FUNCTION, "LOAD", "REPLACE", code);
+    }
+
+    /**
+     * Delete the libraries of the other versions of this DAO: those named after the same value, with another hash.
+     * <p>
+     * Only done when a process first loads its library, not when a call finds its functions missing: a process still
+     * running another version then reloads its own library once, without deleting this one, so both versions keep
+     * running their own scripts until the deploy is over. At most one stale version is thus left on the server,
+     * until the next time a process starts.
+     */
+    void deleteOtherVersions(Jedis jedis) {
+        final StringBuilder pattern = new StringBuilder(baseName).append('_');
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            pattern.append('?');
+        }
+        final Object listed;
+        try {
+            listed = jedis.sendCommand(FunctionCommand.FUNCTION, "LIST", "LIBRARYNAME", pattern.toString());
+        } catch (JedisDataException e) {
+            // e.g. not allowed by the ACL of the user; the stale libraries only take memory
+            logger.warn("Could not list the older versions of function library {}", name, e);
+            return;
+        }
+        for (Object library : (List<?>) listed) {
+            final String other = libraryName((List<?>) library);
+            if (other == null || other.equals(name)) {
+                continue;
+            }
+            try {
+                jedis.sendCommand(FunctionCommand.FUNCTION, "DELETE", other);
+            } catch (JedisDataException e) {
+                // e.g. deleted by another process in the meantime
+                logger.debug("Could not delete function library {}", other, e);
+            }
+        }
+    }
+
+    /**
+     * @param library an entry of the reply to FUNCTION LIST, a flat list of field names and values.
+     */
+    private static String libraryName(List<?> library) {
+        for (int i = 0; i + 1 < library.size(); i += 2) {
+            if ("library_name".equals(SafeEncoder.encode((byte[]) library.get(i)))) {
+                return SafeEncoder.encode((byte[]) library.get(i + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param reply the reply to FUNCTION LOAD, the name of the loaded library.
+     */
+    void verify(Object reply) {
+        if (!name.equals(SafeEncoder.encode((byte[]) reply))) {
+            throw new IllegalStateException("library name should match but they did not");
+        }
+    }
+}
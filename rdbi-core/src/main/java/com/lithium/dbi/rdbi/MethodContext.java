@@ -1,15 +1,104 @@
 package com.lithium.dbi.rdbi;
 
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
 class MethodContext {
 
+    private static final int[] NONE = new int[0];
+
     private final String sha1;
+    private final byte[] binarySha1;
+    private final String script;
     private final ResultMapper mapper;
     private final LuaContext luaContext;
+    private final Class<?> returnType;
+    private final Class<?> resultType;
+    private final boolean async;
+    private final boolean binary;
+    private final boolean readOnly;
+    // set for the methods of a FunctionLibrary DAO, which are called with FCALL
+    private final LuaLibrary library;
+    private final byte[] function;
+    private final DaoMethodMetrics metrics;
+
+    // which arguments go to KEYS and which to ARGV, worked out once instead of on every call
+    private final int[] keyIndexes;
+    private final int[] argIndexes;
+    // collection-valued arguments, see LuaContextExtractor for their layout
+    private final int[] keyGroupIndexes;
+    private final int[] argGroupIndexes;
+    private final int[] groupIndexes;
+    // by parameter index, only for binary methods
+    private final ArgumentEncoder[] encoders;
 
-    public MethodContext(String sha1, ResultMapper mapper, LuaContext luaContext) {
+    public MethodContext(Method method, String sha1, String script, ResultMapper mapper, LuaContext luaContext) {
+        this(method, sha1, script, mapper, luaContext, null);
+    }
+
+    MethodContext(Method method, String sha1, String script, ResultMapper mapper, LuaContext luaContext, LuaLibrary library) {
         this.sha1 = sha1;
+        this.binarySha1 = SafeEncoder.encode(sha1);
+        this.script = script;
         this.mapper = mapper;
         this.luaContext = luaContext;
+        this.returnType = method.getReturnType();
+        this.resultType = resultType(method.getGenericReturnType());
+        this.async = returnType == CompletableFuture.class;
+        this.binary = isBinary(method, resultType);
+        this.readOnly = method.isAnnotationPresent(ReadOnly.class);
+        this.library = library;
+        this.function = library == null ? null : SafeEncoder.encode(library.functionName(method));
+        this.metrics = new DaoMethodMetrics(method.getDeclaringClass().getName() + "." + method.getName(), sha1);
+
+        this.keyIndexes = bindingIndexes(method, luaContext, true, false);
+        this.argIndexes = bindingIndexes(method, luaContext, false, false);
+        this.keyGroupIndexes = bindingIndexes(method, luaContext, true, true);
+        this.argGroupIndexes = bindingIndexes(method, luaContext, false, true);
+        this.groupIndexes = luaContext == null ? new int[0]
+                                               : IntStream.range(0, method.getParameterCount())
+                                                          .filter(luaContext::isGroup)
+                                                          .toArray();
+        this.encoders = binary && luaContext != null ? encoders(method) : null;
+    }
+
+    /**
+     * For generated DAOs, which build the keys and argv themselves (as byte arrays for binary methods).
+     */
+    MethodContext(String name, String sha1, String script, ResultMapper mapper, Class<?> returnType, Class<?> resultType, boolean binary) {
+        this.sha1 = sha1;
+        this.binarySha1 = SafeEncoder.encode(sha1);
+        this.script = script;
+        this.mapper = mapper;
+        this.luaContext = null;
+        this.returnType = returnType;
+        this.resultType = resultType;
+        this.async = returnType == CompletableFuture.class;
+        this.binary = binary;
+        this.readOnly = false;
+        this.library = null;
+        this.function = null;
+        this.metrics = new DaoMethodMetrics(name, sha1);
+
+        this.keyIndexes = new int[0];
+        this.argIndexes = new int[0];
+        this.keyGroupIndexes = new int[0];
+        this.argGroupIndexes = new int[0];
+        this.groupIndexes = new int[0];
+        this.encoders = null;
+    }
+
+    public Class<?> getReturnType() {
+        return returnType;
     }
 
     public ResultMapper getMapper() {
@@ -20,6 +109,17 @@ class MethodContext {
         return sha1;
     }
 
+    byte[] getBinarySha1() {
+        return binarySha1;
+    }
+
+    /**
+     * @return the script text as loaded into redis, used to reload it after a NOSCRIPT error.
+     */
+    public String getScript() {
+        return script;
+    }
+
     public LuaContext getLuaContext() {
         return luaContext;
     }
@@ -27,4 +127,239 @@ class MethodContext {
     public boolean hasDynamicLists() {
         return luaContext != null;
     }
+
+    /**
+     * @return true if the method returns a {@link java.util.concurrent.CompletableFuture} of its (mapped) result.
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * @return true if the method takes or returns {@code byte[]} or {@link ByteBuffer}, in which case its keys and
+     * argv are lists of {@code byte[]} and the script is called with the binary EVALSHA.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return true if the method is {@link ReadOnly}: it is called with EVALSHA_RO or FCALL_RO, on a replica if any.
+     */
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    DaoMethodMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the function library holding this method, or null if it is run as a script.
+     */
+    LuaLibrary getLibrary() {
+        return library;
+    }
+
+    /**
+     * @return the name of the function running this method in its library, or null if it is run as a script.
+     */
+    String getFunctionName() {
+        return function == null ? null : SafeEncoder.encode(function);
+    }
+
+    /**
+     * @return false if the script binds no key, so nothing tells which cluster node should run it. Raw methods take
+     * their keys as a list and are only checked when called.
+     */
+    boolean bindsKeys() {
+        return luaContext == null || keyIndexes.length > 0 || keyGroupIndexes.length > 0;
+    }
+
+    /**
+     * @return true if the method is sent as {@link #command()} rather than with the EVALSHA of Jedis.
+     */
+    boolean usesCommand() {
+        return library != null || readOnly;
+    }
+
+    /**
+     * @return FCALL or FCALL_RO for the methods of a function library, EVALSHA_RO for read-only scripts.
+     */
+    FunctionCommand command() {
+        if (library == null) {
+            return FunctionCommand.EVALSHA_RO;
+        }
+        return readOnly ? FunctionCommand.FCALL_RO : FunctionCommand.FCALL;
+    }
+
+    /**
+     * @return the arguments of {@link #command()}: the function or sha1, the number of keys, the keys and argv.
+     */
+    byte[][] commandArgs(List<?> keys, List<?> argv) {
+        final int keyCount = keys == null ? 0 : keys.size();
+        final int argCount = argv == null ? 0 : argv.size();
+        final byte[][] args = new byte[2 + keyCount + argCount][];
+        args[0] = library != null ? function : binarySha1;
+        args[1] = ArgumentEncoder.encodeLong(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            args[2 + i] = encoded(keys.get(i));
+        }
+        for (int i = 0; i < argCount; i++) {
+            args[2 + keyCount + i] = encoded(argv.get(i));
+        }
+        return args;
+    }
+
+    private static byte[] encoded(Object value) {
+        return value instanceof byte[] ? (byte[]) value : SafeEncoder.encode(value.toString());
+    }
+
+    List<?> keys(Object[] args) {
+        if (!hasDynamicLists()) {
+            return args.length > 0 ? (List<?>) args[0] : null;
+        }
+        return bind(args, keyIndexes, NONE, keyGroupIndexes);
+    }
+
+    List<?> argv(Object[] args) {
+        if (!hasDynamicLists()) {
+            return args.length > 1 ? (List<?>) args[1] : null;
+        }
+        return bind(args, argIndexes, groupIndexes, argGroupIndexes);
+    }
+
+    /**
+     * @return the scalar arguments, then the sizes of the counted groups, then the elements of the expanded groups.
+     */
+    private List<?> bind(Object[] args, int[] indexes, int[] counted, int[] expanded) {
+        int size = indexes.length + counted.length;
+        for (int i : expanded) {
+            size += ((Collection<?>) args[i]).size();
+        }
+
+        final Object[] values = binary ? new byte[size][] : new String[size];
+        int position = 0;
+        for (int i : indexes) {
+            values[position++] = binary ? encoders[i].encode(args[i]) : args[i].toString();
+        }
+        for (int i : counted) {
+            final int count = ((Collection<?>) args[i]).size();
+            values[position++] = binary ? ArgumentEncoder.encodeLong(count) : Integer.toString(count);
+        }
+        for (int i : expanded) {
+            for (Object element : (Collection<?>) args[i]) {
+                values[position++] = binary ? ArgumentEncoder.forType(element.getClass()).encode(element) : element.toString();
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    @SuppressWarnings("unchecked")
+    Object map(Object result) {
+        if (result == null) {
+            return null;
+        }
+        if (usesCommand() && !binary) {
+            // FCALL and EVALSHA_RO replies are raw, decode them as the String EVALSHA does
+            result = SafeEncoder.encodeObject(result);
+        }
+        if (mapper != null) {
+            // the mapper of a binary method gets the reply as sent by redis, bulk strings as byte[]
+            return mapper.map(result);
+        }
+        return binary ? decode(result) : result;
+    }
+
+    /**
+     * Converts a reply of the binary EVALSHA to the declared result type. Integer results are parsed straight from
+     * the reply bytes; anything else that is not binary is decoded the way the String EVALSHA would have.
+     */
+    private Object decode(Object reply) {
+        if (resultType == byte[].class) {
+            return reply instanceof Long ? ArgumentEncoder.encodeLong((Long) reply) : reply;
+        } else if (resultType == ByteBuffer.class) {
+            return ByteBuffer.wrap(reply instanceof Long ? ArgumentEncoder.encodeLong((Long) reply) : (byte[]) reply);
+        } else if (reply instanceof byte[] && (resultType == long.class || resultType == Long.class)) {
+            return decodeLong((byte[]) reply);
+        } else if (reply instanceof byte[] && (resultType == int.class || resultType == Integer.class)) {
+            return (int) decodeLong((byte[]) reply);
+        }
+        return SafeEncoder.encodeObject(reply);
+    }
+
+    static long decodeLong(byte[] bytes) {
+        final boolean negative = bytes.length > 0 && bytes[0] == '-';
+        final int start = negative ? 1 : 0;
+        if (bytes.length == start || bytes.length - start > 18) {
+            // empty, or long enough to overflow: leave the edge cases to the JDK
+            return Long.parseLong(SafeEncoder.encode(bytes));
+        }
+
+        long value = 0;
+        for (int i = start; i < bytes.length; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + SafeEncoder.encode(bytes) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    static boolean isBinaryType(Type type) {
+        return type == byte[].class || (type instanceof Class && ByteBuffer.class.isAssignableFrom((Class<?>) type));
+    }
+
+    private static boolean isBinary(Method method, Class<?> resultType) {
+        if (isBinaryType(resultType)) {
+            return true;
+        }
+        for (Type type : method.getGenericParameterTypes()) {
+            // raw methods are binary when they take List<byte[]>
+            if (isBinaryType(type) || (type instanceof ParameterizedType
+                    && isBinaryType(((ParameterizedType) type).getActualTypeArguments()[0]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the type of the result, unwrapped from the {@link CompletableFuture} of async methods.
+     */
+    private static Class<?> resultType(Type returnType) {
+        if (returnType instanceof ParameterizedType) {
+            final ParameterizedType parameterized = (ParameterizedType) returnType;
+            if (parameterized.getRawType() == CompletableFuture.class) {
+                final Type result = parameterized.getActualTypeArguments()[0];
+                if (result instanceof Class) {
+                    return (Class<?>) result;
+                } else if (result instanceof ParameterizedType) {
+                    return (Class<?>) ((ParameterizedType) result).getRawType();
+                }
+                return Object.class;
+            }
+            return (Class<?>) parameterized.getRawType();
+        }
+        return returnType instanceof Class ? (Class<?>) returnType : Object.class;
+    }
+
+    private static ArgumentEncoder[] encoders(Method method) {
+        final Class<?>[] types = method.getParameterTypes();
+        final ArgumentEncoder[] encoders = new ArgumentEncoder[types.length];
+        for (int i = 0; i < types.length; i++) {
+            encoders[i] = ArgumentEncoder.forType(types[i]);
+        }
+        return encoders;
+    }
+
+    private static int[] bindingIndexes(Method method, LuaContext luaContext, boolean keys, boolean groups) {
+        if (luaContext == null) {
+            return new int[0];
+        }
+        return IntStream.range(0, method.getParameterCount())
+                        .filter(i -> luaContext.isKey(i) == keys && luaContext.isGroup(i) == groups)
+                        .toArray();
+    }
 }
@@ -0,0 +1,124 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The connection of one handle of a multiplexed RDBI: it has no socket of its own, and sends its commands on a lane
+ * of the {@link Multiplexer} it shares with other handles. Jedis (and its pipelines) use it like any other connection.
+ * <p>
+ * Commands that change the state of the connection, or block it, would affect every handle on the lane, so they
+ * are rejected.
+ */
+@NotThreadSafe
+class MultiplexedConnection extends Connection {
+
+    private static final Set<String> UNSHAREABLE = new HashSet<>(Arrays.asList(
+            "MULTI", "EXEC", "DISCARD", "WATCH", "UNWATCH", "SELECT", "AUTH", "HELLO", "CLIENT", "RESET", "QUIT",
+            "MONITOR", "SUBSCRIBE", "PSUBSCRIBE", "SSUBSCRIBE", "UNSUBSCRIBE", "PUNSUBSCRIBE", "SUNSUBSCRIBE",
+            "BLPOP", "BRPOP", "BRPOPLPUSH", "BLMOVE", "BLMPOP", "BZPOPMIN", "BZPOPMAX", "BZMPOP", "WAIT"));
+
+    private final Transport lane;
+    private final long timeoutMillis;
+    private final Queue<CompletableFuture<Object>> replies;
+    private boolean closed;
+
+    MultiplexedConnection(Transport lane, long timeoutMillis) {
+        this.lane = lane;
+        this.timeoutMillis = timeoutMillis;
+        this.replies = new ArrayDeque<>();
+    }
+
+    @Override
+    public void sendCommand(CommandArguments args) {
+        if (closed) {
+            throw new JedisConnectionException("The handle is closed");
+        }
+        final String command = SafeEncoder.encode(args.getCommand().getRaw());
+        if (args.isBlocking() || UNSHAREABLE.contains(command)) {
+            throw new UnsupportedOperationException(command + " cannot be sent on a multiplexed connection");
+        }
+        replies.add(lane.send(args));
+    }
+
+    /**
+     * The lane writes every command as it is sent.
+     */
+    @Override
+    protected void flush() {
+    }
+
+    @Override
+    protected Object readProtocolWithCheckingBroken() {
+        final CompletableFuture<Object> reply = replies.poll();
+        if (reply == null) {
+            throw new IllegalStateException("No command is waiting for a reply");
+        }
+        try {
+            return timeoutMillis > 0 ? reply.get(timeoutMillis, TimeUnit.MILLISECONDS) : reply.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisConnectionException(e);
+        } catch (TimeoutException e) {
+            throw new JedisConnectionException("No reply from redis within " + timeoutMillis + " ms", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new JedisConnectionException(e.getCause());
+        }
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed && !lane.isBroken();
+    }
+
+    @Override
+    public boolean isBroken() {
+        return lane.isBroken();
+    }
+
+    /**
+     * Blocking commands are rejected, so the timeout never changes.
+     */
+    @Override
+    public void setTimeoutInfinite() {
+    }
+
+    @Override
+    public void rollbackTimeout() {
+    }
+
+    @Override
+    public void disconnect() {
+        closed = true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiplexedConnection{" + lane + '}';
+    }
+}
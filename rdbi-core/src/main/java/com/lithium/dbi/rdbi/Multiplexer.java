@@ -0,0 +1,97 @@
+package com.lithium.dbi.rdbi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares a few connections ({@link Transport}s) between any number of handles. Each handle is given one of the
+ * connections (a lane), and its commands are sent on it as soon as they are made, interleaved with those of the other
+ * handles on the lane, without waiting for the replies to the commands before them. The transport hands each reply
+ * to the command it answers, which redis replies to in the order they were sent.
+ * <p>
+ * A lane is connected when it is first needed, and replaced by a new one once it breaks.
+ */
+@ThreadSafe
+class Multiplexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(Multiplexer.class);
+
+    private final TransportFactory factory;
+    private final Transport[] lanes;
+    private final long timeoutMillis;
+    private final AtomicInteger next;
+    private boolean closed;
+
+    /**
+     * @param timeout how long a caller waits for a reply.
+     */
+    Multiplexer(TransportFactory factory, int connections, Duration timeout) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("At least one connection is needed");
+        }
+        this.factory = factory;
+        this.lanes = new Transport[connections];
+        this.timeoutMillis = timeout.toMillis();
+        this.next = new AtomicInteger();
+    }
+
+    /**
+     * @param deadline the handle waits for each reply no longer than the time left, if less than the timeout.
+     * @return a connection for one handle, sending its commands on the next lane in turn.
+     */
+    Connection connection(Deadline deadline) {
+        final long remaining = deadline.remainingMillis();
+        if (remaining == Long.MAX_VALUE) {
+            return new MultiplexedConnection(lane(), timeoutMillis);
+        }
+        final long timeout = timeoutMillis > 0 ? Math.min(timeoutMillis, remaining) : remaining;
+        return new MultiplexedConnection(lane(), Math.max(1, timeout));
+    }
+
+    /**
+     * Send a single command, on the next lane in turn.
+     */
+    CompletableFuture<Object> send(CommandArguments command) {
+        return lane().send(command);
+    }
+
+    private Transport lane() {
+        return lane(Math.floorMod(next.getAndIncrement(), lanes.length));
+    }
+
+    /**
+     * Close the lanes; the handles using them fail from then on.
+     */
+    synchronized void close() {
+        closed = true;
+        for (int i = 0; i < lanes.length; i++) {
+            if (lanes[i] != null) {
+                lanes[i].close();
+                lanes[i] = null;
+            }
+        }
+    }
+
+    private synchronized Transport lane(int index) {
+        if (closed) {
+            throw new IllegalStateException("The RDBI is closed");
+        }
+        Transport lane = lanes[index];
+        if (lane == null || lane.isBroken()) {
+            if (lane != null) {
+                logger.info("Replacing a broken connection");
+                lane.close();
+            }
+            lane = factory.connect();
+            lanes[index] = lane;
+        }
+        return lane;
+    }
+}
@@ -0,0 +1,224 @@
+package com.lithium.dbi.rdbi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisClientConfig;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Transport} on a non-blocking socket: commands are queued by the threads sending them, and a single thread
+ * per connection writes them out and reads the replies as the socket is ready, so nothing ever blocks on the network
+ * but that thread. It speaks the redis protocol itself, and does not support SSL.
+ * <pre>
+ *     RDBI rdbi = RDBI.builder(pool)
+ *                     .transport(NioTransport.factory(address, config), 2, Duration.ofSeconds(2))
+ *                     .build();
+ * </pre>
+ */
+@ThreadSafe
+public class NioTransport implements Transport {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioTransport.class);
+    private static final AtomicInteger count = new AtomicInteger();
+
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final Queue<ByteBuffer> outgoing;
+    private final Queue<CompletableFuture<Object>> pending;
+    private final AtomicBoolean wakingUp;
+    private volatile boolean broken;
+
+    private NioTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.selector = Selector.open();
+        this.outgoing = new ConcurrentLinkedQueue<>();
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.wakingUp = new AtomicBoolean();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+        final Thread io = new Thread(this::run, "rdbi-nio-" + count.incrementAndGet());
+        io.setDaemon(true);
+        io.start();
+    }
+
+    /**
+     * @param config the connection timeout, user, password, database and client name are used, a caller's timeout is
+     *               given to {@link RDBI.Builder#transport(TransportFactory, int, java.time.Duration)}.
+     */
+    public static TransportFactory factory(HostAndPort address, JedisClientConfig config) {
+        if (config.isSsl()) {
+            throw new IllegalArgumentException("NioTransport does not support SSL");
+        }
+        return () -> connect(address, config);
+    }
+
+    private static NioTransport connect(HostAndPort address, JedisClientConfig config) {
+        final NioTransport transport;
+        try {
+            final SocketChannel channel = SocketChannel.open();
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            channel.socket().connect(new InetSocketAddress(address.getHost(), address.getPort()),
+                                     config.getConnectionTimeoutMillis());
+            transport = new NioTransport(channel);
+        } catch (IOException e) {
+            throw new JedisConnectionException("Failed to connect to " + address, e);
+        }
+
+        final List<CompletableFuture<Object>> handshake = new ArrayList<>();
+        if (config.getPassword() != null) {
+            handshake.add(config.getUser() != null
+                          ? transport.send(new CommandArguments(Protocol.Command.AUTH).add(config.getUser()).add(config.getPassword()))
+                          : transport.send(new CommandArguments(Protocol.Command.AUTH).add(config.getPassword())));
+        }
+        if (config.getDatabase() != Protocol.DEFAULT_DATABASE) {
+            handshake.add(transport.send(new CommandArguments(Protocol.Command.SELECT).add(config.getDatabase())));
+        }
+        if (config.getClientName() != null) {
+            handshake.add(transport.send(new CommandArguments(Protocol.Command.CLIENT).add("SETNAME").add(config.getClientName())));
+        }
+        try {
+            for (CompletableFuture<Object> reply : handshake) {
+                reply.get(config.getConnectionTimeoutMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException | TimeoutException | ExecutionException e) {
+            transport.close();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            } else if (e.getCause() instanceof JedisDataException) {
+                throw (JedisDataException) e.getCause();
+            }
+            throw new JedisConnectionException("Failed to set up the connection to " + address, e);
+        }
+        return transport;
+    }
+
+    @Override
+    public CompletableFuture<Object> send(CommandArguments command) {
+        final CompletableFuture<Object> reply = new CompletableFuture<>();
+        final ByteBuffer encoded = RespCodec.encode(command);
+        synchronized (this) {
+            if (broken) {
+                reply.completeExceptionally(new JedisConnectionException("The connection is broken"));
+                return reply;
+            }
+            pending.add(reply);
+            outgoing.add(encoded);
+        }
+        // one wake-up for all the commands sent while the io thread was busy
+        if (wakingUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+        return reply;
+    }
+
+    @Override
+    public boolean isBroken() {
+        return broken;
+    }
+
+    @Override
+    public void close() {
+        fail(new JedisConnectionException("The connection was closed"));
+    }
+
+    private void run() {
+        final RespCodec codec = new RespCodec();
+        final ByteBuffer received = ByteBuffer.allocateDirect(64 * 1024);
+        final Queue<ByteBuffer> writing = new ArrayDeque<>();
+        try {
+            while (!broken) {
+                selector.select();
+                wakingUp.set(false);
+                selector.selectedKeys().clear();
+
+                ByteBuffer next;
+                while ((next = outgoing.poll()) != null) {
+                    writing.add(next);
+                }
+                while (!writing.isEmpty()) {
+                    channel.write(writing.peek());
+                    if (writing.peek().hasRemaining()) {
+                        break;
+                    }
+                    writing.poll();
+                }
+                // wait for the socket to drain before writing the rest
+                channel.keyFor(selector).interestOps(writing.isEmpty() ? SelectionKey.OP_READ
+                                                                       : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+
+                int read;
+                while ((read = channel.read(received)) > 0) {
+                    received.flip();
+                    codec.receive(received);
+                    received.clear();
+                }
+                Object reply;
+                while ((reply = codec.decode()) != RespCodec.INCOMPLETE) {
+                    complete(reply);
+                }
+                if (read < 0) {
+                    throw new IOException("Connection closed by redis");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(new JedisConnectionException(e));
+        }
+    }
+
+    private void complete(Object reply) {
+        final CompletableFuture<Object> future = pending.poll();
+        if (future == null) {
+            logger.warn("Dropping a reply no command was waiting for: {}", reply);
+        } else if (reply instanceof JedisDataException) {
+            future.completeExceptionally((JedisDataException) reply);
+        } else {
+            future.complete(reply);
+        }
+    }
+
+    private void fail(JedisConnectionException e) {
+        synchronized (this) {
+            if (broken) {
+                return;
+            }
+            broken = true;
+        }
+        if (!pending.isEmpty()) {
+            logger.warn("Lost the connection with {} commands waiting for a reply", pending.size(), e);
+        }
+        CompletableFuture<Object> future;
+        while ((future = pending.poll()) != null) {
+            future.completeExceptionally(e);
+        }
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+    }
+}
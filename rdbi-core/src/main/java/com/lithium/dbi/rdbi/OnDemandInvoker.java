@@ -0,0 +1,101 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Backs the DAOs returned by {@link RDBI#onDemand(Class)}: every call borrows its own connection from the pool.
+ * <p>
+ * On a multiplexed RDBI, the calls returning a CompletableFuture are sent straight to one of the shared connections
+ * instead. Their replies are mapped, and their futures completed, on the async executor: the thread of the connection
+ * only reads replies, so that a callback making another call on the connection cannot stall it.
+ */
+class OnDemandInvoker implements DaoInvoker {
+
+    private final RDBI rdbi;
+
+    OnDemandInvoker(RDBI rdbi) {
+        this.rdbi = rdbi;
+    }
+
+    @Override
+    public Object invoke(final MethodContext context, final List<?> keys, final List<?> argv) {
+
+        if (!context.isAsync()) {
+            return invokeOnDemand(context, keys, argv);
+        }
+
+        final Multiplexer multiplexer = rdbi.multiplexer();
+        if (multiplexer != null && !(context.isReadOnly() && rdbi.hasReplicas())) {
+            return send(multiplexer, context, keys, argv);
+        }
+
+        return CompletableFuture.supplyAsync(() -> invokeOnDemand(context, keys, argv), rdbi.asyncExecutor());
+    }
+
+    private Object invokeOnDemand(MethodContext context, List<?> keys, List<?> argv) {
+        try (Handle handle = rdbi.open()) {
+            return JedisInvoker.invoke(handle.jedis(), handle, context, keys, argv);
+        }
+    }
+
+    private CompletableFuture<Object> send(Multiplexer multiplexer, MethodContext context, List<?> keys, List<?> argv) {
+        final CommandArguments command = new CommandArguments(context.usesCommand() ? context.command() : Protocol.Command.EVALSHA)
+                .addObjects((Object[]) context.commandArgs(keys, argv));
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final long start = System.nanoTime();
+
+        final CompletableFuture<Object> sent;
+        try {
+            sent = multiplexer.send(command);
+        } catch (RuntimeException e) {
+            // redis could not be reached
+            result.completeExceptionally(e);
+            return result;
+        }
+        sent.whenComplete((reply, error) -> {
+            final long nanos = System.nanoTime() - start;
+            final Runnable completion = () -> complete(context, keys, argv, result, nanos, reply, error);
+            try {
+                rdbi.asyncExecutor().execute(completion);
+            } catch (RejectedExecutionException e) {
+                // the RDBI is closed
+                completion.run();
+            }
+        });
+        return result;
+    }
+
+    private void complete(MethodContext context, List<?> keys, List<?> argv, CompletableFuture<Object> result,
+                          long nanos, Object reply, Throwable error) {
+        if (error == null) {
+            // the String EVALSHA of jedis decodes the reply the same way
+            final Object decoded = context.usesCommand() || context.isBinary() ? reply : SafeEncoder.encodeObject(reply);
+            context.getMetrics().record(nanos, decoded);
+            try {
+                result.complete(context.map(decoded));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        } else if (error instanceof JedisDataException && JedisInvoker.isNoScript((JedisDataException) error)) {
+            // rare enough to load the script (and retry) the blocking way
+            CompletableFuture.supplyAsync(() -> invokeOnDemand(context, keys, argv), rdbi.asyncExecutor())
+                             .whenComplete((retried, retryError) -> {
+                                 if (retryError == null) {
+                                     result.complete(retried);
+                                 } else {
+                                     result.completeExceptionally(retryError);
+                                 }
+                             });
+        } else {
+            context.getMetrics().recordError(nanos);
+            result.completeExceptionally(error);
+        }
+    }
+}
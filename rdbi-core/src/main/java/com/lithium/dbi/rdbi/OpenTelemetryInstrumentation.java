@@ -0,0 +1,78 @@
+package com.lithium.dbi.rdbi;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Traces every command as an OpenTelemetry span named after the Jedis method, made current while the command runs.
+ * <p>
+ * With a sample ratio below 1, commands outside a sampled trace are only traced that often. The decision is made
+ * before the span is built, so commands that are sampled out cost nothing.
+ */
+public class OpenTelemetryInstrumentation implements Instrumentation {
+
+    private static final AttributeKey<String> REDIS_KEY = AttributeKey.stringKey("redis.key");
+
+    private final Tracer tracer;
+    private final double sampleRatio;
+    private final Attributes commonAttributes;
+
+    public OpenTelemetryInstrumentation(Tracer tracer) {
+        this(tracer, 1.0);
+    }
+
+    /**
+     * @param sampleRatio the share of the commands made outside a sampled trace that are traced, from 0 to 1.
+     */
+    public OpenTelemetryInstrumentation(Tracer tracer, double sampleRatio) {
+        this.tracer = tracer;
+        this.sampleRatio = sampleRatio;
+        this.commonAttributes = Attributes.of(
+                AttributeKey.stringKey("db.type"), "redis",
+                AttributeKey.stringKey("component"), "rdbi"
+        );
+    }
+
+    @Override
+    public boolean isEnabled(String command) {
+        return sampleRatio >= 1.0
+                || Span.current().getSpanContext().isSampled()
+                || ThreadLocalRandom.current().nextDouble() < sampleRatio;
+    }
+
+    @Override
+    public Object onStart(String command, Object[] args) {
+        Span span = tracer.spanBuilder(command)
+                          .setAllAttributes(commonAttributes)
+                          .startSpan();
+        if (args.length > 0 && args[0] instanceof String) {
+            span.setAttribute(REDIS_KEY, (String) args[0]);
+        }
+        return new CurrentSpan(span, span.makeCurrent());
+    }
+
+    @Override
+    public void onEnd(String command, Object context, long durationNanos, Throwable error) {
+        CurrentSpan current = (CurrentSpan) context;
+        if (error != null) {
+            current.span.recordException(error);
+        }
+        current.scope.close();
+        current.span.end();
+    }
+
+    private static class CurrentSpan {
+        private final Span span;
+        private final Scope scope;
+
+        private CurrentSpan(Span span, Scope scope) {
+            this.span = span;
+            this.scope = scope;
+        }
+    }
+}
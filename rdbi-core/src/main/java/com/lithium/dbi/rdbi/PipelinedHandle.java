@@ -0,0 +1,368 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Batches calls to attached DAOs so that they are sent to redis in a single round trip.
+ * <p>
+ * DAO methods called through {@link #attach(Class)} do not talk to redis; they queue their EVALSHA and return
+ * the default value of their return type (null, 0 or false). Use {@link #response(Object)} to get a
+ * {@link PipelinedResponse} for the call that was just made, and {@link #sync()} to send the batch:
+ * <pre>
+ *     PipelinedHandle pipeline = handle.pipelined();
+ *     RedisSemaphoreDAO dao = pipeline.attach(RedisSemaphoreDAO.class);
+ *     PipelinedResponse&lt;Integer&gt; acquired = pipeline.response(dao.acquireSemaphore(key, owner, 10));
+ *     pipeline.sync();
+ *     acquired.get();
+ * </pre>
+ * If redis has lost some of the scripts (NOSCRIPT, e.g. after a failover), all of the missing scripts and function
+ * libraries are reloaded and the affected calls re-sent together in one more round trip. Those calls therefore run
+ * after the rest of the batch, so calls that depend on each other's side effects should not be relied upon across a
+ * reload.
+ * <p>
+ * On a cluster ({@link ClusterRDBI#pipelined()}) the batch is split into one pipeline per node, by the hash slot of
+ * each call's keys. Calls whose keys are not all in the same slot are rejected when they are made.
+ */
+@NotThreadSafe
+public class PipelinedHandle {
+
+    private final Jedis jedis;
+    private final ClusterRDBI cluster;
+    private final ProxyFactory proxyFactory;
+    private final List<QueuedCall> queue;
+    private QueuedCall unclaimed;
+
+    PipelinedHandle(Jedis jedis, ProxyFactory proxyFactory) {
+        this(jedis, null, proxyFactory);
+    }
+
+    PipelinedHandle(ClusterRDBI cluster, ProxyFactory proxyFactory) {
+        this(null, cluster, proxyFactory);
+    }
+
+    private PipelinedHandle(Jedis jedis, ClusterRDBI cluster, ProxyFactory proxyFactory) {
+        this.jedis = jedis;
+        this.cluster = cluster;
+        this.proxyFactory = proxyFactory;
+        this.queue = new ArrayList<>();
+    }
+
+    public <T> T attach(Class<T> type) {
+        return proxyFactory.createPipelinedInstance(jedis, type, this);
+    }
+
+    /**
+     * @param queuedCall the (ignored) return value of the DAO call that was just made on an attached DAO.
+     * @param <T> the return type of the DAO method
+     * @return the response that will hold the result of that call once the pipeline is synced.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> PipelinedResponse<T> response(T queuedCall) {
+        if (unclaimed == null) {
+            throw new IllegalStateException("No DAO call was queued since the last response was taken.");
+        }
+        final PipelinedResponse<T> response = (PipelinedResponse<T>) unclaimed.response;
+        unclaimed = null;
+        return response;
+    }
+
+    /**
+     * Send all queued calls to redis and fill in their responses.
+     * @throws RuntimeException if a batch could not be sent (e.g. the connection broke); the responses of its calls
+     * then hold the same exception. On a cluster, the batches of the other nodes are sent all the same.
+     */
+    public void sync() {
+        flush();
+    }
+
+    /**
+     * Send all queued calls to redis.
+     * @return the mapped result of every queued call, in the order the calls were made. Calls that failed are
+     * represented by their exception.
+     * @throws RuntimeException if a batch could not be sent, like {@link #sync()}.
+     */
+    public List<Object> syncAndReturnAll() {
+        final List<QueuedCall> calls = flush();
+        final List<Object> results = new ArrayList<>(calls.size());
+        for (QueuedCall call : calls) {
+            try {
+                results.add(call.response.get());
+            } catch (RuntimeException e) {
+                results.add(e);
+            }
+        }
+        return results;
+    }
+
+    PipelinedResponse<Object> queue(MethodContext context, List<?> keys, List<?> argv) {
+        final int slot = cluster == null ? -1 : ClusterInvoker.slot(context, keys);
+        final QueuedCall call = new QueuedCall(context, keys, argv, null, slot);
+        queue.add(call);
+        unclaimed = call;
+        return call.response;
+    }
+
+    /**
+     * Queue a plain jedis command, e.g. {@code pipeline -> pipeline.get(key)}, between the DAO calls.
+     */
+    @SuppressWarnings("unchecked")
+    <T> PipelinedResponse<T> queue(Function<Pipeline, Response<T>> command) {
+        if (cluster != null) {
+            throw new IllegalStateException("Plain commands cannot be routed to a cluster node");
+        }
+        final QueuedCall call = new QueuedCall(null, null, null, command, -1);
+        queue.add(call);
+        unclaimed = call;
+        return (PipelinedResponse<T>) call.response;
+    }
+
+    private List<QueuedCall> flush() {
+        final List<QueuedCall> calls = new ArrayList<>(queue);
+        queue.clear();
+        unclaimed = null;
+
+        if (calls.isEmpty()) {
+            return calls;
+        } else if (cluster == null) {
+            try {
+                send(jedis, calls);
+            } catch (RuntimeException e) {
+                fail(calls, e);
+                throw e;
+            }
+            return calls;
+        }
+
+        final Map<HostAndPort, List<QueuedCall>> byNode = new LinkedHashMap<>();
+        for (QueuedCall call : calls) {
+            byNode.computeIfAbsent(cluster.node(call.slot), node -> new ArrayList<>()).add(call);
+        }
+        boolean redirected = false;
+        RuntimeException failure = null;
+        for (Map.Entry<HostAndPort, List<QueuedCall>> batch : byNode.entrySet()) {
+            try (Jedis node = cluster.connection(batch.getKey())) {
+                redirected |= send(node, batch.getValue());
+            } catch (RuntimeException e) {
+                // the batches of the other nodes still go ahead
+                fail(batch.getValue(), e);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (redirected) {
+            // a slot moved since the slot cache was loaded; the calls failed, but the next batch goes to the right node
+            cluster.renewSlotCache();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return calls;
+    }
+
+    /**
+     * Fail the calls of a batch that could not be (fully) sent, so that none of their responses is left unset.
+     */
+    private static void fail(List<QueuedCall> calls, RuntimeException e) {
+        for (QueuedCall call : calls) {
+            if (!call.response.isSet()) {
+                call.response.setException(e);
+            }
+        }
+    }
+
+    /**
+     * @return true if some call was sent to a node that no longer serves its slot.
+     */
+    private static boolean send(Jedis jedis, List<QueuedCall> calls) {
+        final long start = System.nanoTime();
+        final Pipeline pipeline = jedis.pipelined();
+        final List<Response<Object>> responses = new ArrayList<>(calls.size());
+        for (QueuedCall call : calls) {
+            responses.add(call.evalsha(pipeline));
+        }
+        pipeline.sync();
+        final long nanos = System.nanoTime() - start;
+
+        final List<QueuedCall> missingScript = new ArrayList<>();
+        for (int i = 0; i < calls.size(); i++) {
+            if (!calls.get(i).complete(responses.get(i), nanos)) {
+                missingScript.add(calls.get(i));
+            }
+        }
+
+        if (!missingScript.isEmpty()) {
+            reloadAndRetry(jedis, missingScript, start);
+        }
+        for (QueuedCall call : calls) {
+            if (call.redirected) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void reloadAndRetry(Jedis jedis, List<QueuedCall> calls, long start) {
+        final Map<String, String> scripts = new LinkedHashMap<>();
+        final Map<String, LuaLibrary> libraries = new LinkedHashMap<>();
+        for (QueuedCall call : calls) {
+            if (call.context.getLibrary() != null) {
+                libraries.putIfAbsent(call.context.getLibrary().getName(), call.context.getLibrary());
+            } else {
+                scripts.putIfAbsent(call.context.getSha1(), call.context.getScript());
+            }
+        }
+
+        final Pipeline pipeline = jedis.pipelined();
+        final Map<String, Response<Object>> loads = new LinkedHashMap<>();
+        for (Map.Entry<String, String> script : scripts.entrySet()) {
+            loads.put(script.getKey(), pipeline.sendCommand(Protocol.Command.SCRIPT, "LOAD", script.getValue()));
+        }
+        final Map<LuaLibrary, Response<Object>> libraryLoads = new LinkedHashMap<>();
+        for (LuaLibrary library : libraries.values()) {
+            libraryLoads.put(library, library.load(pipeline));
+        }
+        final List<Response<Object>> responses = new ArrayList<>(calls.size());
+        for (QueuedCall call : calls) {
+            responses.add(call.evalsha(pipeline));
+        }
+        pipeline.sync();
+
+        for (Map.Entry<String, Response<Object>> load : loads.entrySet()) {
+            final Object newSha;
+            try {
+                newSha = load.getValue().get();
+            } catch (JedisDataException e) {
+                // the retried call fails with the same error, which is reported on its response
+                continue;
+            }
+            if (!load.getKey().equals(SafeEncoder.encode((byte[]) newSha))) {
+                throw new IllegalStateException("sha should match but they did not");
+            }
+        }
+        for (Map.Entry<LuaLibrary, Response<Object>> load : libraryLoads.entrySet()) {
+            final Object name;
+            try {
+                name = load.getValue().get();
+            } catch (JedisDataException e) {
+                continue;
+            }
+            load.getKey().verify(name);
+        }
+
+        final long nanos = System.nanoTime() - start;
+        for (int i = 0; i < calls.size(); i++) {
+            calls.get(i).completeOrFail(responses.get(i), nanos);
+        }
+    }
+
+    /**
+     * A DAO call, or a plain command when it has no context.
+     */
+    private static class QueuedCall {
+        private final MethodContext context;
+        private final List<?> keys;
+        private final List<?> argv;
+        private final Function<Pipeline, ? extends Response<?>> command;
+        private final int slot;
+        private final PipelinedResponse<Object> response;
+        private boolean redirected;
+
+        private QueuedCall(MethodContext context, List<?> keys, List<?> argv, Function<Pipeline, ? extends Response<?>> command, int slot) {
+            this.context = context;
+            this.keys = keys;
+            this.argv = argv;
+            this.command = command;
+            this.slot = slot;
+            this.response = new PipelinedResponse<>();
+        }
+
+        @SuppressWarnings("unchecked")
+        private Response<Object> evalsha(Pipeline pipeline) {
+            if (command != null) {
+                try {
+                    return (Response<Object>) command.apply(pipeline);
+                } catch (RuntimeException e) {
+                    // e.g. a null key, rejected before anything was sent; the rest of the batch goes ahead
+                    response.setException(e);
+                    return null;
+                }
+            } else if (context.usesCommand()) {
+                return pipeline.sendCommand(context.command(), context.commandArgs(keys, argv));
+            } else if (context.isBinary()) {
+                return pipeline.evalsha(context.getBinarySha1(), (List<byte[]>) keys, (List<byte[]>) argv);
+            }
+            return pipeline.evalsha(context.getSha1(), (List<String>) keys, (List<String>) argv);
+        }
+
+        /**
+         * @return false if the call must be retried because redis did not know the script.
+         */
+        private boolean complete(Response<Object> raw, long nanos) {
+            if (raw == null) {
+                return true;
+            }
+            final Object reply;
+            try {
+                reply = raw.get();
+            } catch (JedisDataException e) {
+                if (context != null && JedisInvoker.isNoScript(e)) {
+                    context.getMetrics().recordNoScript();
+                    return false;
+                }
+                if (context != null) {
+                    context.getMetrics().recordError(nanos);
+                }
+                response.setException(e);
+                redirected = e instanceof JedisRedirectionException;
+                return true;
+            }
+            if (context != null) {
+                context.getMetrics().record(nanos, reply);
+            }
+            map(reply);
+            return true;
+        }
+
+        private void completeOrFail(Response<Object> raw, long nanos) {
+            final Object reply;
+            try {
+                reply = raw.get();
+            } catch (RuntimeException e) {
+                context.getMetrics().recordError(nanos);
+                response.setException(e);
+                return;
+            }
+            context.getMetrics().record(nanos, reply);
+            map(reply);
+        }
+
+        private void map(Object reply) {
+            if (context == null) {
+                response.set(reply);
+                return;
+            }
+            try {
+                response.set(context.map(reply));
+            } catch (RuntimeException e) {
+                response.setException(e);
+            }
+        }
+    }
+}
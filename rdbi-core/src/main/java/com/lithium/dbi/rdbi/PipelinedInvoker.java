@@ -0,0 +1,48 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.List;
+
+class PipelinedInvoker implements DaoInvoker {
+
+    private final PipelinedHandle pipeline;
+
+    PipelinedInvoker(PipelinedHandle pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public Object invoke(MethodContext context, List<?> keys, List<?> argv) {
+
+        PipelinedResponse<Object> response = pipeline.queue(context, keys, argv);
+
+        if (context.isAsync()) {
+            return response.toCompletableFuture();
+        }
+        return defaultValue(context.getReturnType());
+    }
+
+    /**
+     * The real result is only known once the pipeline is synced, so return something that can be unboxed safely.
+     */
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else {
+            return 0d;
+        }
+    }
+}
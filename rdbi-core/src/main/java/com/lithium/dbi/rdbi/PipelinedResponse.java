@@ -0,0 +1,83 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * The result of a DAO call queued on a {@link PipelinedHandle} or a {@link ScriptBatch}. Like a jedis
+ * {@link redis.clients.jedis.Response}, the value is only available once the pipeline has been synced (or the batch
+ * executed).
+ * @param <T> the (mapped) return type of the DAO method.
+ */
+public class PipelinedResponse<T> implements Supplier<T> {
+
+    private boolean set;
+    private T result;
+    private RuntimeException exception;
+    private CompletableFuture<T> future;
+
+    PipelinedResponse() {
+    }
+
+    void set(T result) {
+        this.result = result;
+        this.set = true;
+        if (future != null) {
+            future.complete(result);
+        }
+    }
+
+    void setException(RuntimeException exception) {
+        this.exception = exception;
+        this.set = true;
+        if (future != null) {
+            future.completeExceptionally(exception);
+        }
+    }
+
+    boolean isSet() {
+        return set;
+    }
+
+    /**
+     * @return a future completed when the pipeline is synced, handed out by DAO methods returning a CompletableFuture.
+     */
+    CompletableFuture<T> toCompletableFuture() {
+        if (future == null) {
+            future = new CompletableFuture<>();
+            if (set) {
+                if (exception != null) {
+                    future.completeExceptionally(exception);
+                } else {
+                    future.complete(result);
+                }
+            }
+        }
+        return future;
+    }
+
+    /**
+     * @return the result of the DAO call.
+     * @throws IllegalStateException if the pipeline has not been synced yet.
+     * @throws RuntimeException the exception raised by redis (or the result mapper) for this call, if any.
+     */
+    @Override
+    public T get() {
+        if (!set) {
+            throw new IllegalStateException("Please sync the pipeline before calling this method.");
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PipelinedResponse{" +
+                "set=" + set +
+                ", result=" + result +
+                ", exception=" + exception +
+                '}';
+    }
+}
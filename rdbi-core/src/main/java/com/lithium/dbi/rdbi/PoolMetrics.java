@@ -0,0 +1,124 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.util.Pool;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The connections borrowed from the pool of an RDBI by {@link RDBI#open()}, see {@link RDBI#getPoolMetrics()}. The
+ * counts are live and can be read at any time; the gauges read the pool itself.
+ * <p>
+ * Handles of a multiplexed RDBI share its connections instead of borrowing one from the pool, and are not counted.
+ */
+public class PoolMetrics {
+
+    private final Pool<Jedis> pool;
+    private final LatencyHistogram borrowed;
+    private final LatencyHistogram held;
+    private final LongAdder timeouts;
+    private final LongAdder failures;
+    private final LongAdder inUse;
+    private final LongAccumulator peakInUse;
+
+    PoolMetrics(Pool<Jedis> pool) {
+        this.pool = pool;
+        this.borrowed = new LatencyHistogram();
+        this.held = new LatencyHistogram();
+        this.timeouts = new LongAdder();
+        this.failures = new LongAdder();
+        this.inUse = new LongAdder();
+        this.peakInUse = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * @return how long each borrow took, mostly waiting for a connection to be returned when the pool is exhausted
+     * (and connecting, when the pool opens a new one).
+     */
+    public LatencyHistogram getBorrowWait() {
+        return borrowed;
+    }
+
+    /**
+     * @return how long each connection was held, from its borrow until its handle was closed.
+     */
+    public LatencyHistogram getHeld() {
+        return held;
+    }
+
+    /**
+     * @return the number of borrows that gave up waiting for a connection ({@code maxWait} of the pool config).
+     */
+    public long getBorrowTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return the number of borrows that failed for another reason, e.g. redis being unreachable.
+     */
+    public long getBorrowFailureCount() {
+        return failures.sum();
+    }
+
+    public int getInUse() {
+        return pool.getNumActive();
+    }
+
+    public int getIdle() {
+        return pool.getNumIdle();
+    }
+
+    /**
+     * @return the number of threads blocked waiting for a connection right now.
+     */
+    public int getWaiters() {
+        return pool.getNumWaiters();
+    }
+
+    public int getMaxTotal() {
+        return pool.getMaxTotal();
+    }
+
+    void recordBorrow(long nanos) {
+        borrowed.record(nanos);
+        inUse.increment();
+        peakInUse.accumulate(inUse.sum());
+    }
+
+    void recordBorrowFailure(long nanos, boolean timedOut) {
+        borrowed.record(nanos);
+        if (timedOut) {
+            timeouts.increment();
+        } else {
+            failures.increment();
+        }
+    }
+
+    void recordReturn(long nanos) {
+        held.record(nanos);
+        inUse.decrement();
+    }
+
+    /**
+     * @return the most connections held by handles at once since the last call.
+     */
+    long takePeakInUse() {
+        final long current = inUse.sum();
+        return Math.max(current, peakInUse.getThenReset());
+    }
+
+    @Override
+    public String toString() {
+        return "PoolMetrics{" +
+                "inUse=" + getInUse() +
+                ", idle=" + getIdle() +
+                ", waiters=" + getWaiters() +
+                ", maxTotal=" + getMaxTotal() +
+                ", borrowWaitP99Micros=" + borrowed.percentileMicros(99) +
+                ", heldP99Micros=" + held.percentileMicros(99) +
+                ", borrowTimeouts=" + getBorrowTimeoutCount() +
+                ", borrowFailures=" + getBorrowFailureCount() +
+                '}';
+    }
+}
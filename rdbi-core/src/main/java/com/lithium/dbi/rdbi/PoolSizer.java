@@ -0,0 +1,71 @@
+package com.lithium.dbi.rdbi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * Grows or shrinks the pool of an RDBI within bounds, see {@link RDBI.Builder#adaptivePoolSize(int, int, java.time.Duration)}.
+ * <p>
+ * Each run compares the time borrows spent waiting for a connection since the last run with the time connections
+ * were held. Waiting for more than a tenth of that time, or timing out, means callers queue for connections while
+ * redis could serve more of them: the pool grows by a quarter. When nobody waited and at most half the connections
+ * were in use at once, it shrinks by a quarter, but not below twice the peak.
+ */
+class PoolSizer implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PoolSizer.class);
+
+    static final double GROW_WAIT_RATIO = 0.1;
+    static final double SHRINK_WAIT_RATIO = 0.01;
+
+    private final Pool<Jedis> pool;
+    private final PoolMetrics metrics;
+    private final int minTotal;
+    private final int maxTotal;
+    private long waitNanos;
+    private long heldNanos;
+    private long timeouts;
+
+    PoolSizer(Pool<Jedis> pool, PoolMetrics metrics, int minTotal, int maxTotal) {
+        this.pool = pool;
+        this.metrics = metrics;
+        this.minTotal = minTotal;
+        this.maxTotal = maxTotal;
+    }
+
+    @Override
+    public void run() {
+        final long waited = metrics.getBorrowWait().getTotalNanos();
+        final long held = metrics.getHeld().getTotalNanos();
+        final long timedOut = metrics.getBorrowTimeoutCount();
+        final int size = pool.getMaxTotal();
+        final int target = target(size, waited - waitNanos, held - heldNanos, timedOut - timeouts, metrics.takePeakInUse());
+        waitNanos = waited;
+        heldNanos = held;
+        timeouts = timedOut;
+
+        if (target != size) {
+            // keep as many idle connections as before, relative to the size
+            pool.setMaxIdle(pool.getMaxIdle() >= size ? target : Math.min(pool.getMaxIdle(), target));
+            pool.setMaxTotal(target);
+            logger.info("Resized the redis pool from {} to {} connections ({})", size, target, metrics);
+        }
+    }
+
+    /**
+     * @return the size the pool should have, from what happened since the last run.
+     */
+    int target(int size, long waitNanos, long heldNanos, long timeouts, long peakInUse) {
+        final int step = Math.max(1, size / 4);
+        if (timeouts > 0 || waitNanos > heldNanos * GROW_WAIT_RATIO) {
+            return Math.max(minTotal, Math.min(maxTotal, size + step));
+        }
+        if (waitNanos <= heldNanos * SHRINK_WAIT_RATIO && peakInUse <= size / 2) {
+            final long floor = Math.max(minTotal, 2 * peakInUse);
+            return (int) Math.min(maxTotal, Math.max(floor, size - step));
+        }
+        return Math.max(minTotal, Math.min(maxTotal, size));
+    }
+}
@@ -1,64 +1,273 @@
 package com.lithium.dbi.rdbi;
 
-import io.opentelemetry.api.trace.Tracer;
-import net.sf.cglib.proxy.Callback;
-import net.sf.cglib.proxy.CallbackFilter;
-import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.Factory;
-import net.sf.cglib.proxy.MethodInterceptor;
+import org.apache.commons.codec.digest.DigestUtils;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 class ProxyFactory {
 
-    private static final MethodInterceptor NO_OP = new MethodNoOpInterceptor();
-    private static final CallbackFilter FINALIZE_FILTER = new FinalizeFilter();
-
-    final ConcurrentMap<Class<?>, Factory> factoryCache;
+    final ConcurrentMap<Class<?>, DaoFactory> factoryCache;
 
     final ConcurrentMap<Class<?>, Map<Method, MethodContext>> methodContextCache;
 
-    private final Factory jedisInterceptorFactory;
+    // by the sha1s of the scripts they call, which only vary with the code paths using batches
+    private final ConcurrentMap<List<String>, ScriptBatch.Wrapper> batchWrappers;
+
+    // created by the first instrumented handle, so that nothing touches cglib without instrumentation or runtime proxies
+    private volatile Factory jedisInterceptorFactory;
 
     ProxyFactory() {
         factoryCache = new ConcurrentHashMap<>();
         methodContextCache =  new ConcurrentHashMap<>();
-        jedisInterceptorFactory = JedisWrapperMethodInterceptor.newFactory();
+        batchWrappers = new ConcurrentHashMap<>();
     }
 
-    JedisWrapperDoNotUse attachJedis(final Jedis jedis, Tracer tracer) {
-        return JedisWrapperMethodInterceptor.newInstance(jedisInterceptorFactory, jedis, tracer);
+    JedisWrapperDoNotUse attachJedis(final Jedis jedis, Instrumentation instrumentation) {
+        Factory factory = jedisInterceptorFactory;
+        if (factory == null) {
+            synchronized (this) {
+                factory = jedisInterceptorFactory;
+                if (factory == null) {
+                    factory = JedisWrapperMethodInterceptor.newFactory();
+                    jedisInterceptorFactory = factory;
+                }
+            }
+        }
+        return JedisWrapperMethodInterceptor.newInstance(factory, jedis, instrumentation);
     }
 
-    @SuppressWarnings("unchecked")
     <T> T createInstance(final Jedis jedis, final Class<T> t) {
+        return createInstance(jedis, t, new JedisInvoker(jedis, null));
+    }
+
+    <T> T createInstance(final Handle handle, final Class<T> t) {
+        return createInstance(handle.jedis(), t, new JedisInvoker(handle.jedis(), handle));
+    }
+
+    <T> T createPipelinedInstance(final Jedis jedis, final Class<T> t, final PipelinedHandle pipeline) {
+        return createInstance(jedis, t, new PipelinedInvoker(pipeline));
+    }
+
+    <T> T createBatchedInstance(final Jedis jedis, final Class<T> t, final ScriptBatch batch) {
+        return createInstance(jedis, t, new BatchInvoker(batch));
+    }
+
+    <T> T createOnDemandInstance(final Jedis jedis, final Class<T> t, final RDBI rdbi) {
+        return createInstance(jedis, t, new OnDemandInvoker(rdbi));
+    }
+
+    <T> T createCoalescedInstance(final Jedis jedis, final Class<T> t, final Coalescer coalescer) {
+        return createInstance(jedis, t, new CoalescingInvoker(coalescer));
+    }
 
-        Factory factory;
-        if (factoryCache.containsKey(t)) {
-            return (T) factoryCache.get(t).newInstance(new Callback[]{NO_OP,new MethodContextInterceptor(jedis, methodContextCache.get(t))});
-        } else {
+    <T> T createClusterInstance(final Class<T> t, final ClusterRDBI rdbi) {
+        return createInstance(null, t, new ClusterInvoker(rdbi));
+    }
+
+    /**
+     * @param jedis loads the scripts of a type attached for the first time. Without it (on a cluster, where every
+     *              node has its own script cache) each node loads them on its first NOSCRIPT.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T createInstance(final Jedis jedis, final Class<T> t, final DaoInvoker invoker) {
+
+        DaoFactory factory = factoryCache.get(t);
+        if (factory == null) {
+
+            // a generated implementation's scripts are loaded by its first calls, on NOSCRIPT
+            factory = GeneratedDaoFactory.forType(t);
+            if (factory == null) {
+                try {
+                    buildMethodContext(t, jedis);
+                } catch (InstantiationException | IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+                factory = new CglibDaoFactory(t, methodContextCache.get(t));
+            }
+
+            factory = cacheFactory(t, factory);
+        }
+        return (T) factory.newInstance(invoker);
+    }
+
+    Collection<ScriptBatch.Wrapper> batchWrappers() {
+        return batchWrappers.values();
+    }
+
+    ScriptBatch.Wrapper batchWrapper(List<String> sha1s, Function<List<String>, ScriptBatch.Wrapper> wrapper) {
+        return batchWrappers.computeIfAbsent(sha1s, wrapper);
+    }
+
+    /**
+     * Do everything the first attach of each type would do, but load the scripts of all types in a single pipeline.
+     * @return the number of scripts and function libraries loaded into redis.
+     */
+    int register(final Jedis jedis, final Collection<Class<?>> types) {
+        return register(Collections.singletonList(jedis), types);
+    }
+
+    /**
+     * @param nodes every node of a cluster, each loading the scripts in its own pipeline. Replicas cannot load
+     *              function libraries, they get them from their primary.
+     */
+    int register(final List<Jedis> nodes, final Collection<Class<?>> types) {
+
+        Map<Class<?>, DaoFactory> generated = new LinkedHashMap<>();
+        Map<Class<?>, Map<Method, MethodContext>> pending = new LinkedHashMap<>();
+        for (Class<?> t : types) {
+            if (factoryCache.containsKey(t) || generated.containsKey(t) || pending.containsKey(t)) {
+                continue;
+            }
+            DaoFactory factory = GeneratedDaoFactory.forType(t);
+            if (factory != null) {
+                generated.put(t, factory);
+            } else if (!methodContextCache.containsKey(t)) {
+                try {
+                    pending.put(t, buildMethodContexts(t, DigestUtils::sha1Hex));
+                } catch (InstantiationException | IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        Map<String, String> scripts = new LinkedHashMap<>();
+        List<LuaLibrary> libraries = new ArrayList<>();
+        for (DaoFactory factory : generated.values()) {
+            for (MethodContext context : factory.contexts()) {
+                scripts.putIfAbsent(context.getSha1(), context.getScript());
+            }
+        }
+        for (Map<Method, MethodContext> contexts : pending.values()) {
+            LuaLibrary library = library(contexts.values());
+            if (library != null) {
+                libraries.add(library);
+                continue;
+            }
+            for (MethodContext context : contexts.values()) {
+                scripts.putIfAbsent(context.getSha1(), context.getScript());
+            }
+        }
+
+        if (!scripts.isEmpty() || !libraries.isEmpty()) {
+            for (Jedis jedis : nodes) {
+                load(jedis, scripts, libraries);
+            }
+        }
 
+        for (Map.Entry<Class<?>, DaoFactory> entry : generated.entrySet()) {
+            cacheFactory(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Class<?>, Map<Method, MethodContext>> entry : pending.entrySet()) {
+            methodContextCache.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        for (Class<?> t : types) {
+            if (!factoryCache.containsKey(t)) {
+                cacheFactory(t, new CglibDaoFactory(t, methodContextCache.get(t)));
+            }
+        }
+        return scripts.size() + libraries.size();
+    }
+
+    private static void load(Jedis jedis, Map<String, String> scripts, List<LuaLibrary> libraries) {
+        Pipeline pipeline = jedis.pipelined();
+        Map<String, Response<Object>> loads = new LinkedHashMap<>();
+        for (Map.Entry<String, String> script : scripts.entrySet()) {
+            loads.put(script.getKey(), pipeline.sendCommand(Protocol.Command.SCRIPT, "LOAD", script.getValue()));
+        }
+        Map<LuaLibrary, Response<Object>> libraryLoads = new LinkedHashMap<>();
+        for (LuaLibrary library : libraries) {
+            libraryLoads.put(library, library.load(pipeline));
+        }
+        pipeline.sync();
+
+        for (Map.Entry<String, Response<Object>> load : loads.entrySet()) {
+            if (!load.getKey().equals(SafeEncoder.encode((byte[]) load.getValue().get()))) {
+                throw new IllegalStateException("sha should match but they did not");
+            }
+        }
+        for (Map.Entry<LuaLibrary, Response<Object>> load : libraryLoads.entrySet()) {
+            final Object name;
             try {
-                buildMethodContext(t, jedis);
-            } catch (InstantiationException | IllegalAccessException e) {
-                throw new RuntimeException(e);
+                name = load.getValue().get();
+            } catch (JedisDataException e) {
+                if (e.getMessage() != null && e.getMessage().startsWith("READONLY")) {
+                    continue;
+                }
+                throw e;
             }
+            load.getKey().verify(name);
+            load.getKey().deleteOtherVersions(jedis);
+        }
+    }
 
-            Enhancer e = new Enhancer();
-            e.setSuperclass(t);
-            e.setCallbacks(new Callback[]{NO_OP,NO_OP}); //this will be overriden anyway, we set 2 so that it valid for FINALIZE_FILTER
-            e.setCallbackFilter(FINALIZE_FILTER);
+    /**
+     * @return the contexts of every DAO type attached so far.
+     */
+    List<MethodContext> contexts() {
+        List<MethodContext> contexts = new ArrayList<>();
+        for (DaoFactory factory : factoryCache.values()) {
+            contexts.addAll(factory.contexts());
+        }
+        return contexts;
+    }
+
+    /**
+     * @return the contexts of a DAO type; if it was neither attached nor registered yet, they are built without being
+     * kept, so that a later attach or register still loads its scripts.
+     */
+    Collection<MethodContext> contexts(Class<?> t) {
+        DaoFactory factory = factoryCache.get(t);
+        if (factory == null) {
+            factory = GeneratedDaoFactory.forType(t);
+        }
+        if (factory != null) {
+            return factory.contexts();
+        }
+        final Map<Method, MethodContext> cached = methodContextCache.get(t);
+        if (cached != null) {
+            return cached.values();
+        }
+        try {
+            return buildMethodContexts(t, DigestUtils::sha1Hex).values();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            factory = (Factory) e.create();
-            factoryCache.putIfAbsent(t, factory);
-            return (T) factory.newInstance(new Callback[]{NO_OP, new MethodContextInterceptor(jedis, methodContextCache.get(t))});
+    /**
+     * @return the metrics of every DAO method attached so far, the methods that took the most time in total first.
+     */
+    List<DaoMethodMetrics> metrics() {
+        List<DaoMethodMetrics> metrics = new ArrayList<>();
+        for (MethodContext context : contexts()) {
+            metrics.add(context.getMetrics());
         }
+        metrics.sort(Comparator.comparingLong(DaoMethodMetrics::getTotalNanos).reversed());
+        return metrics;
+    }
+
+    private DaoFactory cacheFactory(Class<?> t, DaoFactory factory) {
+        DaoFactory existing = factoryCache.putIfAbsent(t, factory);
+        return existing != null ? existing : factory;
     }
 
     private <T> void buildMethodContext(Class<T> t, Jedis jedis) throws IllegalAccessException, InstantiationException {
@@ -67,7 +276,29 @@ class ProxyFactory {
             return;
         }
 
-        Map<Method, MethodContext> contexts = new HashMap<>();
+        if (jedis == null) {
+            methodContextCache.putIfAbsent(t, buildMethodContexts(t, DigestUtils::sha1Hex));
+            return;
+        }
+
+        Map<Method, MethodContext> contexts = buildMethodContexts(t, jedis::scriptLoad);
+        LuaLibrary library = library(contexts.values());
+        if (library != null) {
+            library.load(jedis);
+            library.deleteOtherVersions(jedis);
+        }
+        methodContextCache.putIfAbsent(t, contexts);
+    }
+
+    /**
+     * @param loader gives the sha1 of a rendered script, loading it into redis if need be. It is not used for the
+     *               scripts of a {@link FunctionLibrary}, whose library is left to the caller to load.
+     */
+    private Map<Method, MethodContext> buildMethodContexts(Class<?> t, Function<String, String> loader)
+            throws IllegalAccessException, InstantiationException {
+
+        Map<Method, String> scripts = new HashMap<>();
+        Map<Method, LuaContext> luaContexts = new HashMap<>();
 
         for (Method method : t.getDeclaredMethods()) {
 
@@ -75,14 +306,26 @@ class ProxyFactory {
             String queryStr = query.value();
 
             LuaContext luaContext = null;
-            String sha1;
+            String script;
 
             if (isRawMethod(method)) {
-                sha1 = jedis.scriptLoad(queryStr);
+                script = queryStr;
             } else {
                 luaContext = new LuaContextExtractor().render(queryStr, method);
-                sha1 = jedis.scriptLoad(luaContext.getRenderedLuaString());
+                script = luaContext.getRenderedLuaString();
             }
+            scripts.put(method, script);
+            luaContexts.put(method, luaContext);
+        }
+
+        FunctionLibrary functionLibrary = t.getAnnotation(FunctionLibrary.class);
+        LuaLibrary library = functionLibrary == null ? null : LuaLibrary.of(functionLibrary.value(), scripts);
+
+        Map<Method, MethodContext> contexts = new HashMap<>();
+        for (Map.Entry<Method, String> entry : scripts.entrySet()) {
+            Method method = entry.getKey();
+            String script = entry.getValue();
+            String sha1 = library == null ? loader.apply(script) : DigestUtils.sha1Hex(script);
 
             Mapper methodMapper = method.getAnnotation(Mapper.class);
             ResultMapper mapper = null;
@@ -90,10 +333,20 @@ class ProxyFactory {
                 mapper = methodMapper.value().newInstance();
             }
 
-            contexts.put(method, new MethodContext(sha1, mapper, luaContext));
+            contexts.put(method, new MethodContext(method, sha1, script, mapper, luaContexts.get(method), library));
         }
 
-        methodContextCache.putIfAbsent(t, contexts);
+        return contexts;
+    }
+
+    /**
+     * @return the function library the contexts of a DAO belong to, if it is a {@link FunctionLibrary}.
+     */
+    private static LuaLibrary library(Collection<MethodContext> contexts) {
+        for (MethodContext context : contexts) {
+            return context.getLibrary();
+        }
+        return null;
     }
 
     /**
@@ -103,18 +356,15 @@ class ProxyFactory {
      */
     private boolean isRawMethod(Method method) {
         return (method.getParameterTypes().length == 0)
-                || (method.getParameterTypes()[0] == List.class);
+                || (method.getParameterTypes()[0] == List.class && !isBound(method.getParameterAnnotations()[0]));
     }
 
-    private static class FinalizeFilter implements CallbackFilter {
-        @Override
-        public int accept(Method method) {
-            if (method.getName().equals("finalize") &&
-                    method.getParameterTypes().length == 0 &&
-                    method.getReturnType() == Void.TYPE) {
-                return 0; //the NO_OP method interceptor
+    private static boolean isBound(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof BindKey || annotation instanceof BindArg) {
+                return true;
             }
-            return 1; //the everything else method interceptor
         }
+        return false;
     }
 }
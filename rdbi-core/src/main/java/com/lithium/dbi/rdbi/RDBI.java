@@ -6,40 +6,120 @@ import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.context.Scope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisClientConfig;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisException;
 import redis.clients.jedis.util.Pool;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
- * Use this class as a manager for jedis and its pool as well as redis lua script loading
+ * Use this class as a manager for jedis and its pool as well as redis lua script loading.
+ * <p>
+ * {@link #close()} stops the threads it started; the pool is left open.
  */
 @ThreadSafe
-public class RDBI {
+public class RDBI implements Closeable {
 
     public static final String TRACER_NAME = "rdbi";
 
+    /**
+     * The number of slow log entries read at a time, the default length of the slow log.
+     */
+    static final int SLOW_LOG_ENTRIES = 128;
+
     private final Pool<Jedis> pool;
     private static final Logger logger = LoggerFactory.getLogger(RDBI.class);
+    private static final Method SET_DATA_SOURCE = dataSourceSetter();
 
     final ProxyFactory proxyFactory;
-    final Tracer tracer;
+    private final ScriptRegistry scriptRegistry;
+    private final PoolMetrics poolMetrics;
+    final Instrumentation instrumentation;
+    private final Replicas replicas;
+    private final ExecutorService asyncExecutor;
+    private final boolean ownsAsyncExecutor;
+    private final List<ScheduledExecutorService> scheduled;
+    private final AtomicBoolean closed;
+    private final Set<Class<?>> pendingRegistrations;
+    private final ThreadLocal<Handle> scope;
+    private final ThreadLocal<Deadline> deadline;
+    private final Map<String, Bulkhead> bulkheads;
+    private final ThreadLocal<Bulkhead> bulkhead;
+    private volatile Coalescer coalescer;
+    private volatile Multiplexer multiplexer;
+    private volatile Duration warmUpDuration;
 
     public RDBI(Pool<Jedis> pool) {
         this(pool, GlobalOpenTelemetry.get().getTracer(TRACER_NAME));
     }
 
     public RDBI(Pool<Jedis> pool, Tracer tracer) {
-        this.tracer = tracer;
+        this(pool, new OpenTelemetryInstrumentation(tracer), null, null);
+    }
+
+    /**
+     * @param asyncExecutor runs the CompletableFuture-returning methods of {@link #onDemand(Class)} DAOs.
+     *                      It is not shut down by rdbi.
+     */
+    public RDBI(Pool<Jedis> pool, Tracer tracer, ExecutorService asyncExecutor) {
+        this(pool, new OpenTelemetryInstrumentation(tracer), null, asyncExecutor);
+    }
+
+    /**
+     * @param asyncExecutor the caller's executor, or null for one of our own that {@link #close()} shuts down.
+     */
+    private RDBI(Pool<Jedis> pool, Instrumentation instrumentation, Replicas replicas, ExecutorService asyncExecutor) {
+        this.instrumentation = instrumentation;
         this.pool = pool;
+        this.replicas = replicas;
+        this.ownsAsyncExecutor = asyncExecutor == null;
+        this.asyncExecutor = ownsAsyncExecutor ? newAsyncExecutor() : asyncExecutor;
+        this.scheduled = new CopyOnWriteArrayList<>();
+        this.closed = new AtomicBoolean();
         this.proxyFactory = new ProxyFactory();
+        this.scriptRegistry = new ScriptRegistry(proxyFactory);
+        this.poolMetrics = new PoolMetrics(pool);
+        this.pendingRegistrations = ConcurrentHashMap.newKeySet();
+        this.scope = new ThreadLocal<>();
+        this.deadline = new ThreadLocal<>();
+        this.bulkheads = new ConcurrentHashMap<>();
+        this.bulkhead = new ThreadLocal<>();
+        this.warmUpDuration = Duration.ZERO;
         logger.info("RDBI created, ready for action.");
     }
 
     public <T> T withHandle(Callback<T> callback) {
         try (Handle handle = open()) {
             return callback.run(handle);
+        } catch (DeadlineExceededException e) {
+            throw e;
         } catch (JedisException e) {
             throw new RuntimeException(e);
         } catch (Exception e) {
@@ -50,6 +130,8 @@ public class RDBI {
     public void consumeHandle(HandleConsumer consumer) {
         try (Handle handle = open()) {
             consumer.accept(handle);
+        } catch (DeadlineExceededException e) {
+            throw e;
         } catch (JedisException e) {
             throw new RuntimeException(e);
         } catch (Exception e) {
@@ -57,13 +139,637 @@ public class RDBI {
         }
     }
 
+    /**
+     * Like {@link #withHandle(Callback)}, but every {@link #open()} on this thread until the callback returns (including
+     * those of {@link #withHandle(Callback)}, {@link #consumeHandle(HandleConsumer)} and {@link #onDemand(Class)}
+     * DAOs) gets the callback's handle back instead of borrowing another connection. Recipes that make several calls
+     * per operation then hold one pooled connection, not one per call.
+     * <p>
+     * The nested handles share one connection, so a nested MULTI or WATCH is seen by the outer code too. Calls on
+     * other threads, such as the async methods of on-demand DAOs, borrow their own connections. Nested scopes reuse
+     * the outermost one.
+     */
+    public <T> T inScope(Callback<T> callback) {
+        if (scope.get() != null) {
+            return withHandle(callback);
+        }
+        try (Handle handle = open()) {
+            scope.set(handle);
+            return callback.run(handle);
+        } catch (DeadlineExceededException e) {
+            throw e;
+        } catch (JedisException e) {
+            throw new RuntimeException(e);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            scope.remove();
+        }
+    }
+
+    /**
+     * Run an operation that must be done within a timeout. Until it returns, {@link #getDeadline()} on this thread
+     * returns the deadline, which {@link #open()} and the recipes honor:
+     * <pre>
+     *     Optional&lt;String&gt; value = rdbi.withDeadline(Duration.ofMillis(50), () -&gt; cache.getPatiently(key, 1000));
+     * </pre>
+     * A nested deadline cannot extend the one around it. Calls on other threads, such as the async methods of
+     * on-demand DAOs, do not see the deadline.
+     * <p>
+     * The wait for a pooled connection is limited by setting the pool as the data source of the borrowed connection,
+     * a protected jedis method. Where it is missing or inaccessible (e.g. with another jedis version), or for pools other than JedisPool, the
+     * borrow falls back to the pool's own maxWait, and only the socket timeout is limited by the deadline; a warning
+     * is logged once when the method is missing.
+     * @throws DeadlineExceededException if the deadline passes before a connection is borrowed, or while a recipe
+     * waits. A socket read that outlasts it fails with a {@link redis.clients.jedis.exceptions.JedisConnectionException}.
+     */
+    public <T> T withDeadline(Duration timeout, Supplier<T> operation) {
+        final Deadline outer = deadline.get();
+        final Deadline inner = Deadline.after(timeout);
+        deadline.set(outer == null ? inner : outer.min(inner));
+        try {
+            return operation.get();
+        } finally {
+            if (outer == null) {
+                deadline.remove();
+            } else {
+                deadline.set(outer);
+            }
+        }
+    }
+
+    /**
+     * @return the deadline of the {@link #withDeadline(Duration, Supplier)} running on this thread, or
+     * {@link Deadline#NONE}.
+     */
+    public Deadline getDeadline() {
+        final Deadline current = deadline.get();
+        return current == null ? Deadline.NONE : current;
+    }
+
+    /**
+     * Run an operation in one of the bulkheads of the builder, e.g. a recipe call:
+     * <pre>
+     *     rdbi.inBulkhead("presence", () -&gt; presence.addHeartbeat(tube, id, ttl));
+     * </pre>
+     * Running it again in the same bulkhead, nested on the same thread, does not take more room.
+     * @throws BulkheadRejectedException if the bulkhead stays full for its maxWait, or its circuit breaker is open.
+     * @throws IllegalArgumentException if the builder made no bulkhead by this name.
+     */
+    public <T> T inBulkhead(String name, Supplier<T> operation) {
+        final Bulkhead target = getBulkhead(name);
+        if (target == null) {
+            throw new IllegalArgumentException("No bulkhead named " + name);
+        }
+        final Bulkhead outer = bulkhead.get();
+        if (outer == target) {
+            return operation.get();
+        }
+        bulkhead.set(target);
+        try {
+            return target.call(operation);
+        } finally {
+            if (outer == null) {
+                bulkhead.remove();
+            } else {
+                bulkhead.set(outer);
+            }
+        }
+    }
+
+    /**
+     * @see #inBulkhead(String, Supplier)
+     */
+    public void inBulkhead(String name, Runnable operation) {
+        inBulkhead(name, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return the bulkhead made by the builder with this name, or null.
+     */
+    public Bulkhead getBulkhead(String name) {
+        return bulkheads.get(name);
+    }
+
+    public List<Bulkhead> getBulkheads() {
+        return new ArrayList<>(bulkheads.values());
+    }
+
+    /**
+     * Attach a DAO that is not bound to a handle. Each call borrows a connection from the pool and returns it
+     * when done, so the DAO can be shared between threads.
+     * <p>
+     * Methods returning a {@link java.util.concurrent.CompletableFuture} do not block the caller: the call is made
+     * on the async executor, and the future completes with the (mapped) result.
+     */
+    public <T> T onDemand(Class<T> type) {
+        try (Handle handle = open()) {
+            return proxyFactory.createOnDemandInstance(handle.jedis(), type, this);
+        }
+    }
+
+    /**
+     * Attach a DAO whose calls, like those of {@link #onDemand(Class)} DAOs, can be made from any thread, but are
+     * coalesced with the calls of other threads: they are queued and sent in batches, each batch as one pipeline on
+     * one pooled connection. See {@link Builder#coalescing(Duration, int, int)}.
+     * <p>
+     * Methods returning a {@link CompletableFuture} return as soon as the call is queued, the others wait for its
+     * batch. The futures are completed on the async executor, so their callbacks do not hold up the batches behind
+     * them. If redis has lost some of the scripts, the batch is retried as
+     * described for {@link PipelinedHandle}.
+     * @throws IllegalStateException if coalescing was not enabled.
+     */
+    public <T> T coalesced(Class<T> type) {
+        final Coalescer coalescer = coalescer();
+        try (Handle handle = open()) {
+            return proxyFactory.createCoalescedInstance(handle.jedis(), type, coalescer);
+        }
+    }
+
+    /**
+     * Send a plain jedis command in the next coalesced batch:
+     * <pre>
+     *     CompletableFuture&lt;String&gt; value = rdbi.coalesce(pipeline -&gt; pipeline.get(key));
+     * </pre>
+     * @see #coalesced(Class)
+     * @throws IllegalStateException if coalescing was not enabled.
+     */
+    public <T> CompletableFuture<T> coalesce(Function<Pipeline, Response<T>> command) {
+        return coalescer().submit(pipeline -> pipeline.queue(command));
+    }
+
+    /**
+     * @throws IllegalStateException if coalescing was not enabled.
+     */
+    public CoalescingMetrics getCoalescingMetrics() {
+        return coalescer().metrics();
+    }
+
+    private Coalescer coalescer() {
+        if (coalescer == null) {
+            throw new IllegalStateException("Coalescing is not enabled, see RDBI.Builder#coalescing");
+        }
+        return coalescer;
+    }
+
+    /**
+     * Prepare DAO types up front instead of on their first attach: render their scripts, load all of them into
+     * redis in a single pipeline and generate their proxy classes.
+     * <p>
+     * If this fails (e.g. redis is unreachable), the types stay pending and {@link #isReady()} returns false until a
+     * later call succeeds. Attaching them still works in the meantime, it is just slower the first time.
+     * @return how long the warm-up took.
+     */
+    public Duration register(Class<?>... types) {
+        return warmUp(Arrays.asList(types), 0);
+    }
+
+    /**
+     * @return true once every DAO type passed to {@link #register(Class[])} (or the {@link Builder}) is warmed up.
+     */
+    public boolean isReady() {
+        return pendingRegistrations.isEmpty();
+    }
+
+    /**
+     * @return how long the last warm-up took, or zero if there was none.
+     */
+    public Duration getWarmUpDuration() {
+        return warmUpDuration;
+    }
+
+    private Duration warmUp(List<Class<?>> types, int connections) {
+        pendingRegistrations.addAll(types);
+        final long start = System.nanoTime();
+
+        // fill the pool first, so registering borrows one of the new connections
+        final int idle = pool.getNumIdle();
+        if (connections > idle) {
+            pool.addObjects(connections - idle);
+        }
+
+        final List<Class<?>> registering = new ArrayList<>(pendingRegistrations);
+        final int scripts;
+        try (Handle handle = open()) {
+            scripts = proxyFactory.register(handle.jedis(), registering);
+        }
+        pendingRegistrations.removeAll(registering);
+
+        warmUpDuration = Duration.ofNanos(System.nanoTime() - start);
+        logger.info("RDBI warmed up {} DAO types ({} scripts and function libraries loaded) in {} ms",
+                    registering.size(), scripts, warmUpDuration.toMillis());
+        return warmUpDuration;
+    }
+
+    ExecutorService asyncExecutor() {
+        return asyncExecutor;
+    }
+
+    boolean hasReplicas() {
+        return replicas != null;
+    }
+
+    /**
+     * @return the shared connections of a multiplexed RDBI, or null.
+     */
+    Multiplexer multiplexer() {
+        return multiplexer;
+    }
+
+    /**
+     * @return the metrics of every {@link Query} method of the DAO types attached so far, the methods that took the
+     * most time in total first. The metrics are live: they keep counting after they are returned.
+     */
+    public List<DaoMethodMetrics> getDaoMetrics() {
+        return proxyFactory.metrics();
+    }
+
+    /**
+     * @return the scripts run by this RDBI, and the time redis spent in them according to its slow log.
+     */
+    public ScriptRegistry getScriptRegistry() {
+        return scriptRegistry;
+    }
+
+    /**
+     * Read the last entries of the slow log of redis, and add those not read before to the scripts they ran, see
+     * {@link ScriptRegistry}. The slow log only keeps its last 128 entries by default ({@code slowlog-max-len}), so
+     * poll it more often than that many slow commands are logged.
+     * @return the number of new entries that ran a known script.
+     */
+    public int pollSlowLog() {
+        try (Handle handle = open()) {
+            return scriptRegistry.record(handle.jedis().slowlogGet(SLOW_LOG_ENTRIES));
+        }
+    }
+
+    /**
+     * @return a handle on a connection from the pool, or sharing one of the multiplexed connections, see
+     * {@link Builder#multiplexed(HostAndPort, JedisClientConfig, int)}.
+     */
     public Handle open() {
+        final Deadline current = getDeadline();
+        current.check("borrowing a connection");
+        final Handle scoped = scope.get();
+        if (scoped != null) {
+            return scoped.reenter();
+        }
+        if (multiplexer != null) {
+            // not borrowed from the pool, so not in the pool metrics
+            try {
+                return new Handle(new Jedis(multiplexer.connection(current)), proxyFactory, instrumentation, replicas);
+            } catch (Exception ex) {
+                logger.error("Exception caught during resource create!", ex);
+                throw new RuntimeException(ex);
+            }
+        }
+        final long start = System.nanoTime();
+        final Jedis resource;
         try {
-            Jedis resource = pool.getResource();
-            return new Handle(resource, proxyFactory, tracer);
+            resource = current == Deadline.NONE ? pool.getResource() : borrow(current);
+        } catch (DeadlineExceededException ex) {
+            poolMetrics.recordBorrowFailure(System.nanoTime() - start, true);
+            throw ex;
         } catch (Exception ex) {
+            // jedis wraps the pool's NoSuchElementException when no connection was returned in time
+            poolMetrics.recordBorrowFailure(System.nanoTime() - start, ex.getCause() instanceof NoSuchElementException);
             logger.error("Exception caught during resource create!", ex);
             throw new RuntimeException(ex);
         }
+        poolMetrics.recordBorrow(System.nanoTime() - start);
+        final Handle handle = new Handle(resource, proxyFactory, instrumentation, replicas, poolMetrics);
+        if (current != Deadline.NONE) {
+            handle.limitSocketTimeout(current);
+        }
+        return handle;
+    }
+
+    /**
+     * Like {@link Pool#getResource()}, waiting for a connection no longer than the deadline allows. JedisPool hands
+     * out connections with {@link Pool#borrowObject()} and then sets itself as their data source (a protected method),
+     * so that closing them returns them; other pools, e.g. sentinel pools, are left to wait their maxWait.
+     */
+    private Jedis borrow(Deadline deadline) throws Exception {
+        if (SET_DATA_SOURCE == null || !(pool instanceof JedisPool)) {
+            return pool.getResource();
+        }
+        final long maxWait = pool.getMaxWaitMillis();
+        final Jedis jedis;
+        try {
+            jedis = pool.borrowObject(maxWait < 0 ? deadline.remainingMillis() : deadline.capMillis(maxWait));
+        } catch (NoSuchElementException e) {
+            if (!deadline.isExpired()) {
+                throw new JedisException("Could not get a resource from the pool", e);
+            }
+            throw new DeadlineExceededException("Deadline exceeded waiting for a connection from the pool", e);
+        }
+        try {
+            SET_DATA_SOURCE.invoke(jedis, pool);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // not handed out, so nothing else would return it
+            pool.returnResource(jedis);
+            throw e;
+        }
+        return jedis;
+    }
+
+    /**
+     * Stop the threads of this RDBI: the coalescing sender (calls still queued fail), the slow log polling and pool
+     * sizing, the multiplexed connections, and the async executor unless it was passed in. The pool is not closed,
+     * it belongs to the caller. Closing again does nothing.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        for (ScheduledExecutorService executor : scheduled) {
+            executor.shutdownNow();
+        }
+        if (multiplexer != null) {
+            multiplexer.close();
+        }
+        if (ownsAsyncExecutor) {
+            asyncExecutor.shutdown();
+        }
+        logger.info("RDBI closed.");
+    }
+
+    /**
+     * @return how long {@link #open()} waits for a connection from the pool, and how long connections are held.
+     */
+    public PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    public static Builder builder(Pool<Jedis> pool) {
+        return new Builder(pool);
+    }
+
+    /**
+     * Builds an RDBI that is warmed up before it is returned:
+     * <pre>
+     *     RDBI rdbi = RDBI.builder(pool)
+     *                     .register(RedisSemaphoreDAO.class, JobSchedulerDAO.class)
+     *                     .prefillConnections(8)
+     *                     .build();
+     * </pre>
+     */
+    public static class Builder {
+        private final Pool<Jedis> pool;
+        private final List<Class<?>> types;
+        private Instrumentation instrumentation;
+        private Pool<Jedis> replicas;
+        private Duration maxReplicaLag;
+        private ExecutorService asyncExecutor;
+        private int connections;
+        private Duration coalescingWindow;
+        private int coalescingBatchSize;
+        private int coalescingQueueDepth;
+        private TransportFactory transport;
+        private int transportConnections;
+        private Duration transportTimeout;
+        private Duration slowLogInterval;
+        private int minPoolSize;
+        private int maxPoolSize;
+        private Duration poolSizerInterval;
+        private final Map<String, Bulkhead> bulkheads = new LinkedHashMap<>();
+
+        private Builder(Pool<Jedis> pool) {
+            this.pool = pool;
+            this.types = new ArrayList<>();
+        }
+
+        public Builder tracer(Tracer tracer) {
+            return instrumentation(new OpenTelemetryInstrumentation(tracer));
+        }
+
+        /**
+         * @param instrumentation observes the commands sent through {@link Handle#jedis()}. Without one, they are
+         *                        traced with the global OpenTelemetry tracer; {@link Instrumentation#NONE} leaves them
+         *                        alone.
+         */
+        public Builder instrumentation(Instrumentation instrumentation) {
+            this.instrumentation = instrumentation;
+            return this;
+        }
+
+        /**
+         * @param replicas connections to read replicas of the pool's primary, for {@link ReadOnly} DAO methods and
+         *                 {@link Handle#readOnly()}. While they are unreachable, reads go to the primary.
+         */
+        public Builder replicas(Pool<Jedis> replicas) {
+            this.replicas = replicas;
+            return this;
+        }
+
+        /**
+         * @param maxReplicaLag read from the primary instead of a replica that lost its link to the primary, or last
+         *                      heard from it longer ago than this (checked at most once a second). The primary pings
+         *                      its replicas every 10 seconds by default ({@code repl-ping-replica-period}), so a
+         *                      quiet primary can look that far behind.
+         */
+        public Builder maxReplicaLag(Duration maxReplicaLag) {
+            this.maxReplicaLag = maxReplicaLag;
+            return this;
+        }
+
+        /**
+         * @see RDBI#RDBI(Pool, Tracer, ExecutorService)
+         */
+        public Builder asyncExecutor(ExecutorService asyncExecutor) {
+            this.asyncExecutor = asyncExecutor;
+            return this;
+        }
+
+        public Builder register(Class<?>... types) {
+            this.types.addAll(Arrays.asList(types));
+            return this;
+        }
+
+        /**
+         * @param connections the number of idle connections to open in the pool before the first request needs them.
+         */
+        public Builder prefillConnections(int connections) {
+            this.connections = connections;
+            return this;
+        }
+
+        /**
+         * Enables {@link RDBI#coalesced(Class)} and {@link RDBI#coalesce(Function)}, which batch the calls of many
+         * threads into pipelines sent one at a time on a single daemon thread.
+         * @param window how long the first call of a batch may wait for more calls, e.g. a few hundred microseconds.
+         * @param maxBatchSize a batch is sent without waiting for the rest of the window once it has this many calls.
+         * @param maxQueueDepth calls made while this many are waiting fail with a
+         *                      {@link java.util.concurrent.RejectedExecutionException}.
+         */
+        public Builder coalescing(Duration window, int maxBatchSize, int maxQueueDepth) {
+            this.coalescingWindow = window;
+            this.coalescingBatchSize = maxBatchSize;
+            this.coalescingQueueDepth = maxQueueDepth;
+            return this;
+        }
+
+        /**
+         * Makes {@link RDBI#open()} (and so on-demand DAOs, {@link RDBI#withHandle(Callback)} and the recipes) share a
+         * few connections instead of borrowing one from the pool per handle, so that any number of (virtual) threads
+         * can have calls in flight at once. Each handle sends its commands on one of the connections, in order, without
+         * waiting for the replies to the commands of other handles.
+         * <p>
+         * As the connection is shared, its handles cannot use commands that change its state or block it: MULTI,
+         * WATCH, SELECT, SUBSCRIBE, BLPOP and the like fail with an {@link UnsupportedOperationException}. The pool is
+         * then only filled by {@link #prefillConnections(int)}.
+         * @param address the redis server, the same one as the pool's.
+         * @param config the password, database, timeouts... A caller waits for its reply for up to the socket timeout.
+         * @param connections the number of shared connections, each opened when it is first needed.
+         */
+        public Builder multiplexed(HostAndPort address, JedisClientConfig config, int connections) {
+            return transport(JedisTransport.factory(address, config), connections,
+                             Duration.ofMillis(config.getSocketTimeoutMillis()));
+        }
+
+        /**
+         * Like {@link #multiplexed(HostAndPort, JedisClientConfig, int)}, on connections of another kind, e.g.
+         * {@link NioTransport#factory(HostAndPort, JedisClientConfig)}. The CompletableFuture-returning methods of
+         * {@link RDBI#onDemand(Class)} DAOs are then sent straight to the transport, without holding a thread while
+         * they wait for their reply.
+         * @param timeout how long a caller waits for its reply, or zero to wait as long as it takes.
+         */
+        public Builder transport(TransportFactory transport, int connections, Duration timeout) {
+            this.transport = transport;
+            this.transportConnections = connections;
+            this.transportTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Calls {@link RDBI#pollSlowLog()} at this interval on a daemon thread, so that the slow log stays attributed
+         * to the scripts in {@link RDBI#getScriptRegistry()}. Failed polls are logged and retried at the next one.
+         */
+        public Builder slowLogPolling(Duration interval) {
+            this.slowLogInterval = interval;
+            return this;
+        }
+
+        /**
+         * Grows and shrinks the pool within bounds, by setting its {@code maxTotal} (and {@code maxIdle}) at this
+         * interval on a daemon thread: it grows while borrows wait for connections for more than a tenth of the time
+         * connections are held, and shrinks while at most half of them are in use. See {@link RDBI#getPoolMetrics()}
+         * for what it is based on.
+         * @param interval how often to resize, e.g. every 10 seconds; each step is a quarter of the size.
+         */
+        public Builder adaptivePoolSize(int minTotal, int maxTotal, Duration interval) {
+            if (minTotal < 1 || maxTotal < minTotal) {
+                throw new IllegalArgumentException("Expected 1 <= minTotal <= maxTotal, got " + minTotal + " and " + maxTotal);
+            }
+            this.minPoolSize = minTotal;
+            this.maxPoolSize = maxTotal;
+            this.poolSizerInterval = interval;
+            return this;
+        }
+
+        /**
+         * Adds a bulkhead for {@link RDBI#inBulkhead(String, Supplier)}, without a circuit breaker.
+         */
+        public Builder bulkhead(String name, int maxConcurrentCalls, Duration maxWait) {
+            return bulkhead(name, maxConcurrentCalls, maxWait, null);
+        }
+
+        /**
+         * Adds a bulkhead for {@link RDBI#inBulkhead(String, Supplier)}.
+         * @param maxConcurrentCalls the number of operations that can run in the bulkhead at once.
+         * @param maxWait how long an operation may wait for room before it is rejected, or zero not to wait.
+         * @param circuitBreaker rejects the operations while redis fails or is slow for them, or null.
+         */
+        public Builder bulkhead(String name, int maxConcurrentCalls, Duration maxWait, CircuitBreaker circuitBreaker) {
+            this.bulkheads.put(name, new Bulkhead(name, maxConcurrentCalls, maxWait, circuitBreaker));
+            return this;
+        }
+
+        /**
+         * @throws RuntimeException if the warm-up fails; use {@link RDBI#register(Class[])} to warm up in the background.
+         */
+        public RDBI build() {
+            RDBI rdbi = new RDBI(pool,
+                                 instrumentation != null ? instrumentation
+                                                         : new OpenTelemetryInstrumentation(GlobalOpenTelemetry.get().getTracer(TRACER_NAME)),
+                                 replicas != null ? new Replicas(replicas, maxReplicaLag) : null,
+                                 asyncExecutor);
+            rdbi.bulkheads.putAll(bulkheads);
+            if (transport != null) {
+                rdbi.multiplexer = new Multiplexer(transport, transportConnections, transportTimeout);
+            }
+            if (coalescingWindow != null) {
+                rdbi.coalescer = new Coalescer(rdbi, coalescingWindow, coalescingBatchSize, coalescingQueueDepth);
+            }
+            if (slowLogInterval != null) {
+                rdbi.schedule("rdbi-slowlog", slowLogInterval, rdbi::pollSlowLog, "Failed to read the slow log");
+            }
+            if (poolSizerInterval != null) {
+                rdbi.schedule("rdbi-pool-sizer", poolSizerInterval,
+                              new PoolSizer(pool, rdbi.poolMetrics, minPoolSize, maxPoolSize), "Failed to resize the pool");
+            }
+            if (!types.isEmpty() || connections > 0) {
+                rdbi.warmUp(types, connections);
+            }
+            return rdbi;
+        }
+    }
+
+    private void schedule(String name, Duration interval, Runnable task, String failure) {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduled.add(executor);
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn(failure, e);
+            }
+        }, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private static Method dataSourceSetter() {
+        try {
+            final Method method = Jedis.class.getDeclaredMethod("setDataSource", Pool.class);
+            method.setAccessible(true);
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Deadlines will not limit the wait for a pooled connection", e);
+            return null;
+        }
+    }
+
+    /**
+     * Calls to redis spend nearly all their time waiting on the network, so use virtual threads where the runtime
+     * has them (java 21+), and otherwise daemon threads that are created on demand and reused when idle.
+     */
+    static ExecutorService newAsyncExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new AsyncThreadFactory());
+        }
+    }
+
+    private static class AsyncThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "rdbi-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
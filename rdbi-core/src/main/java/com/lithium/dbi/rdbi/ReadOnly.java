@@ -0,0 +1,16 @@
+package com.lithium.dbi.rdbi;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link Query} method whose script only reads. It is called with {@code EVALSHA_RO} (or {@code FCALL_RO} in
+ * a {@link FunctionLibrary}), which needs Redis 7, and runs on a read replica when the RDBI has them, see
+ * {@link RDBI.Builder#replicas(redis.clients.jedis.util.Pool)}. A replica may not have seen the latest writes yet.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReadOnly {
+}
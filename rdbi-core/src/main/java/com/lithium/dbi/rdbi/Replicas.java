@@ -0,0 +1,102 @@
+package com.lithium.dbi.rdbi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.util.Pool;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lends connections to the read replicas, unless they are unreachable or lag too far behind their primary. Then
+ * {@link #borrow()} returns null for a while, and reads go to the primary.
+ */
+@ThreadSafe
+class Replicas {
+
+    private static final Logger logger = LoggerFactory.getLogger(Replicas.class);
+
+    static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final long CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Pool<Jedis> pool;
+    private final Duration maxLag;
+    private volatile long unavailableUntil;
+    private volatile long checkedAt;
+
+    /**
+     * @param maxLag how long ago a replica may have last heard from its primary, or null to not check.
+     */
+    Replicas(Pool<Jedis> pool, Duration maxLag) {
+        this.pool = pool;
+        this.maxLag = maxLag;
+        // nanoTime may be negative, so the clocks start from now rather than from zero
+        this.unavailableUntil = System.nanoTime();
+        this.checkedAt = unavailableUntil - CHECK_NANOS;
+    }
+
+    /**
+     * @return a replica connection, or null if the primary should be read instead.
+     */
+    Jedis borrow() {
+        final long now = System.nanoTime();
+        if (now - unavailableUntil < 0) {
+            return null;
+        }
+
+        final Jedis replica;
+        try {
+            replica = pool.getResource();
+        } catch (JedisException e) {
+            markUnavailable(e);
+            return null;
+        }
+        if (maxLag == null || now - checkedAt < CHECK_NANOS) {
+            return replica;
+        }
+
+        checkedAt = now;
+        final String staleness;
+        try {
+            staleness = staleness(replica.info("replication"), maxLag);
+        } catch (JedisException e) {
+            replica.close();
+            markUnavailable(e);
+            return null;
+        }
+        if (staleness != null) {
+            replica.close();
+            unavailableUntil = System.nanoTime() + RETRY_NANOS;
+            logger.warn("Reading from the primary: replica {}", staleness);
+            return null;
+        }
+        return replica;
+    }
+
+    void markUnavailable(Exception e) {
+        unavailableUntil = System.nanoTime() + RETRY_NANOS;
+        logger.warn("Reading from the primary: replicas are unavailable", e);
+    }
+
+    /**
+     * @param info the reply to INFO replication.
+     * @return why the replica is too stale to read from, or null if it is fresh enough.
+     */
+    static String staleness(String info, Duration maxLag) {
+        for (String line : info.split("\r?\n")) {
+            if (line.startsWith("master_link_status:") && !line.endsWith(":up")) {
+                return "lost its link to the primary";
+            } else if (line.startsWith("master_last_io_seconds_ago:")) {
+                final long seconds = Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                if (seconds < 0 || seconds > maxLag.getSeconds()) {
+                    return "last heard from the primary " + seconds + "s ago";
+                }
+            }
+        }
+        // a primary in the replica pool (e.g. after a failover) has neither line, and is never stale
+        return null;
+    }
+}
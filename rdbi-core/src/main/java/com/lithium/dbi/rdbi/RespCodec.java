@@ -0,0 +1,238 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.args.Rawable;
+import redis.clients.jedis.exceptions.JedisAccessControlException;
+import redis.clients.jedis.exceptions.JedisBusyException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Writes commands and reads replies in the redis protocol (RESP2), as {@link NioTransport} sends and receives them a
+ * buffer at a time. Replies are read into the same types as jedis reads them.
+ * <p>
+ * A reply is parsed as far as it has been received: the elements of its arrays read so far are kept, and only the
+ * element cut short is parsed again once more bytes arrive, so a large reply split across many reads is not parsed
+ * again from its start each time.
+ */
+@NotThreadSafe
+class RespCodec {
+
+    /**
+     * Returned by {@link #decode()} until a whole reply has been received.
+     */
+    static final Object INCOMPLETE = new Object();
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private byte[] buffer;
+    // the bytes before the position have been parsed, into the arrays (innermost first) of a reply not complete yet
+    private int position;
+    private int end;
+    private final Deque<PartialArray> arrays;
+
+    RespCodec() {
+        this.buffer = new byte[16 * 1024];
+        this.arrays = new ArrayDeque<>();
+    }
+
+    static ByteBuffer encode(CommandArguments command) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeLength(out, '*', command.size());
+        for (Rawable arg : command) {
+            final byte[] raw = arg.getRaw();
+            writeLength(out, '$', raw.length);
+            out.write(raw, 0, raw.length);
+            out.write(CRLF, 0, 2);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, char type, int length) {
+        out.write(type);
+        final byte[] digits = Integer.toString(length).getBytes(StandardCharsets.US_ASCII);
+        out.write(digits, 0, digits.length);
+        out.write(CRLF, 0, 2);
+    }
+
+    /**
+     * Append the bytes received, from the position of {@code received} to its limit.
+     */
+    void receive(ByteBuffer received) {
+        final int length = received.remaining();
+        if (end + length > buffer.length) {
+            final int kept = end - position;
+            if (kept + length > buffer.length) {
+                final byte[] larger = new byte[Math.max(buffer.length * 2, kept + length)];
+                System.arraycopy(buffer, position, larger, 0, kept);
+                buffer = larger;
+            } else {
+                System.arraycopy(buffer, position, buffer, 0, kept);
+            }
+            position = 0;
+            end = kept;
+        }
+        received.get(buffer, end, length);
+        end += length;
+    }
+
+    /**
+     * @return the next reply, or {@link #INCOMPLETE} if it has not been received in full yet. Error replies are
+     * returned as a {@link JedisDataException}, not thrown.
+     */
+    Object decode() {
+        while (true) {
+            Object value = next();
+            if (value == INCOMPLETE) {
+                return INCOMPLETE;
+            } else if (value instanceof PartialArray) {
+                arrays.push((PartialArray) value);
+                continue;
+            }
+            // the last element of an array completes it, and maybe the arrays it is the last element of
+            while (!arrays.isEmpty() && arrays.peek().add(value)) {
+                value = arrays.pop().elements;
+            }
+            if (arrays.isEmpty()) {
+                if (position == end) {
+                    position = 0;
+                    end = 0;
+                }
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return the next value, the header of a non-empty array as a {@link PartialArray}, or {@link #INCOMPLETE}
+     * (leaving the position at the start of the value).
+     */
+    private Object next() {
+        final int mark = position;
+        final Object value = read();
+        if (value == INCOMPLETE) {
+            position = mark;
+        }
+        return value;
+    }
+
+    private Object read() {
+        if (position >= end) {
+            return INCOMPLETE;
+        }
+        final byte type = buffer[position++];
+        final int lineEnd = lineEnd();
+        if (lineEnd < 0) {
+            return INCOMPLETE;
+        }
+        switch (type) {
+            case '+':
+                return line(lineEnd);
+            case '-':
+                return error(SafeEncoder.encode(line(lineEnd)));
+            case ':':
+                return number(lineEnd);
+            case '$':
+                return bulk((int) number(lineEnd));
+            case '*':
+                return array((int) number(lineEnd));
+            default:
+                throw new JedisDataException("Unknown reply: " + (char) type);
+        }
+    }
+
+    /**
+     * @return the index of the CR ending the line at the position, or -1 if the line is not complete.
+     */
+    private int lineEnd() {
+        for (int i = position; i < end - 1; i++) {
+            if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private byte[] line(int lineEnd) {
+        final byte[] line = new byte[lineEnd - position];
+        System.arraycopy(buffer, position, line, 0, line.length);
+        position = lineEnd + 2;
+        return line;
+    }
+
+    private long number(int lineEnd) {
+        boolean negative = buffer[position] == '-';
+        long value = 0;
+        for (int i = negative ? position + 1 : position; i < lineEnd; i++) {
+            value = value * 10 + (buffer[i] - '0');
+        }
+        position = lineEnd + 2;
+        return negative ? -value : value;
+    }
+
+    private Object bulk(int length) {
+        if (length < 0) {
+            return null;
+        } else if (end - position < length + 2) {
+            return INCOMPLETE;
+        }
+        final byte[] bulk = new byte[length];
+        System.arraycopy(buffer, position, bulk, 0, length);
+        position += length + 2;
+        return bulk;
+    }
+
+    private static Object array(int size) {
+        if (size < 0) {
+            return null;
+        } else if (size == 0) {
+            return new ArrayList<>(0);
+        }
+        return new PartialArray(size);
+    }
+
+    /**
+     * An array whose elements are still being read.
+     */
+    private static final class PartialArray {
+        private final int size;
+        private final List<Object> elements;
+
+        private PartialArray(int size) {
+            this.size = size;
+            this.elements = new ArrayList<>(size);
+        }
+
+        /**
+         * @return true if that was the last element.
+         */
+        private boolean add(Object element) {
+            elements.add(element);
+            return elements.size() == size;
+        }
+    }
+
+    /**
+     * The exceptions jedis raises for the same errors.
+     */
+    private static JedisDataException error(String message) {
+        if (message.startsWith("NOSCRIPT")) {
+            return new JedisNoScriptException(message);
+        } else if (message.startsWith("BUSY")) {
+            return new JedisBusyException(message);
+        } else if (message.startsWith("WRONGPASS") || message.startsWith("NOPERM")) {
+            return new JedisAccessControlException(message);
+        }
+        return new JedisDataException(message);
+    }
+}
@@ -0,0 +1,123 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Iterates over the elements of a SCAN (or HSCAN, SSCAN, ZSCAN) one batch at a time, fetching the next batch when the
+ * last one is used up, or as soon as it arrives with read-ahead. Elements are decoded as they are iterated over.
+ * <p>
+ * With read-ahead, the connection has a reply on its way until the cursor is used up; {@link #close()} reads it so
+ * that the connection can be used again.
+ * @param <T> the type of the elements.
+ */
+@NotThreadSafe
+class ScanCursor<T> implements Iterator<T>, Closeable {
+
+    private static final String START = "0";
+
+    private final Connection connection;
+    private final Function<String, CommandArguments> command;
+    private final int stride;
+    private final BiFunction<List<Object>, Integer, T> decoder;
+    private final boolean readAhead;
+    private String cursor;
+    private boolean done;
+    private boolean requested;
+    private List<Object> batch;
+    private int index;
+
+    /**
+     * @param command the command fetching the batch at a cursor.
+     * @param stride the number of values per element, e.g. 2 for the field and value of HSCAN.
+     * @param decoder decodes the element at an index of a batch.
+     */
+    ScanCursor(Connection connection, Function<String, CommandArguments> command, int stride,
+               BiFunction<List<Object>, Integer, T> decoder, boolean readAhead) {
+        this.connection = connection;
+        this.command = command;
+        this.stride = stride;
+        this.decoder = decoder;
+        this.readAhead = readAhead;
+        this.cursor = START;
+    }
+
+    /**
+     * @return the arguments shared by the SCAN commands, after the cursor.
+     */
+    static CommandArguments options(CommandArguments command, ScanOptions options) {
+        if (options.getPattern() != null) {
+            command.add("MATCH").add(options.getPattern());
+        }
+        if (options.getCount() > 0) {
+            command.add("COUNT").add(options.getCount());
+        }
+        return command;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (batch == null || index >= batch.size()) {
+            if (done) {
+                return false;
+            }
+            fetch();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final T element = decoder.apply(batch, index);
+        index += stride;
+        return element;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fetch() {
+        if (!requested) {
+            connection.sendCommand(command.apply(cursor));
+        }
+        requested = false;
+        final List<Object> reply = (List<Object>) connection.getOne();
+        cursor = SafeEncoder.encode((byte[]) reply.get(0));
+        batch = (List<Object>) reply.get(1);
+        index = 0;
+
+        if (START.equals(cursor)) {
+            done = true;
+        } else if (readAhead) {
+            connection.sendCommand(command.apply(cursor));
+            // flushes the command without reading anything
+            connection.getMany(0);
+            requested = true;
+        }
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        batch = null;
+        if (requested) {
+            requested = false;
+            try {
+                connection.getOne();
+            } catch (JedisDataException e) {
+                // nobody is waiting for that batch
+            }
+        }
+    }
+}
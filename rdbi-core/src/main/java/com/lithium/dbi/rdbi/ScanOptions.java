@@ -0,0 +1,64 @@
+package com.lithium.dbi.rdbi;
+
+/**
+ * What the cursors of {@link Handle#scan(ScanOptions)} and its siblings iterate over, and how:
+ * <pre>
+ *     try (Stream&lt;String&gt; keys = handle.scan(ScanOptions.match("job:*").count(1000).readAhead())) {
+ *         keys.forEach(...);
+ *     }
+ * </pre>
+ */
+public class ScanOptions {
+
+    private final String pattern;
+    private int count;
+    private boolean readAhead;
+
+    private ScanOptions(String pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * @return options for every element.
+     */
+    public static ScanOptions all() {
+        return new ScanOptions(null);
+    }
+
+    /**
+     * @param pattern a glob-style pattern, see the MATCH option of SCAN.
+     */
+    public static ScanOptions match(String pattern) {
+        return new ScanOptions(pattern);
+    }
+
+    /**
+     * @param count about how many elements redis looks at per call (10 by default). Larger batches take fewer round
+     *              trips, smaller ones block redis for less time and keep less in memory.
+     */
+    public ScanOptions count(int count) {
+        this.count = count;
+        return this;
+    }
+
+    /**
+     * Ask for the next batch as soon as one arrives, so that it is on its way while this one is being processed. The
+     * handle must then not be used for anything else until the stream is consumed or closed.
+     */
+    public ScanOptions readAhead() {
+        this.readAhead = true;
+        return this;
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    boolean isReadAhead() {
+        return readAhead;
+    }
+}
@@ -0,0 +1,250 @@
+package com.lithium.dbi.rdbi;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Runs several DAO calls inside one script, so that they take a single round trip and nothing else runs on redis
+ * in between.
+ * <p>
+ * As on a {@link PipelinedHandle}, DAO methods called through {@link #attach(Class)} only queue their call and
+ * return the default value of their return type; {@link #response(Object)} gives the {@link PipelinedResponse} of
+ * the call just made, and {@link #execute()} runs the batch:
+ * <pre>
+ *     ScriptBatch batch = handle.batch();
+ *     MultiChannelSchedulerDAO dao = batch.attach(MultiChannelSchedulerDAO.class);
+ *     PipelinedResponse&lt;Integer&gt; acked = batch.response(dao.ackJob(runningQueue, runningCountKey, job));
+ *     dao.incrementTTL(otherRunningQueue, 1000L, otherJob);
+ *     batch.execute();
+ * </pre>
+ * The scripts are wrapped in one generated script which calls them in order, each with its own KEYS and ARGV. It
+ * only depends on which scripts the batch uses, and is loaded the first time redis runs it. A call's arguments are
+ * fixed when it is queued, so it cannot use the results of the calls before it.
+ * <p>
+ * An error returned by a script (e.g. {@code redis.error_reply}) only fails its own call. An error raised while it
+ * runs (e.g. by a failing {@code redis.call}) stops the whole batch and fails every call, but what the calls before
+ * it wrote stays written: redis does not roll scripts back. The methods of a {@link FunctionLibrary} cannot be
+ * batched, as functions cannot be called from a script.
+ */
+@NotThreadSafe
+public class ScriptBatch {
+
+    private final Jedis jedis;
+    private final ProxyFactory proxyFactory;
+    private final List<BatchedCall> queue;
+    private BatchedCall unclaimed;
+
+    ScriptBatch(Jedis jedis, ProxyFactory proxyFactory) {
+        this.jedis = jedis;
+        this.proxyFactory = proxyFactory;
+        this.queue = new ArrayList<>();
+    }
+
+    public <T> T attach(Class<T> type) {
+        return proxyFactory.createBatchedInstance(jedis, type, this);
+    }
+
+    /**
+     * @param queuedCall the (ignored) return value of the DAO call that was just made on an attached DAO.
+     * @param <T> the return type of the DAO method
+     * @return the response that will hold the result of that call once the batch has run.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> PipelinedResponse<T> response(T queuedCall) {
+        if (unclaimed == null) {
+            throw new IllegalStateException("No DAO call was queued since the last response was taken.");
+        }
+        final PipelinedResponse<T> response = (PipelinedResponse<T>) unclaimed.response;
+        unclaimed = null;
+        return response;
+    }
+
+    /**
+     * Run all queued calls in one script and fill in their responses.
+     * @throws RuntimeException if redis could not be reached; the responses of the calls then hold the same exception.
+     */
+    public void execute() {
+        flush();
+    }
+
+    /**
+     * Run all queued calls in one script.
+     * @return the mapped result of every queued call, in the order the calls were made. Calls that failed are
+     * represented by their exception.
+     * @throws RuntimeException if redis could not be reached, like {@link #execute()}.
+     */
+    public List<Object> executeAndReturnAll() {
+        final List<BatchedCall> calls = flush();
+        final List<Object> results = new ArrayList<>(calls.size());
+        for (BatchedCall call : calls) {
+            try {
+                results.add(call.response.get());
+            } catch (RuntimeException e) {
+                results.add(e);
+            }
+        }
+        return results;
+    }
+
+    PipelinedResponse<Object> queue(MethodContext context, List<?> keys, List<?> argv) {
+        if (context.getLibrary() != null) {
+            throw new IllegalArgumentException(context.getMetrics().getName()
+                                               + " calls a function, which cannot be called from the script running a batch");
+        }
+        final BatchedCall call = new BatchedCall(context, keys, argv);
+        queue.add(call);
+        unclaimed = call;
+        return call.response;
+    }
+
+    private List<BatchedCall> flush() {
+        final List<BatchedCall> calls = new ArrayList<>(queue);
+        queue.clear();
+        unclaimed = null;
+        if (calls.isEmpty()) {
+            return calls;
+        }
+
+        // the scripts, numbered from 1 in the order they are first used
+        final List<MethodContext> scripts = new ArrayList<>();
+        final Map<String, Integer> numbers = new LinkedHashMap<>();
+        final List<byte[]> keys = new ArrayList<>();
+        final List<byte[]> argv = new ArrayList<>();
+        final List<byte[]> callArgv = new ArrayList<>();
+        argv.add(ArgumentEncoder.encodeLong(calls.size()));
+        for (BatchedCall call : calls) {
+            final String sha1 = call.context.getSha1();
+            if (!numbers.containsKey(sha1)) {
+                scripts.add(call.context);
+                numbers.put(sha1, scripts.size());
+            }
+            argv.add(ArgumentEncoder.encodeLong(numbers.get(sha1)));
+            argv.add(ArgumentEncoder.encodeLong(encode(call.keys, keys)));
+            argv.add(ArgumentEncoder.encodeLong(encode(call.argv, callArgv)));
+        }
+        argv.addAll(callArgv);
+
+        final Wrapper wrapper = proxyFactory.batchWrapper(new ArrayList<>(numbers.keySet()), shas -> new Wrapper(scripts));
+        final long start = System.nanoTime();
+        final List<?> replies;
+        try {
+            replies = (List<?>) evalsha(wrapper, keys, argv);
+        } catch (RuntimeException e) {
+            final long nanos = System.nanoTime() - start;
+            for (BatchedCall call : calls) {
+                call.context.getMetrics().recordError(nanos);
+                call.response.setException(e);
+            }
+            if (!(e instanceof JedisDataException)) {
+                // the batch may not have run at all, e.g. on a broken connection
+                throw e;
+            }
+            return calls;
+        }
+        final long nanos = System.nanoTime() - start;
+        for (int i = 0; i < calls.size(); i++) {
+            calls.get(i).complete((List<?>) replies.get(i), nanos);
+        }
+        return calls;
+    }
+
+    private Object evalsha(Wrapper wrapper, List<byte[]> keys, List<byte[]> argv) {
+        try {
+            return jedis.evalsha(wrapper.sha1, keys, argv);
+        } catch (JedisDataException e) {
+            if (!JedisInvoker.isNoScript(e)) {
+                throw e;
+            }
+            // EVAL loads the wrapper as it runs it, and the later batches find it
+            return jedis.eval(wrapper.script, keys, argv);
+        }
+    }
+
+    /**
+     * @return how many values were appended.
+     */
+    private static int encode(List<?> values, List<byte[]> to) {
+        if (values == null) {
+            return 0;
+        }
+        for (Object value : values) {
+            to.add(value instanceof byte[] ? (byte[]) value : SafeEncoder.encode(value.toString()));
+        }
+        return values.size();
+    }
+
+    /**
+     * The script running a batch. ARGV starts with the number of calls, then for each call the number of its script,
+     * of its keys and of its arguments; the calls' arguments follow, and KEYS holds their keys, both in call order.
+     * Each reply is wrapped in a table, so that a nil reply does not cut the list of replies short.
+     */
+    static class Wrapper {
+        final String name;
+        final byte[] script;
+        final byte[] sha1;
+
+        Wrapper(Collection<MethodContext> scripts) {
+            final StringJoiner name = new StringJoiner(", ", "batch of ", "");
+            final StringBuilder lua = new StringBuilder("local scripts = {\n");
+            for (MethodContext context : scripts) {
+                name.add(context.getMetrics().getName());
+                lua.append("function(KEYS, ARGV)\n").append(context.getScript()).append("\nend,\n");
+            }
+            lua.append("}\n")
+               .append("local calls = tonumber(ARGV[1])\n")
+               .append("local results, k, a = {}, 0, 1 + 3 * calls\n")
+               .append("for i = 1, calls do\n")
+               .append("    local h = 3 * i - 1\n")
+               .append("    local keys, argv = {}, {}\n")
+               .append("    for j = 1, tonumber(ARGV[h + 1]) do keys[j] = KEYS[k + j] end\n")
+               .append("    for j = 1, tonumber(ARGV[h + 2]) do argv[j] = ARGV[a + j] end\n")
+               .append("    k, a = k + #keys, a + #argv\n")
+               .append("    results[i] = {scripts[tonumber(ARGV[h])](keys, argv)}\n")
+               .append("end\n")
+               .append("return results\n");
+            this.name = name.toString();
+            this.script = SafeEncoder.encode(lua.toString());
+            this.sha1 = SafeEncoder.encode(DigestUtils.sha1Hex(script));
+        }
+    }
+
+    private static class BatchedCall {
+        private final MethodContext context;
+        private final List<?> keys;
+        private final List<?> argv;
+        private final PipelinedResponse<Object> response;
+
+        private BatchedCall(MethodContext context, List<?> keys, List<?> argv) {
+            this.context = context;
+            this.keys = keys;
+            this.argv = argv;
+            this.response = new PipelinedResponse<>();
+        }
+
+        private void complete(List<?> wrapped, long nanos) {
+            final Object reply = wrapped.isEmpty() ? null : wrapped.get(0);
+            if (reply instanceof JedisDataException) {
+                context.getMetrics().recordError(nanos);
+                response.setException((JedisDataException) reply);
+                return;
+            }
+            context.getMetrics().record(nanos, reply);
+            try {
+                // the wrapper is run with the binary EVALSHA, decode the reply as the String one would have
+                response.set(context.map(context.isBinary() ? reply : SafeEncoder.encodeObject(reply)));
+            } catch (RuntimeException e) {
+                response.setException(e);
+            }
+        }
+    }
+}
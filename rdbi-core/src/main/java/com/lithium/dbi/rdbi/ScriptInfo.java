@@ -0,0 +1,88 @@
+package com.lithium.dbi.rdbi;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A script known to an RDBI, the DAO methods (or other callers) running it, and the time redis spent in it according
+ * to its slow log, see {@link ScriptRegistry}. The counts are live and can be read at any time.
+ */
+public class ScriptInfo {
+
+    private final String sha1;
+    private final String script;
+    private final Set<String> names;
+    private final LongAdder slowLogCount;
+    private final LongAdder slowLogMicros;
+    private final LongAccumulator maxSlowLogMicros;
+
+    ScriptInfo(String sha1, String script) {
+        this.sha1 = sha1;
+        this.script = script;
+        this.names = new CopyOnWriteArraySet<>();
+        this.slowLogCount = new LongAdder();
+        this.slowLogMicros = new LongAdder();
+        this.maxSlowLogMicros = new LongAccumulator(Math::max, 0);
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    /**
+     * @return the script as loaded into redis, with the bindings of the DAO method replaced by KEYS and ARGV.
+     */
+    public String getScript() {
+        return script;
+    }
+
+    /**
+     * @return what runs the script, e.g. {@code com.example.CounterDAO.incr}. DAO methods with the same script text
+     * share it, and redis cannot tell them apart.
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @return the number of calls found in the slow log since the RDBI started reading it.
+     */
+    public long getSlowLogCount() {
+        return slowLogCount.sum();
+    }
+
+    /**
+     * @return the time redis spent running those calls, as measured by redis itself.
+     */
+    public long getSlowLogMicros() {
+        return slowLogMicros.sum();
+    }
+
+    public long getMaxSlowLogMicros() {
+        return maxSlowLogMicros.get();
+    }
+
+    void addName(String name) {
+        names.add(name);
+    }
+
+    void recordSlowLog(long micros) {
+        slowLogCount.increment();
+        slowLogMicros.add(micros);
+        maxSlowLogMicros.accumulate(micros);
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptInfo{" +
+                "sha1='" + sha1 + '\'' +
+                ", names=" + names +
+                ", slowLogCount=" + getSlowLogCount() +
+                ", slowLogMicros=" + getSlowLogMicros() +
+                ", maxSlowLogMicros=" + getMaxSlowLogMicros() +
+                '}';
+    }
+}
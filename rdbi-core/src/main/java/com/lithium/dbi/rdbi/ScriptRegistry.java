@@ -0,0 +1,161 @@
+package com.lithium.dbi.rdbi;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import redis.clients.jedis.resps.Slowlog;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maps the sha1 of every script an RDBI runs back to what runs it: the {@link Query} methods of the DAO types attached
+ * so far, the scripts generated for {@link ScriptBatch}es, and scripts run by hand and {@link #register registered}.
+ * <p>
+ * Redis only knows a script by its sha1, so its slow log shows {@code EVALSHA 3f2a...}. {@link RDBI#pollSlowLog()}
+ * (or {@link RDBI.Builder#slowLogPolling(java.time.Duration)}) reads the slow log and adds each new entry to the
+ * script it ran, so that {@link #getScripts()} tells which scripts redis spends the most time in.
+ */
+@ThreadSafe
+public class ScriptRegistry {
+
+    private final ProxyFactory proxyFactory;
+    private final ConcurrentMap<String, ScriptInfo> scripts;
+    private final ConcurrentMap<String, ScriptInfo> functions;
+    private final LongAdder unattributed;
+    @GuardedBy("this")
+    private long lastSlowLogId;
+
+    ScriptRegistry(ProxyFactory proxyFactory) {
+        this.proxyFactory = proxyFactory;
+        this.scripts = new ConcurrentHashMap<>();
+        this.functions = new ConcurrentHashMap<>();
+        this.unattributed = new LongAdder();
+        this.lastSlowLogId = -1;
+    }
+
+    /**
+     * Make a script that is not run through a DAO known, e.g. one run with {@code jedis.evalsha}.
+     * @param name what runs the script, reported in {@link ScriptInfo#getNames()}.
+     * @return the sha1 of the script.
+     */
+    public String register(String name, String script) {
+        final String sha1 = DigestUtils.sha1Hex(script);
+        add(sha1, script, name);
+        return sha1;
+    }
+
+    /**
+     * @return the script with this sha1, or null if it is not known.
+     */
+    public ScriptInfo get(String sha1) {
+        refresh();
+        return scripts.get(sha1.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return every known script, those redis spent the most time in according to its slow log first.
+     */
+    public List<ScriptInfo> getScripts() {
+        refresh();
+        final List<ScriptInfo> all = new ArrayList<>(scripts.values());
+        all.sort(Comparator.comparingLong(ScriptInfo::getSlowLogMicros).reversed());
+        return all;
+    }
+
+    /**
+     * @return the number of slow log entries running a script that is not known, e.g. one loaded by another client,
+     * or sent with EVAL and too long for the slow log to keep all of it.
+     */
+    public long getUnattributedSlowLogCount() {
+        return unattributed.sum();
+    }
+
+    /**
+     * @param entries the reply to SLOWLOG GET, newest first.
+     * @return the number of entries not seen before that ran a known script.
+     */
+    synchronized int record(List<Slowlog> entries) {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        if (entries.get(0).getId() < lastSlowLogId) {
+            // the ids start again from zero when redis restarts
+            lastSlowLogId = -1;
+        }
+        refresh();
+
+        int attributed = 0;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            final Slowlog entry = entries.get(i);
+            if (entry.getId() <= lastSlowLogId) {
+                continue;
+            }
+            lastSlowLogId = entry.getId();
+            final ScriptInfo script = scriptOf(entry.getArgs());
+            if (script != null) {
+                script.recordSlowLog(entry.getExecutionTime());
+                attributed++;
+            }
+        }
+        return attributed;
+    }
+
+    /**
+     * @return the script run by the command, or null if it is not known or the command runs no script.
+     */
+    private ScriptInfo scriptOf(List<String> args) {
+        if (args.size() < 2) {
+            return null;
+        }
+        final ScriptInfo script;
+        switch (args.get(0).toUpperCase(Locale.ROOT)) {
+            case "EVALSHA":
+            case "EVALSHA_RO":
+                script = scripts.get(args.get(1).toLowerCase(Locale.ROOT));
+                break;
+            case "EVAL":
+            case "EVAL_RO":
+                // the slow log cuts arguments short after 128 bytes, longer scripts are not found
+                script = scripts.get(DigestUtils.sha1Hex(args.get(1)));
+                break;
+            case "FCALL":
+            case "FCALL_RO":
+                script = functions.get(args.get(1));
+                break;
+            default:
+                return null;
+        }
+        if (script == null) {
+            unattributed.increment();
+        }
+        return script;
+    }
+
+    /**
+     * Add the scripts of the DAO types attached, and of the batches run, since the last time.
+     */
+    private void refresh() {
+        for (MethodContext context : proxyFactory.contexts()) {
+            final ScriptInfo script = add(context.getSha1(), context.getScript(), context.getMetrics().getName());
+            if (context.getLibrary() != null) {
+                functions.putIfAbsent(context.getFunctionName(), script);
+            }
+        }
+        for (ScriptBatch.Wrapper wrapper : proxyFactory.batchWrappers()) {
+            add(SafeEncoder.encode(wrapper.sha1), SafeEncoder.encode(wrapper.script), wrapper.name);
+        }
+    }
+
+    private ScriptInfo add(String sha1, String script, String name) {
+        final ScriptInfo info = scripts.computeIfAbsent(sha1, sha -> new ScriptInfo(sha, script));
+        info.addName(name);
+        return info;
+    }
+}
@@ -0,0 +1,35 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.CommandArguments;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A connection to redis that the handles of a multiplexed RDBI share, see
+ * {@link RDBI.Builder#transport(TransportFactory, int, java.time.Duration)}. Handles keep the Jedis API, and their
+ * commands are sent through {@link #send(CommandArguments)} by many threads at once.
+ * <p>
+ * Implementations must be thread safe, and must not block the sender on the reply.
+ *
+ * @see NioTransport
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Send a command, right away or soon after, without waiting for its reply. Commands must be sent (and so
+     * answered) in the order this method is called in.
+     * @return the reply as jedis reads it: {@code byte[]} for bulk and simple strings, {@code Long}, {@code List} or
+     * null. An error reply completes it with a {@link redis.clients.jedis.exceptions.JedisDataException}, a lost
+     * connection with a {@link redis.clients.jedis.exceptions.JedisConnectionException}.
+     */
+    CompletableFuture<Object> send(CommandArguments command);
+
+    /**
+     * @return true once the connection is lost; it is then closed and replaced by a new one.
+     */
+    boolean isBroken();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,13 @@
+package com.lithium.dbi.rdbi;
+
+/**
+ * Opens the connections of a multiplexed RDBI, when each is first needed and again after it breaks.
+ */
+@FunctionalInterface
+public interface TransportFactory {
+
+    /**
+     * @throws redis.clients.jedis.exceptions.JedisConnectionException if redis cannot be reached.
+     */
+    Transport connect();
+}
@@ -0,0 +1,200 @@
+package com.lithium.dbi.rdbi;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ConnectionPool;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ClusterRDBITest {
+
+    private static final String SCRIPT = "return redis.call('SMOVE', KEYS[1], KEYS[2], ARGV[1]);";
+
+    interface TubeDAO {
+        @Query("return redis.call('SMOVE', $from$, $to$, $job$);")
+        long move(@BindKey("from") String from, @BindKey("to") String to, @BindArg("job") String job);
+    }
+
+    interface KeylessDAO {
+        @Query("return redis.call('TIME');")
+        List<String> time(@BindArg("unused") String unused);
+    }
+
+    @Test
+    public void testCallRoutedByKeys() {
+        UnifiedJedis cluster = mock(UnifiedJedis.class);
+        when(cluster.evalsha(anyString(), anyList(), anyList())).thenReturn(1L);
+
+        TubeDAO dao = clusterRdbi(mock(ClusterConnectionProvider.class), cluster).onDemand(TubeDAO.class);
+        assertEquals(dao.move("{tube}:ready", "{tube}:running", "job"), 1L);
+
+        verify(cluster).evalsha(anyString(), eq(Arrays.asList("{tube}:ready", "{tube}:running")), eq(Arrays.asList("job")));
+    }
+
+    @Test
+    public void testKeysInDifferentSlotsRejected() {
+        UnifiedJedis cluster = mock(UnifiedJedis.class);
+
+        TubeDAO dao = clusterRdbi(mock(ClusterConnectionProvider.class), cluster).onDemand(TubeDAO.class);
+        try {
+            dao.move("tube:ready", "tube:running", "job");
+            fail("keys in different slots should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains(TubeDAO.class.getName() + ".move"), expected.getMessage());
+        }
+
+        verify(cluster, never()).evalsha(anyString(), anyList(), anyList());
+    }
+
+    @Test
+    public void testScriptLoadedOnNodeOfKeys() {
+        UnifiedJedis cluster = mock(UnifiedJedis.class);
+        when(cluster.evalsha(anyString(), anyList(), anyList()))
+                .thenThrow(new JedisDataException("NOSCRIPT No matching script."))
+                .thenReturn(0L);
+        when(cluster.scriptLoad(any(byte[].class), any(byte[].class)))
+                .thenReturn(SafeEncoder.encode(DigestUtils.sha1Hex(SCRIPT)));
+
+        TubeDAO dao = clusterRdbi(mock(ClusterConnectionProvider.class), cluster).onDemand(TubeDAO.class);
+        assertEquals(dao.move("{tube}:ready", "{tube}:running", "job"), 0L);
+
+        verify(cluster).scriptLoad(SafeEncoder.encode(SCRIPT), SafeEncoder.encode("{tube}:ready"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testKeylessScriptRejected() {
+        clusterRdbi(mock(ClusterConnectionProvider.class), mock(UnifiedJedis.class)).onDemand(KeylessDAO.class);
+    }
+
+    @Test
+    public void testKeylessScriptRejectedBeforeLoading() {
+        ConnectionPool node = mock(ConnectionPool.class);
+        ClusterConnectionProvider provider = mock(ClusterConnectionProvider.class);
+        when(provider.getNodes()).thenReturn(Collections.singletonMap("node:6379", node));
+
+        try {
+            clusterRdbi(provider, mock(UnifiedJedis.class)).register(TubeDAO.class, KeylessDAO.class);
+            fail("a keyless script cannot be routed");
+        } catch (IllegalArgumentException expected) {
+        }
+        verify(node, never()).getResource();
+    }
+
+    @Test
+    public void testPipelineSplitPerNode() {
+        HostAndPort first = new HostAndPort("first", 6379);
+        HostAndPort second = new HostAndPort("second", 6379);
+        Connection firstConnection = mock(Connection.class);
+        Connection secondConnection = mock(Connection.class);
+        when(firstConnection.getMany(2)).thenReturn(Arrays.asList(1L, 2L));
+        when(secondConnection.getMany(1)).thenReturn(Arrays.asList(3L));
+
+        ClusterConnectionProvider provider = mock(ClusterConnectionProvider.class);
+        int slot = JedisClusterCRC16.getSlot("a");
+        when(provider.getNode(anyInt())).thenAnswer(invocation -> invocation.getArgument(0).equals(slot) ? first : second);
+        when(provider.getConnection(first)).thenReturn(firstConnection);
+        when(provider.getConnection(second)).thenReturn(secondConnection);
+
+        PipelinedHandle pipeline = clusterRdbi(provider, mock(UnifiedJedis.class)).pipelined();
+        TubeDAO dao = pipeline.attach(TubeDAO.class);
+        PipelinedResponse<Long> a = pipeline.response(dao.move("{a}:ready", "{a}:running", "job"));
+        PipelinedResponse<Long> b = pipeline.response(dao.move("{b}:ready", "{b}:running", "job"));
+        PipelinedResponse<Long> otherA = pipeline.response(dao.move("{a}:ready", "{a}:done", "job"));
+        pipeline.sync();
+
+        assertEquals(a.get().longValue(), 1L);
+        assertEquals(otherA.get().longValue(), 2L);
+        assertEquals(b.get().longValue(), 3L);
+        verify(firstConnection).close();
+        verify(secondConnection).close();
+    }
+
+    @Test
+    public void testBrokenNodeOnlyFailsItsCalls() {
+        HostAndPort first = new HostAndPort("first", 6379);
+        HostAndPort second = new HostAndPort("second", 6379);
+        Connection firstConnection = mock(Connection.class);
+        Connection secondConnection = mock(Connection.class);
+        when(firstConnection.getMany(1)).thenThrow(new JedisConnectionException("Unexpected end of stream."));
+        when(secondConnection.getMany(1)).thenReturn(Arrays.asList(3L));
+
+        ClusterConnectionProvider provider = mock(ClusterConnectionProvider.class);
+        int slot = JedisClusterCRC16.getSlot("a");
+        when(provider.getNode(anyInt())).thenAnswer(invocation -> invocation.getArgument(0).equals(slot) ? first : second);
+        when(provider.getConnection(first)).thenReturn(firstConnection);
+        when(provider.getConnection(second)).thenReturn(secondConnection);
+
+        PipelinedHandle pipeline = clusterRdbi(provider, mock(UnifiedJedis.class)).pipelined();
+        TubeDAO dao = pipeline.attach(TubeDAO.class);
+        PipelinedResponse<Long> a = pipeline.response(dao.move("{a}:ready", "{a}:running", "job"));
+        PipelinedResponse<Long> b = pipeline.response(dao.move("{b}:ready", "{b}:running", "job"));
+        try {
+            pipeline.sync();
+            fail("Should have failed on the broken node");
+        } catch (JedisConnectionException expected) {
+        }
+
+        assertEquals(b.get().longValue(), 3L);
+        try {
+            a.get();
+            fail("Should have failed with its node");
+        } catch (JedisConnectionException expected) {
+        }
+        verify(firstConnection).close();
+        verify(secondConnection).close();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPipelinedKeysInDifferentSlotsRejected() {
+        PipelinedHandle pipeline = clusterRdbi(mock(ClusterConnectionProvider.class), mock(UnifiedJedis.class)).pipelined();
+        pipeline.attach(TubeDAO.class).move("{a}:ready", "{b}:running", "job");
+    }
+
+    @Test
+    public void testCloseShutsDownOwnExecutorOnly() {
+        ClusterRDBI owning = new ClusterRDBI(mock(ClusterConnectionProvider.class), mock(UnifiedJedis.class), null);
+        owning.close();
+        owning.close();
+        assertTrue(owning.asyncExecutor().isShutdown());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ClusterRDBI borrowing = new ClusterRDBI(mock(ClusterConnectionProvider.class), mock(UnifiedJedis.class), executor);
+            borrowing.close();
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static ClusterRDBI clusterRdbi(ClusterConnectionProvider provider, UnifiedJedis cluster) {
+        return new ClusterRDBI(provider, cluster, ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,115 @@
+package com.lithium.dbi.rdbi;
+
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.args.Rawable;
+import redis.clients.jedis.resps.Tuple;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+public class HandleScanTest {
+
+    @Test
+    public void testScanFetchesBatchesLazily() {
+        Connection connection = mock(Connection.class);
+        when(connection.getOne()).thenReturn(batch("17", "a", "b"), batch("0", "c"));
+        Handle handle = handle(connection);
+
+        Stream<String> keys = handle.scan(ScanOptions.match("job:*").count(2));
+        verify(connection, never()).sendCommand(any(CommandArguments.class));
+
+        assertEquals(keys.collect(Collectors.toList()), Arrays.asList("a", "b", "c"));
+        assertEquals(sent(connection, 2), Arrays.asList(Arrays.asList("SCAN", "0", "MATCH", "job:*", "COUNT", "2"),
+                                                        Arrays.asList("SCAN", "17", "MATCH", "job:*", "COUNT", "2")));
+    }
+
+    @Test
+    public void testReadAheadRequestsNextBatchEarly() {
+        Connection connection = mock(Connection.class);
+        when(connection.getOne()).thenReturn(batch("17", "a"), batch("0", "b"));
+        Handle handle = handle(connection);
+
+        try (Stream<String> keys = handle.scan(ScanOptions.all().readAhead())) {
+            assertEquals(keys.iterator().next(), "a");
+            // the second batch was asked for (and flushed) before the first one was used up
+            assertEquals(sent(connection, 2).get(1), Arrays.asList("SCAN", "17"));
+            verify(connection).getMany(0);
+        }
+
+        // closing reads the batch nobody used
+        verify(connection, times(2)).getOne();
+    }
+
+    @Test
+    public void testHandleCloseDrainsReadAhead() {
+        Connection connection = mock(Connection.class);
+        when(connection.getOne()).thenReturn(batch("17", "a"), batch("0", "b"));
+        Handle handle = handle(connection);
+
+        handle.scan(ScanOptions.all().readAhead()).iterator().next();
+        handle.close();
+
+        verify(connection, times(2)).getOne();
+    }
+
+    @Test
+    public void testHashAndSortedSetScans() {
+        Connection connection = mock(Connection.class);
+        when(connection.getOne()).thenReturn(batch("0", "f1", "v1", "f2", "v2"), batch("0", "m", "1.5"));
+        Handle handle = handle(connection);
+
+        List<Map.Entry<String, String>> fields = handle.hscan("hash", ScanOptions.all()).collect(Collectors.toList());
+        assertEquals(fields, Arrays.asList(new AbstractMap.SimpleImmutableEntry<>("f1", "v1"),
+                                           new AbstractMap.SimpleImmutableEntry<>("f2", "v2")));
+        List<Tuple> members = handle.zscan("zset", ScanOptions.all()).collect(Collectors.toList());
+        assertEquals(members, Arrays.asList(new Tuple("m", 1.5)));
+        assertEquals(sent(connection, 2), Arrays.asList(Arrays.asList("HSCAN", "hash", "0"),
+                                                        Arrays.asList("ZSCAN", "zset", "0")));
+    }
+
+    private static Handle handle(Connection connection) {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.getConnection()).thenReturn(connection);
+        return new Handle(jedis, new ProxyFactory(), Instrumentation.NONE, null);
+    }
+
+    private static List<Object> batch(String cursor, String... elements) {
+        List<Object> values = new ArrayList<>();
+        for (String element : elements) {
+            values.add(SafeEncoder.encode(element));
+        }
+        return Arrays.asList(SafeEncoder.encode(cursor), values);
+    }
+
+    private static List<List<String>> sent(Connection connection, int count) {
+        ArgumentCaptor<CommandArguments> commands = ArgumentCaptor.forClass(CommandArguments.class);
+        verify(connection, times(count)).sendCommand(commands.capture());
+        List<List<String>> sent = new ArrayList<>();
+        for (CommandArguments command : commands.getAllValues()) {
+            List<String> args = new ArrayList<>();
+            for (Rawable arg : command) {
+                args.add(SafeEncoder.encode(arg.getRaw()));
+            }
+            sent.add(args);
+        }
+        return sent;
+    }
+}
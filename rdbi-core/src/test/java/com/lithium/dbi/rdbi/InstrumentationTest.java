@@ -0,0 +1,125 @@
+package com.lithium.dbi.rdbi;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class InstrumentationTest {
+
+    @Test
+    public void testNoInstrumentationHandsOutConnection() {
+        Jedis jedis = mock(Jedis.class);
+
+        RDBI rdbi = RDBI.builder(pool(jedis)).instrumentation(Instrumentation.NONE).build();
+        try (Handle handle = rdbi.open()) {
+            assertSame(handle.jedis(), jedis);
+        }
+    }
+
+    @Test
+    public void testMetricsRecordedPerCommand() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.get("a")).thenReturn("b");
+        when(jedis.incr("a")).thenThrow(new JedisDataException("ERR value is not an integer"));
+        CommandMetrics metrics = new CommandMetrics();
+
+        RDBI rdbi = RDBI.builder(pool(jedis)).instrumentation(metrics).build();
+        try (Handle handle = rdbi.open()) {
+            assertEquals(handle.jedis().get("a"), "b");
+            assertEquals(handle.jedis().get("a"), "b");
+            try {
+                handle.jedis().incr("a");
+                fail("the error should be rethrown");
+            } catch (JedisDataException expected) {
+                // recorded as an error
+            }
+        }
+
+        assertEquals(metrics.getLatencies().get("get").getCount(), 2);
+        assertEquals(metrics.getLatencies().get("incr").getCount(), 1);
+        assertEquals(metrics.getErrorCount("get"), 0);
+        assertEquals(metrics.getErrorCount("incr"), 1);
+    }
+
+    @Test
+    public void testNothingStartedWhenDisabled() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.get("a")).thenReturn("b");
+        List<String> started = new ArrayList<>();
+        Instrumentation onlySet = new Instrumentation() {
+            @Override
+            public boolean isEnabled(String command) {
+                return command.equals("set");
+            }
+
+            @Override
+            public Object onStart(String command, Object[] args) {
+                started.add(command);
+                return null;
+            }
+
+            @Override
+            public void onEnd(String command, Object context, long durationNanos, Throwable error) {
+            }
+        };
+
+        CommandMetrics metrics = new CommandMetrics();
+        RDBI rdbi = RDBI.builder(pool(jedis)).instrumentation(Instrumentation.both(onlySet, metrics)).build();
+        try (Handle handle = rdbi.open()) {
+            handle.jedis().get("a");
+            handle.jedis().set("a", "b");
+        }
+
+        assertEquals(started.size(), 1);
+        assertEquals(started.get(0), "set");
+        assertEquals(metrics.getLatencies().get("get").getCount(), 1);
+        assertEquals(metrics.getLatencies().get("set").getCount(), 1);
+    }
+
+    @Test
+    public void testSampledOutBeforeSpanCreation() {
+        OpenTelemetryInstrumentation never = new OpenTelemetryInstrumentation(GlobalOpenTelemetry.get().getTracer(RDBI.TRACER_NAME), 0);
+        OpenTelemetryInstrumentation always = new OpenTelemetryInstrumentation(GlobalOpenTelemetry.get().getTracer(RDBI.TRACER_NAME));
+
+        assertFalse(never.isEnabled("get"));
+        assertTrue(always.isEnabled("get"));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);          // 1us
+        histogram.record(3_000);        // 3us, counted up to 4us
+        histogram.record(1_000_000);    // 1ms, counted up to 1024us
+        histogram.record(Long.MAX_VALUE);
+
+        long[] counts = histogram.getBucketCounts();
+        assertEquals(counts[0], 1);
+        assertEquals(counts[2], 1);
+        assertEquals(counts[10], 1);
+        assertEquals(counts[LatencyHistogram.BUCKETS - 1], 1);
+        assertEquals(histogram.getCount(), 4);
+        assertEquals(histogram.percentileMicros(50), 4);
+        assertEquals(histogram.percentileMicros(75), 1024);
+        assertEquals(histogram.percentileMicros(100), Long.MAX_VALUE);
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
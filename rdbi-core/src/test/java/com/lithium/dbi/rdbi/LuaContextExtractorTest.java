@@ -2,7 +2,11 @@ package com.lithium.dbi.rdbi;
 
 import org.testng.annotations.Test;
 
+import java.util.List;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class LuaContextExtractorTest {
 
@@ -14,6 +18,11 @@ public class LuaContextExtractorTest {
         public void abba(@BindArg("a") String a, String b);
     }
 
+    public static interface GroupDao {
+        public void multi(@BindKey("keys") List<String> keys, @BindArg("a") String a, @BindKey("more") List<String> more,
+                          @BindKey("k") String k, @BindArg("args") List<Long> args);
+    }
+
     @Test
     public void testBasicRender() throws NoSuchMethodException {
         assertEquals(
@@ -28,4 +37,21 @@ public class LuaContextExtractorTest {
         new LuaContextExtractor().render("doesn't matter", MissingOneBindDao.class.getDeclaredMethod("abba", String.class, String.class));
     }
 
+    @Test
+    public void testCollectionsExpandAfterScalars() throws NoSuchMethodException {
+        LuaContext context = new LuaContextExtractor()
+                .render("$a$ $k$ | $keys.offset$ $keys.count$ | $more.offset$ $more.count$ | $args.offset$ $args.count$ | $keys$",
+                        GroupDao.class.getDeclaredMethod("multi", List.class, String.class, List.class, String.class, List.class));
+
+        // scalars keep fixed positions, the group counts follow the scalar args
+        assertEquals(context.getRenderedLuaString(),
+                     "ARGV[1] KEYS[1]" +
+                     " | 1 tonumber(ARGV[2])" +
+                     " | (1 + tonumber(ARGV[2])) tonumber(ARGV[3])" +
+                     " | 4 tonumber(ARGV[4])" +
+                     " | unpack(KEYS, 1 + 1, 1 + tonumber(ARGV[2]))");
+        assertTrue(context.isGroup(0));
+        assertTrue(context.isKey(2));
+        assertFalse(context.isGroup(3));
+    }
 }
@@ -0,0 +1,179 @@
+package com.lithium.dbi.rdbi;
+
+import org.mockito.ArgumentMatchers;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.lithium.dbi.rdbi.Responses.response;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class PipelinedHandleTest {
+
+    interface DynamicDAO {
+        @Query(
+                "redis.call('SET', $a$, $b$); return 0;"
+        )
+        int testExec(@BindKey("a") String a, @BindArg("b") String b);
+    }
+
+    static class StringResultMapper implements ResultMapper<String, Long> {
+        @Override
+        public String map(Long result) {
+            return "mapped-" + result;
+        }
+    }
+
+    interface MappedDAO {
+        @Query("return 1;")
+        @Mapper(StringResultMapper.class)
+        String mapped();
+    }
+
+    @Test
+    public void testCallsAreQueuedUntilSync() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.evalsha(anyString(), anyList(), anyList())).thenReturn(response(1L), response(2L));
+
+        PipelinedHandle pipelined = new RDBI(pool(jedis)).open().pipelined();
+        DynamicDAO dao = pipelined.attach(DynamicDAO.class);
+
+        assertEquals(dao.testExec("a", "b"), 0);
+        PipelinedResponse<Integer> first = pipelined.response(dao.testExec("c", "d"));
+        verify(jedis, times(0)).evalsha(anyString(), anyList(), anyList());
+
+        List<Object> results = pipelined.syncAndReturnAll();
+
+        verify(pipeline).evalsha("my-sha1-hash", Arrays.asList("a"), Arrays.asList("b"));
+        verify(pipeline).evalsha("my-sha1-hash", Arrays.asList("c"), Arrays.asList("d"));
+        verify(pipeline, times(1)).sync();
+        assertEquals(results, Arrays.asList(1L, 2L));
+        assertEquals(first.get(), (Object) 2L);
+    }
+
+    @Test
+    public void testMapperAppliedOnSync() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.pipelined()).thenReturn(pipeline);
+        // no bindings, so keys and argv are null
+        when(pipeline.evalsha(anyString(), ArgumentMatchers.<List<String>>any(), ArgumentMatchers.<List<String>>any()))
+                .thenReturn(response(1L));
+
+        PipelinedHandle pipelined = new RDBI(pool(jedis)).open().pipelined();
+        PipelinedResponse<String> mapped = pipelined.response(pipelined.attach(MappedDAO.class).mapped());
+        pipelined.sync();
+
+        assertEquals(mapped.get(), "mapped-1");
+    }
+
+    @Test
+    public void testNoScriptReloadedForWholeBatch() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.evalsha(anyString(), anyList(), anyList()))
+                .thenReturn(response(new JedisDataException("NOSCRIPT No matching script.")),
+                            response(new JedisDataException("NOSCRIPT No matching script.")),
+                            response(0L),
+                            response(0L));
+        when(pipeline.sendCommand(eq(Protocol.Command.SCRIPT), eq("LOAD"), anyString()))
+                .thenReturn(response(SafeEncoder.encode("my-sha1-hash")));
+
+        PipelinedHandle pipelined = new RDBI(pool(jedis)).open().pipelined();
+        DynamicDAO dao = pipelined.attach(DynamicDAO.class);
+        PipelinedResponse<Integer> first = pipelined.response(dao.testExec("a", "b"));
+        PipelinedResponse<Integer> second = pipelined.response(dao.testExec("c", "d"));
+        pipelined.sync();
+
+        // one script load for both calls, in a single extra round trip
+        verify(pipeline, times(1)).sendCommand(eq(Protocol.Command.SCRIPT), eq("LOAD"), anyString());
+        verify(pipeline, times(2)).sync();
+        assertEquals(first.get(), (Object) 0L);
+        assertEquals(second.get(), (Object) 0L);
+    }
+
+    @Test(expectedExceptions = JedisDataException.class)
+    public void testErrorSurfacesOnResponse() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.evalsha(anyString(), anyList(), anyList()))
+                .thenReturn(response(new JedisDataException("ERR something went wrong")));
+
+        PipelinedHandle pipelined = new RDBI(pool(jedis)).open().pipelined();
+        PipelinedResponse<Integer> failed = pipelined.response(pipelined.attach(DynamicDAO.class).testExec("a", "b"));
+        pipelined.sync();
+
+        assertTrue(failed.isSet());
+        failed.get();
+    }
+
+    @Test
+    public void testBrokenSyncFailsResponses() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.pipelined()).thenReturn(pipeline);
+        JedisConnectionException broken = new JedisConnectionException("Unexpected end of stream.");
+        doThrow(broken).when(pipeline).sync();
+
+        PipelinedHandle pipelined = new RDBI(pool(jedis)).open().pipelined();
+        PipelinedResponse<Integer> pending = pipelined.response(pipelined.attach(DynamicDAO.class).testExec("a", "b"));
+        try {
+            pipelined.sync();
+            fail("Should have failed on the broken connection");
+        } catch (JedisConnectionException e) {
+            assertSame(e, broken);
+        }
+
+        assertTrue(pending.isSet());
+        try {
+            pending.get();
+            fail("Should have failed with the sync");
+        } catch (JedisConnectionException e) {
+            assertSame(e, broken);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testResponseNotAvailableBeforeSync() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+
+        PipelinedHandle pipelined = new RDBI(pool(jedis)).open().pipelined();
+        PipelinedResponse<Integer> pending = pipelined.response(pipelined.attach(DynamicDAO.class).testExec("a", "b"));
+        pending.get();
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
@@ -0,0 +1,77 @@
+package com.lithium.dbi.rdbi;
+
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class ProxyFactoryTest {
+
+    interface TwoMethodDAO {
+        @Query("return redis.call('GET', $key$);")
+        String get(@BindKey("key") String key);
+
+        @Query("return redis.call('SET', $key$, $value$, 'EX', $ttl$);")
+        String set(@BindKey("key") String key, @BindArg("value") String value, @BindArg("ttl") int ttl);
+    }
+
+    interface MultiKeyDAO {
+        @Query("for i = 1, $keys.count$ do redis.call('SET', KEYS[$keys.offset$ + i], ARGV[$values.offset$ + i], 'EX', $ttl$) end")
+        void setAll(@BindKey("keys") List<String> keys, @BindArg("values") List<String> values, @BindArg("ttl") int ttl);
+    }
+
+    @Test
+    public void testEachMethodBoundToItsOwnContext() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad("return redis.call('GET', KEYS[1]);")).thenReturn("get-sha");
+        when(jedis.scriptLoad("return redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2]);")).thenReturn("set-sha");
+        when(jedis.evalsha(eq("get-sha"), anyList(), anyList())).thenReturn("value");
+        when(jedis.evalsha(eq("set-sha"), anyList(), anyList())).thenReturn("OK");
+
+        TwoMethodDAO dao = new ProxyFactory().createInstance(jedis, TwoMethodDAO.class);
+
+        assertEquals(dao.get("a"), "value");
+        assertEquals(dao.set("a", "b", 10), "OK");
+        verify(jedis).evalsha("get-sha", Collections.singletonList("a"), Collections.emptyList());
+        verify(jedis).evalsha("set-sha", Collections.singletonList("a"), Arrays.asList("b", "10"));
+    }
+
+    @Test
+    public void testProxiesShareClassButNotConnection() {
+        Jedis first = mock(Jedis.class);
+        Jedis second = mock(Jedis.class);
+        when(first.scriptLoad(anyString())).thenReturn("sha");
+        when(first.evalsha(eq("sha"), anyList(), anyList())).thenReturn("first");
+        when(second.evalsha(eq("sha"), anyList(), anyList())).thenReturn("second");
+
+        ProxyFactory proxyFactory = new ProxyFactory();
+        TwoMethodDAO firstDAO = proxyFactory.createInstance(first, TwoMethodDAO.class);
+        TwoMethodDAO secondDAO = proxyFactory.createInstance(second, TwoMethodDAO.class);
+
+        assertSame(firstDAO.getClass(), secondDAO.getClass());
+        assertEquals(firstDAO.get("a"), "first");
+        assertEquals(secondDAO.get("a"), "second");
+    }
+
+    @Test
+    public void testCollectionBindingsExpand() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad("for i = 1, tonumber(ARGV[2]) do " +
+                              "redis.call('SET', KEYS[0 + i], ARGV[3 + i], 'EX', ARGV[1]) end")).thenReturn("multi-sha");
+
+        new ProxyFactory().createInstance(jedis, MultiKeyDAO.class).setAll(Arrays.asList("a", "b"), Arrays.asList("x", "y"), 60);
+
+        verify(jedis).evalsha("multi-sha", Arrays.asList("a", "b"), Arrays.asList("60", "2", "2", "x", "y"));
+    }
+}
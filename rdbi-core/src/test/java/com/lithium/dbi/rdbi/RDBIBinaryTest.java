@@ -0,0 +1,121 @@
+package com.lithium.dbi.rdbi;
+
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.lithium.dbi.rdbi.Responses.response;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+public class RDBIBinaryTest {
+
+    interface BinaryDAO {
+        @Query("redis.call('SET', $key$, $value$, 'EX', $ttl$); return redis.call('GET', $key$);")
+        byte[] set(@BindKey("key") byte[] key, @BindArg("value") ByteBuffer value, @BindArg("ttl") long ttl);
+
+        @Query("return redis.call('GET', $key$);")
+        long getLong(@BindKey("key") byte[] key);
+
+        @Query("return redis.call('GET', $key$);")
+        String getString(@BindKey("key") byte[] key);
+
+        @Query("return redis.call('GET', $key$);")
+        ByteBuffer get(@BindKey("key") String key);
+    }
+
+    @Test
+    public void testArgumentsEncodedWithoutStrings() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(bytes("stored"));
+
+        byte[] key = {0, (byte) 0xff, 1};
+        ByteBuffer value = ByteBuffer.wrap(new byte[]{9, 8, 7, 6});
+        value.position(1);
+
+        try (Handle handle = new RDBI(pool(jedis)).open()) {
+            assertEquals(handle.attach(BinaryDAO.class).set(key, value, -1234L), bytes("stored"));
+        }
+
+        ArgumentCaptor<List<byte[]>> keys = listCaptor();
+        ArgumentCaptor<List<byte[]>> argv = listCaptor();
+        verify(jedis).evalsha(any(byte[].class), keys.capture(), argv.capture());
+        verify(jedis, never()).evalsha(anyString(), anyList(), anyList());
+
+        assertEquals(keys.getValue().size(), 1);
+        assertEquals(keys.getValue().get(0), key);
+        assertEquals(argv.getValue().size(), 2);
+        assertEquals(argv.getValue().get(0), new byte[]{8, 7, 6});
+        assertEquals(argv.getValue().get(1), bytes("-1234"));
+        // the caller's buffer is not consumed
+        assertEquals(value.position(), 1);
+    }
+
+    @Test
+    public void testResultsDecodedToReturnType() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(bytes("-42"));
+
+        try (Handle handle = new RDBI(pool(jedis)).open()) {
+            BinaryDAO dao = handle.attach(BinaryDAO.class);
+            assertEquals(dao.getLong(bytes("a")), -42L);
+            assertEquals(dao.getString(bytes("a")), "-42");
+            assertEquals(dao.get("a"), ByteBuffer.wrap(bytes("-42")));
+        }
+    }
+
+    @Test
+    public void testPipelinedBinaryCall() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(response(bytes("7")));
+
+        PipelinedHandle pipelined = new RDBI(pool(jedis)).open().pipelined();
+        PipelinedResponse<Long> result = pipelined.response(pipelined.attach(BinaryDAO.class).getLong(bytes("a")));
+        pipelined.sync();
+
+        assertEquals(result.get(), (Long) 7L);
+        verify(pipeline, never()).evalsha(anyString(), anyList(), anyList());
+    }
+
+    @Test
+    public void testLongEncoding() {
+        for (long value : Arrays.asList(0L, 7L, -7L, 10L, 1234567890L, Long.MAX_VALUE, Long.MIN_VALUE)) {
+            byte[] encoded = ArgumentEncoder.encodeLong(value);
+            assertEquals(SafeEncoder.encode(encoded), Long.toString(value));
+            assertEquals(MethodContext.decodeLong(encoded), value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<byte[]>> listCaptor() {
+        return ArgumentCaptor.forClass((Class<List<byte[]>>) (Class<?>) List.class);
+    }
+
+    private static byte[] bytes(String value) {
+        return SafeEncoder.encode(value);
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
@@ -0,0 +1,207 @@
+package com.lithium.dbi.rdbi;
+
+import org.testng.annotations.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RDBIBulkheadTest {
+
+    @Test
+    public void testFullBulkheadRejects() throws Exception {
+        RDBI rdbi = RDBI.builder(mock(JedisPool.class))
+                        .instrumentation(Instrumentation.NONE)
+                        .bulkhead("presence", 1, Duration.ZERO)
+                        .build();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = executor.submit(() -> rdbi.inBulkhead("presence", () -> {
+                running.countDown();
+                await(release);
+                return "done";
+            }));
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+
+            try {
+                rdbi.inBulkhead("presence", () -> "rejected");
+                fail("the bulkhead is full");
+            } catch (BulkheadRejectedException e) {
+                assertEquals(e.getBulkhead(), "presence");
+                assertFalse(e.isCircuitOpen());
+            }
+            assertEquals(rdbi.getBulkhead("presence").getInFlight(), 1);
+
+            release.countDown();
+            assertEquals(first.get(5, TimeUnit.SECONDS), "done");
+            // nested in the same bulkhead on one thread, takes no more room
+            assertEquals(rdbi.inBulkhead("presence", () -> rdbi.inBulkhead("presence", () -> "nested")), "nested");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Bulkhead bulkhead = rdbi.getBulkhead("presence");
+        assertEquals(bulkhead.getCallCount(), 2L);
+        assertEquals(bulkhead.getRejectedCount(), 1L);
+        assertEquals(bulkhead.getInFlight(), 0);
+    }
+
+    @Test
+    public void testCircuitOpensOnRedisFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, Duration.ofSeconds(1), 4, Duration.ofMinutes(1), Duration.ofMillis(50));
+        RDBI rdbi = RDBI.builder(mock(JedisPool.class))
+                        .instrumentation(Instrumentation.NONE)
+                        .bulkhead("cache", 10, Duration.ZERO, breaker)
+                        .build();
+
+        // errors of the operation itself are not held against redis
+        for (int i = 0; i < 4; i++) {
+            try {
+                rdbi.inBulkhead("cache", () -> {
+                    throw new IllegalStateException("bad input");
+                });
+            } catch (IllegalStateException expected) {
+            }
+        }
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                rdbi.inBulkhead("cache", () -> {
+                    throw new RuntimeException(new JedisConnectionException("connection refused"));
+                });
+            } catch (RuntimeException expected) {
+            }
+        }
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        try {
+            rdbi.inBulkhead("cache", () -> "short circuited");
+            fail("the circuit is open");
+        } catch (BulkheadRejectedException e) {
+            assertTrue(e.isCircuitOpen());
+        }
+        assertEquals(rdbi.getBulkhead("cache").getShortCircuitedCount(), 1L);
+
+        Thread.sleep(60);
+        assertEquals(rdbi.inBulkhead("cache", () -> "trial"), "trial");
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void testCircuitOpensOnSlowCalls() {
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofMillis(100), 10, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        long fast = TimeUnit.MILLISECONDS.toNanos(1);
+        long slow = TimeUnit.MILLISECONDS.toNanos(200);
+
+        for (int i = 0; i < 99; i++) {
+            assertEquals(breaker.tryAcquire(), CircuitBreaker.Permit.CALL);
+            breaker.onResult(CircuitBreaker.Permit.CALL, fast, false);
+        }
+        breaker.onResult(CircuitBreaker.Permit.CALL, slow, false);
+        // one slow call in a hundred, the 99th percentile is still fast
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+
+        breaker.onResult(CircuitBreaker.Permit.CALL, slow, false);
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.Permit.REJECTED);
+    }
+
+    @Test
+    public void testHalfOpenLetsOneTrialThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, Duration.ofSeconds(1), 1, Duration.ofMinutes(1), Duration.ofMillis(20));
+        // let through while closed, finishes only once the breaker is half open
+        CircuitBreaker.Permit stale = breaker.tryAcquire();
+        assertEquals(stale, CircuitBreaker.Permit.CALL);
+        breaker.onResult(CircuitBreaker.Permit.CALL, 0, true);
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+
+        Thread.sleep(30);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.Permit.TRIAL);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.Permit.REJECTED);
+
+        // the stale call neither decides the trial nor makes room for another
+        breaker.onResult(stale, 0, false);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.Permit.REJECTED);
+
+        // the trial failed
+        breaker.onResult(CircuitBreaker.Permit.TRIAL, 0, true);
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.Permit.REJECTED);
+    }
+
+    @Test
+    public void testOpenCircuitRejectsWithoutWaitingForRoom() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, Duration.ofSeconds(1), 1, Duration.ofMinutes(1), Duration.ofMillis(50));
+        RDBI rdbi = RDBI.builder(mock(JedisPool.class))
+                        .instrumentation(Instrumentation.NONE)
+                        .bulkhead("cache", 1, Duration.ofSeconds(1), breaker)
+                        .build();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // takes the only room while the circuit is still closed
+            Future<String> holder = executor.submit(() -> rdbi.inBulkhead("cache", () -> {
+                running.countDown();
+                await(release);
+                return "held";
+            }));
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            breaker.onResult(CircuitBreaker.Permit.CALL, 0, true);
+            assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+
+            long start = System.nanoTime();
+            try {
+                rdbi.inBulkhead("cache", () -> "short circuited");
+                fail("the circuit is open");
+            } catch (BulkheadRejectedException e) {
+                assertTrue(e.isCircuitOpen());
+            }
+            // rather than after the second of maxWait
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+
+            Thread.sleep(60);
+            try {
+                rdbi.inBulkhead("cache", () -> "trial");
+                fail("the bulkhead is full");
+            } catch (BulkheadRejectedException e) {
+                assertFalse(e.isCircuitOpen());
+            }
+            // the trial was given back, for the next call to make
+            assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+            assertEquals(breaker.tryAcquire(), CircuitBreaker.Permit.TRIAL);
+
+            release.countDown();
+            assertEquals(holder.get(5, TimeUnit.SECONDS), "held");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Bulkhead bulkhead = rdbi.getBulkhead("cache");
+        assertEquals(bulkhead.getShortCircuitedCount(), 1L);
+        assertEquals(bulkhead.getRejectedCount(), 1L);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.lithium.dbi.rdbi;
+
+import org.testng.annotations.Test;
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.lithium.dbi.rdbi.Responses.response;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RDBICoalescingTest {
+
+    interface CounterDAO {
+        @Query("return redis.call('INCR', $key$);")
+        long incr(@BindKey("key") String key);
+
+        @Query("return redis.call('INCR', $key$);")
+        CompletableFuture<Long> incrAsync(@BindKey("key") String key);
+    }
+
+    @Test
+    public void testCallsShareOneBatch() throws Exception {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("sha");
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.evalsha(anyString(), anyList(), anyList()))
+                .thenReturn(response(1L), response(new JedisDataException("ERR value is not an integer")));
+        Response<String> value = new Response<>(BuilderFactory.STRING);
+        value.set(SafeEncoder.encode("value"));
+        when(pipeline.get("c")).thenReturn(value);
+        JedisPool pool = pool(jedis);
+
+        RDBI rdbi = RDBI.builder(pool)
+                        .instrumentation(Instrumentation.NONE)
+                        .coalescing(Duration.ofSeconds(10), 3, 100)
+                        .build();
+        CounterDAO dao = rdbi.coalesced(CounterDAO.class);
+        CompletableFuture<Long> first = dao.incrAsync("a");
+        CompletableFuture<Long> second = dao.incrAsync("b");
+        // the third call fills the batch, which is sent without waiting for the window
+        assertEquals(rdbi.coalesce(p -> p.get("c")).get(5, TimeUnit.SECONDS), "value");
+
+        assertEquals(first.get(), (Long) 1L);
+        try {
+            second.get();
+            fail("Should have failed the second call");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JedisDataException);
+        }
+        verify(pipeline, times(1)).sync();
+        // one connection to attach the DAO, one for the batch
+        verify(pool, times(2)).getResource();
+
+        CoalescingMetrics metrics = rdbi.getCoalescingMetrics();
+        assertEquals(metrics.getBatchCount(), 1);
+        assertEquals(metrics.getCallCount(), 3);
+        assertEquals(metrics.getLargestBatch(), 3);
+        assertEquals(metrics.getQueued().getCount(), 3);
+    }
+
+    @Test
+    public void testWindowSendsPartialBatch() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("sha");
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.evalsha("sha", Arrays.asList("a"), Arrays.asList())).thenReturn(response(7L));
+
+        RDBI rdbi = RDBI.builder(pool(jedis))
+                        .instrumentation(Instrumentation.NONE)
+                        .coalescing(Duration.ofMillis(5), 100, 100)
+                        .build();
+
+        assertEquals(rdbi.coalesced(CounterDAO.class).incr("a"), 7L);
+        assertEquals(rdbi.getCoalescingMetrics().getAverageBatchSize(), 1.0);
+    }
+
+    @Test
+    public void testFullQueueRejectsCalls() throws Exception {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.get(anyString())).thenAnswer(invocation -> new Response<>(BuilderFactory.STRING));
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await();
+            return null;
+        }).when(pipeline).sync();
+
+        RDBI rdbi = RDBI.builder(pool(jedis))
+                        .instrumentation(Instrumentation.NONE)
+                        .coalescing(Duration.ZERO, 1, 1)
+                        .build();
+        rdbi.coalesce(p -> p.get("a"));
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        rdbi.coalesce(p -> p.get("b"));
+        CompletableFuture<String> rejected = rdbi.coalesce(p -> p.get("c"));
+        release.countDown();
+
+        try {
+            rejected.get();
+            fail("Should have rejected the call");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(rdbi.getCoalescingMetrics().getRejectedCount(), 1);
+    }
+
+    @Test
+    public void testSenderOutlivesErrorsAndSlowCallbacks() throws Exception {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.get("a")).thenThrow(new AssertionError("broken"));
+        CountDownLatch attached = new CountDownLatch(1);
+        when(pipeline.get("b")).thenAnswer(invocation -> {
+            attached.await();
+            Response<String> value = new Response<>(BuilderFactory.STRING);
+            value.set(SafeEncoder.encode("value"));
+            return value;
+        });
+
+        RDBI rdbi = RDBI.builder(pool(jedis))
+                        .instrumentation(Instrumentation.NONE)
+                        .coalescing(Duration.ZERO, 1, 100)
+                        .build();
+        try {
+            rdbi.coalesce(p -> p.get("a")).get(5, TimeUnit.SECONDS);
+            fail("Should have failed the call");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> slow = rdbi.coalesce(p -> p.get("b")).thenRun(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // not sent before the callback is in place
+        attached.countDown();
+        // the next batch is sent while the callback of the previous one still runs
+        assertEquals(rdbi.coalesce(p -> p.get("b")).get(5, TimeUnit.SECONDS), "value");
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+        rdbi.close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testCoalescingIsOptIn() {
+        RDBI.builder(pool(mock(Jedis.class))).instrumentation(Instrumentation.NONE).build().coalesced(CounterDAO.class);
+    }
+
+    @Test
+    public void testCloseStopsTheSender() throws Exception {
+        RDBI rdbi = RDBI.builder(pool(mock(Jedis.class)))
+                        .instrumentation(Instrumentation.NONE)
+                        .coalescing(Duration.ofSeconds(10), 100, 100)
+                        .slowLogPolling(Duration.ofHours(1))
+                        .build();
+        // waits out the window behind the sender
+        CompletableFuture<String> queued = rdbi.coalesce(p -> p.get("a"));
+
+        rdbi.close();
+        rdbi.close();
+
+        for (CompletableFuture<String> call : Arrays.asList(queued, rdbi.coalesce(p -> p.get("b")))) {
+            try {
+                call.get(5, TimeUnit.SECONDS);
+                fail("Should have failed the call");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        }
+        assertTrue(rdbi.asyncExecutor().isShutdown());
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
@@ -0,0 +1,110 @@
+package com.lithium.dbi.rdbi;
+
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.lithium.dbi.rdbi.Responses.response;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RDBIDaoMetricsTest {
+
+    interface MeteredDAO {
+        @Query("return redis.call('LRANGE', $key$, 0, -1);")
+        List<String> range(@BindKey("key") String key);
+
+        @Query("return redis.call('INCR', $key$);")
+        long incr(@BindKey("key") String key);
+    }
+
+    @Test
+    public void testCallsRecordedPerMethod() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad("return redis.call('LRANGE', KEYS[1], 0, -1);")).thenReturn("range-sha");
+        when(jedis.scriptLoad("return redis.call('INCR', KEYS[1]);")).thenReturn("incr-sha");
+        when(jedis.evalsha(eq("range-sha"), anyList(), anyList()))
+                .thenThrow(new JedisDataException("NOSCRIPT No matching script."))
+                .thenReturn(Arrays.asList("abc", "de"));
+        when(jedis.evalsha(eq("incr-sha"), anyList(), anyList()))
+                .thenReturn(1L)
+                .thenThrow(new JedisDataException("ERR value is not an integer"));
+
+        RDBI rdbi = new RDBI(pool(jedis));
+        try (Handle handle = rdbi.open()) {
+            MeteredDAO dao = handle.attach(MeteredDAO.class);
+            dao.range("a");
+            dao.incr("b");
+            try {
+                dao.incr("c");
+                fail("the error should be rethrown");
+            } catch (JedisDataException expected) {
+                // counted as an error
+            }
+        }
+
+        List<DaoMethodMetrics> metrics = rdbi.getDaoMetrics();
+        assertEquals(metrics.size(), 2);
+        assertTrue(metrics.get(0).getTotalNanos() >= metrics.get(1).getTotalNanos());
+
+        DaoMethodMetrics range = find(metrics, "range");
+        assertEquals(range.getName(), MeteredDAO.class.getName() + ".range");
+        assertEquals(range.getSha1(), "range-sha");
+        assertEquals(range.getCallCount(), 1);
+        assertEquals(range.getNoScriptReloadCount(), 1);
+        assertEquals(range.getReplyBytes(), 5);
+
+        DaoMethodMetrics incr = find(metrics, "incr");
+        assertEquals(incr.getCallCount(), 2);
+        assertEquals(incr.getErrorCount(), 1);
+        assertEquals(incr.getReplyBytes(), 8);
+    }
+
+    @Test
+    public void testPipelinedCallsRecorded() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("sha");
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.evalsha(anyString(), anyList(), anyList())).thenReturn(response(1L), response(2L));
+
+        RDBI rdbi = new RDBI(pool(jedis));
+        try (Handle handle = rdbi.open()) {
+            PipelinedHandle pipelined = handle.pipelined();
+            MeteredDAO dao = pipelined.attach(MeteredDAO.class);
+            dao.incr("a");
+            dao.incr("b");
+            pipelined.sync();
+        }
+
+        DaoMethodMetrics incr = find(rdbi.getDaoMetrics(), "incr");
+        assertEquals(incr.getCallCount(), 2);
+        assertEquals(incr.getReplyBytes(), 16);
+        assertEquals(find(rdbi.getDaoMetrics(), "range").getCallCount(), 0);
+    }
+
+    private static DaoMethodMetrics find(List<DaoMethodMetrics> metrics, String method) {
+        return metrics.stream()
+                      .filter(m -> m.getName().endsWith("." + method))
+                      .findFirst()
+                      .orElseThrow(() -> new AssertionError(method + " not in " + Collections.unmodifiableList(metrics)));
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
@@ -0,0 +1,207 @@
+package com.lithium.dbi.rdbi;
+
+import org.testng.annotations.Test;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.util.Pool;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RDBIDeadlineTest {
+
+    @Test
+    public void testNestedDeadlineCannotExtendOuter() {
+        RDBI rdbi = new RDBI(mock(JedisPool.class));
+        assertSame(rdbi.getDeadline(), Deadline.NONE);
+
+        rdbi.withDeadline(Duration.ofSeconds(1), () -> {
+            Deadline outer = rdbi.getDeadline();
+            assertTrue(outer.remainingMillis() <= 1000);
+            rdbi.withDeadline(Duration.ofMinutes(1), () -> {
+                assertSame(rdbi.getDeadline(), outer);
+                return null;
+            });
+            rdbi.withDeadline(Duration.ofMillis(10), () -> {
+                assertTrue(rdbi.getDeadline().remainingMillis() <= 10);
+                return null;
+            });
+            assertSame(rdbi.getDeadline(), outer);
+            return null;
+        });
+        assertSame(rdbi.getDeadline(), Deadline.NONE);
+    }
+
+    @Test
+    public void testExpiredDeadlineFailsFast() {
+        JedisPool pool = mock(JedisPool.class);
+        RDBI rdbi = new RDBI(pool);
+
+        try {
+            rdbi.withDeadline(Duration.ZERO, () -> rdbi.withHandle(handle -> handle.jedis().get("key")));
+            fail("the deadline has passed");
+        } catch (DeadlineExceededException expected) {
+        }
+        verify(pool, never()).getResource();
+    }
+
+    @Test
+    public void testSocketTimeoutLimitedUntilClose() {
+        Connection connection = mock(Connection.class);
+        when(connection.getSoTimeout()).thenReturn(2000);
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.getConnection()).thenReturn(connection);
+        AtomicLong maxWait = new AtomicLong();
+        JedisPool pool = new JedisPool(new JedisPoolConfig(), "localhost", 6379) {
+            @Override
+            public Jedis borrowObject(long borrowMaxWaitMillis) {
+                maxWait.set(borrowMaxWaitMillis);
+                return jedis;
+            }
+        };
+        RDBI rdbi = new RDBI(pool);
+
+        rdbi.withDeadline(Duration.ofMillis(500), () -> {
+            try (Handle handle = rdbi.open()) {
+                verify(connection).setSoTimeout(anyInt());
+                return null;
+            }
+        });
+
+        assertTrue(maxWait.get() > 0 && maxWait.get() <= 500, String.valueOf(maxWait.get()));
+        verify(connection).setSoTimeout(2000);
+        assertEquals(rdbi.getPoolMetrics().getHeld().getCount(), 1L);
+        pool.close();
+    }
+
+    @Test
+    public void testDistantDeadlineClampedToIntTimeout() {
+        Connection connection = mock(Connection.class);
+        // no timeout at all
+        when(connection.getSoTimeout()).thenReturn(0);
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.getConnection()).thenReturn(connection);
+        JedisPool pool = new JedisPool(new JedisPoolConfig(), "localhost", 6379) {
+            @Override
+            public Jedis borrowObject(long borrowMaxWaitMillis) {
+                return jedis;
+            }
+        };
+        RDBI rdbi = new RDBI(pool);
+
+        rdbi.withDeadline(Duration.ofDays(30), () -> {
+            try (Handle handle = rdbi.open()) {
+                verify(connection).setSoTimeout(Integer.MAX_VALUE);
+                return null;
+            }
+        });
+        pool.close();
+    }
+
+    @Test
+    public void testBorrowWaitsNoLongerThanDeadline() {
+        JedisPool pool = new JedisPool(new JedisPoolConfig(), "localhost", 6379) {
+            @Override
+            public Jedis borrowObject(long borrowMaxWaitMillis) throws InterruptedException {
+                Thread.sleep(borrowMaxWaitMillis);
+                throw new NoSuchElementException("Timeout waiting for idle object");
+            }
+        };
+        RDBI rdbi = new RDBI(pool);
+
+        try {
+            rdbi.withDeadline(Duration.ofMillis(50), rdbi::open);
+            fail("no connection was returned in time");
+        } catch (DeadlineExceededException expected) {
+        }
+        assertEquals(rdbi.getPoolMetrics().getBorrowTimeoutCount(), 1L);
+        pool.close();
+    }
+
+    @Test
+    public void testConnectionReturnedWhenNotHandedOut() {
+        Jedis jedis = new Jedis() {
+            @Override
+            protected void setDataSource(Pool<Jedis> jedisPool) {
+                throw new IllegalStateException("cannot set the pool");
+            }
+        };
+        AtomicReference<Jedis> returned = new AtomicReference<>();
+        JedisPool pool = new JedisPool(new JedisPoolConfig(), "localhost", 6379) {
+            @Override
+            public Jedis borrowObject(long borrowMaxWaitMillis) {
+                return jedis;
+            }
+
+            @Override
+            public void returnResource(Jedis resource) {
+                returned.set(resource);
+            }
+        };
+        RDBI rdbi = new RDBI(pool);
+
+        try {
+            rdbi.withDeadline(Duration.ofSeconds(1), rdbi::open);
+            fail("the connection could not be handed out");
+        } catch (RuntimeException expected) {
+        }
+        assertSame(returned.get(), jedis);
+        assertEquals(rdbi.getPoolMetrics().getBorrowFailureCount(), 1L);
+        pool.close();
+    }
+
+    @Test
+    public void testDeadlineBorrowReturnedOnClose() {
+        Connection connection = mock(Connection.class);
+        when(connection.getSoTimeout()).thenReturn(2000);
+        Jedis jedis = new Jedis(connection);
+        AtomicReference<Jedis> returned = new AtomicReference<>();
+        JedisPool pool = new JedisPool(new JedisPoolConfig(), "localhost", 6379) {
+            @Override
+            public Jedis borrowObject(long borrowMaxWaitMillis) {
+                return jedis;
+            }
+
+            @Override
+            public void returnResource(Jedis resource) {
+                returned.set(resource);
+            }
+        };
+        RDBI rdbi = new RDBI(pool);
+
+        rdbi.withDeadline(Duration.ofSeconds(1), () -> {
+            try (Handle handle = rdbi.open()) {
+                assertSame(handle.jedis(), jedis);
+                return null;
+            }
+        });
+
+        // returned to the pool rather than disconnected
+        assertSame(returned.get(), jedis);
+        verify(connection, never()).close();
+        pool.close();
+    }
+
+    @Test
+    public void testDeadlineNone() {
+        assertFalse(Deadline.NONE.isExpired());
+        assertEquals(Deadline.NONE.capMillis(250), 250L);
+        assertTrue(Deadline.after(Duration.ZERO).isExpired());
+        assertTrue(Deadline.after(Duration.ofMillis(100)).capMillis(250) <= 100);
+    }
+}
@@ -0,0 +1,162 @@
+package com.lithium.dbi.rdbi;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.commands.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class RDBIFunctionTest {
+
+    @FunctionLibrary("counters")
+    interface CounterDAO {
+        @Query("return redis.call('INCRBY', $key$, $by$);")
+        long incrBy(@BindKey("key") String key, @BindArg("by") long by);
+
+        @Query("return redis.call('GET', $key$);")
+        String get(@BindKey("key") String key);
+    }
+
+    /**
+     * Answers FUNCTION LOAD with the library name, FUNCTION LIST and DELETE from the libraries loaded so far, and FCALL
+     * with the next reply, recording them all.
+     */
+    private static class FunctionServer {
+        private final List<String> commands = new ArrayList<>();
+        private final List<Object> replies = new ArrayList<>();
+        private final Set<String> libraries = new LinkedHashSet<>();
+        private String library;
+        private boolean loaded;
+
+        private Object answer(InvocationOnMock invocation) throws Throwable {
+            if (!invocation.getMethod().getName().equals("sendCommand")) {
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+            Object[] args = invocation.getArguments();
+            ProtocolCommand command = (ProtocolCommand) args[0];
+            List<String> arguments = Arrays.stream(args, 1, args.length)
+                                           .map(arg -> arg instanceof byte[] ? SafeEncoder.encode((byte[]) arg) : (String) arg)
+                                           .collect(Collectors.toList());
+            commands.add(SafeEncoder.encode(command.getRaw()) + " " + String.join(" ", arguments));
+
+            if (command == FunctionCommand.FUNCTION && arguments.get(0).equals("LIST")) {
+                String pattern = arguments.get(2).replace("?", ".");
+                return libraries.stream()
+                                .filter(name -> name.matches(pattern))
+                                .map(name -> Arrays.asList(SafeEncoder.encode("library_name"), SafeEncoder.encode(name)))
+                                .collect(Collectors.toList());
+            }
+            if (command == FunctionCommand.FUNCTION && arguments.get(0).equals("DELETE")) {
+                libraries.remove(arguments.get(1));
+                return SafeEncoder.encode("OK");
+            }
+            if (command == FunctionCommand.FUNCTION) {
+                String code = arguments.get(2);
+                library = code.substring("#!lua name=".length(), code.indexOf('\n'));
+                libraries.add(library);
+                loaded = true;
+                return SafeEncoder.encode(library);
+            }
+            if (!loaded) {
+                throw new JedisDataException("ERR Function not found");
+            }
+            return replies.remove(0);
+        }
+    }
+
+    @Test
+    public void testLibraryLoadedOnceAndCalledWithFcall() {
+        FunctionServer server = new FunctionServer();
+        Jedis jedis = mock(Jedis.class, withSettings().defaultAnswer(server::answer));
+        server.replies.add(3L);
+        server.replies.add(SafeEncoder.encode("3"));
+
+        try (Handle handle = new RDBI(pool(jedis)).open()) {
+            CounterDAO dao = handle.attach(CounterDAO.class);
+            assertEquals(dao.incrBy("a", 3), 3L);
+            assertEquals(dao.get("a"), "3");
+        }
+
+        assertEquals(server.commands.size(), 4);
+        assertTrue(server.commands.get(0).startsWith("FUNCTION LOAD REPLACE #!lua name=counters_"));
+        assertTrue(server.commands.get(0).contains(
+                "redis.register_function('" + server.library + "_incrBy', function(KEYS, ARGV)\n" +
+                "return redis.call('INCRBY', KEYS[1], ARGV[1]);\nend)"));
+        assertEquals(server.commands.get(1), "FUNCTION LIST LIBRARYNAME counters_????????????");
+        assertEquals(server.commands.get(2), "FCALL " + server.library + "_incrBy 1 a 3");
+        assertEquals(server.commands.get(3), "FCALL " + server.library + "_get 1 a");
+        verify(jedis, never()).scriptLoad(anyString());
+    }
+
+    @Test
+    public void testLibraryReloadedWhenFunctionMissing() {
+        FunctionServer server = new FunctionServer();
+        Jedis jedis = mock(Jedis.class, withSettings().defaultAnswer(server::answer));
+        server.replies.add(1L);
+
+        try (Handle handle = new RDBI(pool(jedis)).open()) {
+            CounterDAO dao = handle.attach(CounterDAO.class);
+            // e.g. a failover to a replica that had not received the library
+            server.loaded = false;
+            assertEquals(dao.incrBy("a", 1), 1L);
+        }
+
+        // reloaded without deleting the other versions
+        assertEquals(server.commands.size(), 5);
+        assertTrue(server.commands.get(3).startsWith("FUNCTION LOAD REPLACE"));
+        assertEquals(server.commands.get(4), "FCALL " + server.library + "_incrBy 1 a 1");
+    }
+
+    @Test
+    public void testOtherVersionsDeletedOnFirstLoad() {
+        FunctionServer server = new FunctionServer();
+        Jedis jedis = mock(Jedis.class, withSettings().defaultAnswer(server::answer));
+        server.libraries.add("counters_0123456789ab");
+        server.libraries.add("counters_v2_0123456789ab");
+
+        try (Handle handle = new RDBI(pool(jedis)).open()) {
+            handle.attach(CounterDAO.class);
+        }
+
+        assertEquals(server.commands.get(2), "FUNCTION DELETE counters_0123456789ab");
+        assertEquals(server.libraries, new LinkedHashSet<>(Arrays.asList("counters_v2_0123456789ab", server.library)));
+    }
+
+    @Test
+    public void testLibraryNameFollowsScripts() throws Exception {
+        LuaLibrary library = LuaLibrary.of("counters", Collections.singletonMap(
+                CounterDAO.class.getMethod("get", String.class), "return 1;"));
+        LuaLibrary changed = LuaLibrary.of("counters", Collections.singletonMap(
+                CounterDAO.class.getMethod("get", String.class), "return 2;"));
+
+        assertTrue(library.getName().matches("counters_[0-9a-f]{12}"));
+        assertNotEquals(library.getName(), changed.getName());
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
@@ -0,0 +1,258 @@
+package com.lithium.dbi.rdbi;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RDBIMultiplexedTest {
+
+    interface CounterDAO {
+        @Query("return redis.call('INCR', $key$);")
+        CompletableFuture<Long> incr(@BindKey("key") String key);
+    }
+
+    /**
+     * Answers GET with the key's name reversed, SCRIPT LOAD with the script's sha1, EVALSHA with 42 (once evalsHeld is
+     * counted down), PING never and anything else with an error, on every connection it accepts.
+     */
+    private static class FakeRedis implements Runnable {
+        private final ServerSocket server;
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger evals = new AtomicInteger();
+        private volatile CountDownLatch evalsHeld = new CountDownLatch(0);
+
+        private FakeRedis() throws IOException {
+            server = new ServerSocket(0);
+            Thread thread = new Thread(this, "fake-redis");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    connections.incrementAndGet();
+                    Thread connection = new Thread(() -> serve(socket));
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 OutputStream out = socket.getOutputStream()) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int count = Integer.parseInt(line.substring(1));
+                    List<String> command = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        in.readLine();
+                        command.add(in.readLine());
+                    }
+                    String reply;
+                    if (command.get(0).equals("GET")) {
+                        String value = new StringBuilder(command.get(1)).reverse().toString();
+                        reply = "$" + value.length() + "\r\n" + value + "\r\n";
+                    } else if (command.get(0).equals("SCRIPT")) {
+                        reply = "$40\r\n" + DigestUtils.sha1Hex(command.get(2)) + "\r\n";
+                    } else if (command.get(0).equals("PING")) {
+                        continue;
+                    } else if (command.get(0).equals("EVALSHA")) {
+                        evals.incrementAndGet();
+                        try {
+                            evalsHeld.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        reply = ":42\r\n";
+                    } else {
+                        reply = "-ERR unknown command '" + command.get(0) + "'\r\n";
+                    }
+                    out.write(reply.getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // disconnected
+            }
+        }
+    }
+
+    private FakeRedis redis;
+    private JedisPool pool;
+    private RDBI rdbi;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        redis = new FakeRedis();
+        pool = mock(JedisPool.class);
+        rdbi = RDBI.builder(pool)
+                   .instrumentation(Instrumentation.NONE)
+                   .multiplexed(new HostAndPort("localhost", redis.server.getLocalPort()),
+                                DefaultJedisClientConfig.builder().socketTimeoutMillis(5000).build(),
+                                1)
+                   .build();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        rdbi.close();
+        redis.server.close();
+    }
+
+    @Test
+    public void testHandlesShareOneConnection() {
+        try (Handle first = rdbi.open(); Handle second = rdbi.open()) {
+            Pipeline pipeline = first.jedis().pipelined();
+            Response<String> abc = pipeline.get("abc");
+            // sent after the pipelined command, but read before it
+            assertEquals(second.jedis().get("xyz"), "zyx");
+            pipeline.sync();
+            assertEquals(abc.get(), "cba");
+        }
+
+        assertEquals(redis.connections.get(), 1);
+        verifyNoInteractions(pool);
+        assertEquals(rdbi.getPoolMetrics().getBorrowWait().getCount(), 0L);
+    }
+
+    @Test
+    public void testDeadlineLimitsReplyWait() {
+        long start = System.nanoTime();
+        try {
+            rdbi.withDeadline(Duration.ofMillis(100), () -> rdbi.withHandle(handle -> handle.jedis().ping()));
+            fail("redis never replies to PING");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof JedisConnectionException, String.valueOf(e.getCause()));
+        }
+        // rather than the 5 second socket timeout
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    public void testManyThreadsInFlight() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> values = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String key = "key-" + i;
+                values.add(threads.submit(() -> rdbi.withHandle(handle -> handle.jedis().get(key))));
+            }
+            for (int i = 0; i < 200; i++) {
+                assertEquals(values.get(i).get(), new StringBuilder("key-" + i).reverse().toString());
+            }
+        } finally {
+            threads.shutdown();
+        }
+        assertEquals(redis.connections.get(), 1);
+    }
+
+    @Test
+    public void testErrorOnlyFailsItsCommand() {
+        try (Handle handle = rdbi.open()) {
+            try {
+                handle.jedis().incr("counter");
+                fail("Should have failed on the error reply");
+            } catch (JedisDataException e) {
+                assertEquals(e.getMessage(), "ERR unknown command 'INCR'");
+            }
+            assertEquals(handle.jedis().get("ok"), "ko");
+        }
+    }
+
+    @Test
+    public void testNioTransport() throws Exception {
+        RDBI nio = RDBI.builder(pool)
+                       .instrumentation(Instrumentation.NONE)
+                       .transport(NioTransport.factory(new HostAndPort("localhost", redis.server.getLocalPort()),
+                                                       DefaultJedisClientConfig.builder().build()),
+                                  1, Duration.ofSeconds(5))
+                       .build();
+
+        try (Handle first = nio.open(); Handle second = nio.open()) {
+            Pipeline pipeline = first.jedis().pipelined();
+            Response<String> abc = pipeline.get("abc");
+            assertEquals(second.jedis().get("xyz"), "zyx");
+            pipeline.sync();
+            assertEquals(abc.get(), "cba");
+            try {
+                second.jedis().incr("counter");
+                fail("Should have failed on the error reply");
+            } catch (JedisDataException e) {
+                assertEquals(e.getMessage(), "ERR unknown command 'INCR'");
+            }
+        }
+
+        // a value longer than the read buffer arrives in pieces
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            key.append((char) ('a' + i % 26));
+        }
+        assertEquals(nio.withHandle(handle -> handle.jedis().get(key.toString())), key.reverse().toString());
+        assertEquals(redis.connections.get(), 1);
+    }
+
+    @Test
+    public void testAsyncOnDemandSentToTransport() throws Exception {
+        CounterDAO dao = rdbi.onDemand(CounterDAO.class);
+        assertEquals(dao.incr("a").get(5, TimeUnit.SECONDS), (Long) 42L);
+        assertEquals(redis.evals.get(), 1);
+        assertEquals(redis.connections.get(), 1);
+    }
+
+    @Test
+    public void testAsyncCallbackMayCallRedis() throws Exception {
+        CounterDAO dao = rdbi.onDemand(CounterDAO.class);
+        redis.evalsHeld = new CountDownLatch(1);
+        // a callback completed on the thread of the connection would wait on a reply only that thread can read
+        CompletableFuture<String> chained = dao.incr("a")
+                                              .thenApply(value -> rdbi.withHandle(handle -> handle.jedis().get("abc")));
+        redis.evalsHeld.countDown();
+        assertEquals(chained.get(3, TimeUnit.SECONDS), "cba");
+        assertEquals(redis.connections.get(), 1);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testTransactionsRejected() {
+        try (Handle handle = rdbi.open()) {
+            handle.jedis().multi();
+        }
+    }
+}
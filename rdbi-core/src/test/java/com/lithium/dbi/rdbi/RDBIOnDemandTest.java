@@ -0,0 +1,119 @@
+package com.lithium.dbi.rdbi;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RDBIOnDemandTest {
+
+    static class StringResultMapper implements ResultMapper<String, Long> {
+        @Override
+        public String map(Long result) {
+            return "mapped-" + result;
+        }
+    }
+
+    interface AsyncDAO {
+        @Query("return redis.call('GET', $key$);")
+        @Mapper(StringResultMapper.class)
+        CompletableFuture<String> get(@BindKey("key") String key);
+
+        @Query("return redis.call('INCR', $key$);")
+        long incr(@BindKey("key") String key);
+    }
+
+    @Test
+    public void testAsyncCallRunsOnExecutor() throws Exception {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        CountDownLatch release = new CountDownLatch(1);
+        when(jedis.evalsha(anyString(), anyList(), anyList())).thenAnswer(invocation -> {
+            release.await();
+            return 1L;
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncDAO dao = new RDBI(pool(jedis), GlobalOpenTelemetry.get().getTracer(RDBI.TRACER_NAME), executor).onDemand(AsyncDAO.class);
+
+            // the caller is not blocked while the call waits on redis
+            CompletableFuture<String> result = dao.get("a");
+            assertFalse(result.isDone());
+
+            release.countDown();
+            assertEquals(result.get(1, TimeUnit.SECONDS), "mapped-1");
+            verify(jedis).evalsha("my-sha1-hash", Arrays.asList("a"), Arrays.asList());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEachCallReturnsItsConnection() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.evalsha(anyString(), anyList(), anyList())).thenReturn(1L);
+
+        AsyncDAO dao = new RDBI(pool(jedis)).onDemand(AsyncDAO.class);
+        assertEquals(dao.incr("a"), 1L);
+        assertEquals(dao.incr("b"), 1L);
+
+        // once for attaching, once per call
+        verify(jedis, times(3)).close();
+    }
+
+    @Test
+    public void testAsyncFailureCompletesExceptionally() throws Exception {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.evalsha(anyString(), anyList(), anyList())).thenThrow(new JedisDataException("ERR something went wrong"));
+
+        CompletableFuture<String> result = new RDBI(pool(jedis)).onDemand(AsyncDAO.class).get("a");
+        try {
+            result.get(1, TimeUnit.SECONDS);
+            fail("expected the future to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JedisDataException);
+        }
+    }
+
+    @Test
+    public void testAttachedAsyncCallIsAlreadyComplete() throws Exception {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad(anyString())).thenReturn("my-sha1-hash");
+        when(jedis.evalsha(anyString(), anyList(), anyList())).thenReturn(2L);
+
+        try (Handle handle = new RDBI(pool(jedis)).open()) {
+            CompletableFuture<String> result = handle.attach(AsyncDAO.class).get("a");
+            assertTrue(result.isDone());
+            assertEquals(result.get(), "mapped-2");
+        }
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
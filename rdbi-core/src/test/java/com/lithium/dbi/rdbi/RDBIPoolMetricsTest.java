@@ -0,0 +1,108 @@
+package com.lithium.dbi.rdbi;
+
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.NoSuchElementException;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+public class RDBIPoolMetricsTest {
+
+    @Test
+    public void testBorrowsAndReturnsRecorded() {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(mock(Jedis.class));
+        RDBI rdbi = new RDBI(pool);
+
+        Handle handle = rdbi.open();
+        try (Handle other = rdbi.open()) {
+            other.jedis();
+        }
+        handle.close();
+        handle.close();
+
+        PoolMetrics metrics = rdbi.getPoolMetrics();
+        assertEquals(metrics.getBorrowWait().getCount(), 2L);
+        assertEquals(metrics.getHeld().getCount(), 2L);
+        assertEquals(metrics.takePeakInUse(), 2L);
+        assertEquals(metrics.takePeakInUse(), 0L);
+    }
+
+    @Test
+    public void testBorrowTimeoutsCounted() {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource())
+                .thenThrow(new JedisException("Could not get a resource from the pool",
+                                              new NoSuchElementException("Timeout waiting for idle object")))
+                .thenThrow(new JedisConnectionException("Could not get a resource from the pool",
+                                                        new JedisConnectionException("Connection refused")));
+        RDBI rdbi = new RDBI(pool);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                rdbi.open();
+                fail("the pool has no connection to give");
+            } catch (RuntimeException expected) {
+            }
+        }
+        assertEquals(rdbi.getPoolMetrics().getBorrowTimeoutCount(), 1L);
+        assertEquals(rdbi.getPoolMetrics().getBorrowFailureCount(), 1L);
+        assertEquals(rdbi.getPoolMetrics().getHeld().getCount(), 0L);
+    }
+
+    @Test
+    public void testSizerTarget() {
+        PoolSizer sizer = new PoolSizer(mock(JedisPool.class), null, 4, 32);
+
+        // waited for a fifth of the time connections were held
+        assertEquals(sizer.target(8, 200, 1000, 0, 8), 10);
+        // timed out
+        assertEquals(sizer.target(8, 0, 1000, 1, 8), 10);
+        assertEquals(sizer.target(31, 200, 1000, 0, 31), 32);
+        // nobody waited, few connections in use
+        assertEquals(sizer.target(16, 5, 1000, 0, 3), 12);
+        assertEquals(sizer.target(16, 5, 1000, 0, 7), 14);
+        assertEquals(sizer.target(5, 0, 0, 0, 0), 4);
+        // some waiting, or busy: stay
+        assertEquals(sizer.target(16, 50, 1000, 0, 3), 16);
+        assertEquals(sizer.target(16, 5, 1000, 0, 9), 16);
+    }
+
+    @Test
+    public void testSizerResizesPool() {
+        // nothing is borrowed, so it never connects
+        JedisPool pool = new JedisPool(new JedisPoolConfig(), "localhost", 6379);
+        pool.setMaxTotal(8);
+        pool.setMaxIdle(8);
+        PoolMetrics metrics = new PoolMetrics(pool);
+        PoolSizer sizer = new PoolSizer(pool, metrics, 4, 32);
+
+        metrics.recordBorrowFailure(1_000_000, true);
+        sizer.run();
+        assertEquals(pool.getMaxTotal(), 10);
+        assertEquals(pool.getMaxIdle(), 10);
+
+        // all 10 connections in use at once, barely waited for
+        for (int i = 0; i < 10; i++) {
+            metrics.recordBorrow(1_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.recordReturn(1_000_000);
+        }
+        sizer.run();
+        assertEquals(pool.getMaxTotal(), 10);
+
+        // idle
+        sizer.run();
+        assertEquals(pool.getMaxTotal(), 8);
+        pool.close();
+    }
+}
@@ -0,0 +1,147 @@
+package com.lithium.dbi.rdbi;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.commands.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class RDBIReadOnlyTest {
+
+    interface CounterDAO {
+        @ReadOnly
+        @Query("return redis.call('GET', $key$);")
+        String get(@BindKey("key") String key);
+
+        @Query("return redis.call('INCR', $key$);")
+        long incr(@BindKey("key") String key);
+    }
+
+    /**
+     * Answers EVALSHA_RO with the given reply, or with the given failure, and records the commands it was sent.
+     */
+    private static class Server {
+        private final List<String> commands = new ArrayList<>();
+        private final Object reply;
+
+        private Server(Object reply) {
+            this.reply = reply;
+        }
+
+        private Object answer(InvocationOnMock invocation) throws Throwable {
+            if (!invocation.getMethod().getName().equals("sendCommand")) {
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+            commands.add(SafeEncoder.encode(((ProtocolCommand) invocation.getArgument(0)).getRaw()));
+            if (reply instanceof RuntimeException) {
+                throw (RuntimeException) reply;
+            }
+            return reply;
+        }
+    }
+
+    @Test
+    public void testReadOnlyMethodsRunOnReplica() {
+        Server primaryServer = new Server(SafeEncoder.encode("primary"));
+        Server replicaServer = new Server(SafeEncoder.encode("replica"));
+        Jedis primary = mock(Jedis.class, withSettings().defaultAnswer(primaryServer::answer));
+        Jedis replica = mock(Jedis.class, withSettings().defaultAnswer(replicaServer::answer));
+        when(primary.scriptLoad(anyString())).thenReturn("sha");
+        when(primary.evalsha(anyString(), anyList(), anyList())).thenReturn(1L);
+
+        RDBI rdbi = RDBI.builder(pool(primary)).replicas(pool(replica)).instrumentation(Instrumentation.NONE).build();
+        try (Handle handle = rdbi.open()) {
+            CounterDAO dao = handle.attach(CounterDAO.class);
+            assertEquals(dao.incr("a"), 1L);
+            assertEquals(dao.get("a"), "replica");
+            assertSame(handle.readOnly(), replica);
+        }
+
+        assertEquals(replicaServer.commands.get(0), "EVALSHA_RO");
+        assertTrue(primaryServer.commands.isEmpty());
+        verify(replica).close();
+    }
+
+    @Test
+    public void testPrimaryReadWhenReplicasUnreachable() {
+        Server primaryServer = new Server(SafeEncoder.encode("primary"));
+        Jedis primary = mock(Jedis.class, withSettings().defaultAnswer(primaryServer::answer));
+        when(primary.scriptLoad(anyString())).thenReturn("sha");
+        JedisPool replicas = mock(JedisPool.class);
+        when(replicas.getResource()).thenThrow(new JedisConnectionException("Could not get a resource from the pool"));
+
+        RDBI rdbi = RDBI.builder(pool(primary)).replicas(replicas).instrumentation(Instrumentation.NONE).build();
+        try (Handle handle = rdbi.open()) {
+            assertEquals(handle.attach(CounterDAO.class).get("a"), "primary");
+            assertSame(handle.readOnly(), primary);
+        }
+
+        assertEquals(primaryServer.commands.get(0), "EVALSHA_RO");
+    }
+
+    @Test
+    public void testPrimaryReadWhenReplicaConnectionBreaks() {
+        Server primaryServer = new Server(SafeEncoder.encode("primary"));
+        Server replicaServer = new Server(new JedisConnectionException("Unexpected end of stream."));
+        Jedis primary = mock(Jedis.class, withSettings().defaultAnswer(primaryServer::answer));
+        Jedis replica = mock(Jedis.class, withSettings().defaultAnswer(replicaServer::answer));
+        when(primary.scriptLoad(anyString())).thenReturn("sha");
+
+        RDBI rdbi = RDBI.builder(pool(primary)).replicas(pool(replica)).instrumentation(Instrumentation.NONE).build();
+        try (Handle handle = rdbi.open()) {
+            assertEquals(handle.attach(CounterDAO.class).get("a"), "primary");
+            assertSame(handle.readOnly(), primary);
+        }
+        try (Handle handle = rdbi.open()) {
+            // the replicas are left alone for a while
+            assertSame(handle.readOnly(), primary);
+        }
+
+        verify(replica).close();
+    }
+
+    @Test
+    public void testStaleness() {
+        Duration maxLag = Duration.ofSeconds(5);
+        assertNull(Replicas.staleness("# Replication\r\nrole:slave\r\nmaster_link_status:up\r\nmaster_last_io_seconds_ago:3\r\n", maxLag));
+        assertNull(Replicas.staleness("# Replication\r\nrole:master\r\nconnected_slaves:1\r\n", maxLag));
+        assertEquals(Replicas.staleness("role:slave\r\nmaster_link_status:up\r\nmaster_last_io_seconds_ago:8\r\n", maxLag),
+                     "last heard from the primary 8s ago");
+        assertEquals(Replicas.staleness("role:slave\r\nmaster_link_status:down\r\nmaster_last_io_seconds_ago:-1\r\n", maxLag),
+                     "lost its link to the primary");
+    }
+
+    @Test
+    public void testStaleReplicaNotRead() {
+        Jedis replica = mock(Jedis.class);
+        when(replica.info("replication")).thenReturn("role:slave\r\nmaster_link_status:down\r\n");
+
+        Replicas replicas = new Replicas(pool(replica), Duration.ofSeconds(5));
+        assertNull(replicas.borrow());
+        verify(replica).close();
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
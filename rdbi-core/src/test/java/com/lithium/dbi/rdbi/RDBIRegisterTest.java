@@ -0,0 +1,123 @@
+package com.lithium.dbi.rdbi;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.Arrays;
+
+import static com.lithium.dbi.rdbi.Responses.response;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RDBIRegisterTest {
+
+    interface FirstDAO {
+        @Query("return redis.call('GET', $key$);")
+        String get(@BindKey("key") String key);
+
+        @Query("return redis.call('SET', $key$, $value$);")
+        String set(@BindKey("key") String key, @BindArg("value") String value);
+    }
+
+    interface SecondDAO {
+        @Query("return redis.call('GET', $key$);")
+        String sameScript(@BindKey("key") String key);
+    }
+
+    @Test
+    public void testRegisterLoadsAllScriptsInOnePipeline() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = loadingPipeline();
+        when(jedis.pipelined()).thenReturn(pipeline);
+        String getSha = DigestUtils.sha1Hex("return redis.call('GET', KEYS[1]);");
+        when(jedis.evalsha(anyString(), anyList(), anyList())).thenReturn("value");
+
+        RDBI rdbi = new RDBI(pool(jedis));
+        assertNotNull(rdbi.register(FirstDAO.class, SecondDAO.class));
+
+        // two distinct scripts between the three methods
+        verify(pipeline, times(2)).sendCommand(eq(Protocol.Command.SCRIPT), eq("LOAD"), anyString());
+        verify(pipeline, times(1)).sync();
+        assertTrue(rdbi.isReady());
+        assertTrue(rdbi.proxyFactory.factoryCache.containsKey(FirstDAO.class));
+        assertTrue(rdbi.proxyFactory.factoryCache.containsKey(SecondDAO.class));
+
+        try (Handle handle = rdbi.open()) {
+            assertEquals(handle.attach(SecondDAO.class).sameScript("a"), "value");
+        }
+        verify(jedis, never()).scriptLoad(anyString());
+        verify(jedis).evalsha(getSha, Arrays.asList("a"), Arrays.asList());
+    }
+
+    @Test
+    public void testNotReadyUntilRegisterSucceeds() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = loadingPipeline();
+        when(jedis.pipelined()).thenThrow(new JedisConnectionException("connection refused")).thenReturn(pipeline);
+
+        RDBI rdbi = new RDBI(pool(jedis));
+        assertTrue(rdbi.isReady());
+        try {
+            rdbi.register(FirstDAO.class);
+            fail("expected the warm-up to fail");
+        } catch (JedisConnectionException e) {
+            assertFalse(rdbi.isReady());
+        }
+
+        // retrying with no types warms up the ones still pending
+        rdbi.register();
+        assertTrue(rdbi.isReady());
+        assertTrue(rdbi.proxyFactory.methodContextCache.containsKey(FirstDAO.class));
+    }
+
+    @Test
+    public void testBuilderPrefillsPool() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = loadingPipeline();
+        when(jedis.pipelined()).thenReturn(pipeline);
+        JedisPool pool = pool(jedis);
+        when(pool.getNumIdle()).thenReturn(2);
+
+        RDBI rdbi = RDBI.builder(pool)
+                        .register(FirstDAO.class)
+                        .prefillConnections(8)
+                        .build();
+
+        verify(pool).addObjects(6);
+        assertTrue(rdbi.isReady());
+        assertTrue(rdbi.proxyFactory.methodContextCache.containsKey(FirstDAO.class));
+    }
+
+    /**
+     * A pipeline that answers SCRIPT LOAD like redis does, with the sha1 of the script.
+     */
+    private static Pipeline loadingPipeline() {
+        Pipeline pipeline = mock(Pipeline.class);
+        when(pipeline.sendCommand(eq(Protocol.Command.SCRIPT), eq("LOAD"), anyString())).thenAnswer(
+                invocation -> response(SafeEncoder.encode(DigestUtils.sha1Hex((String) invocation.getArgument(2)))));
+        return pipeline;
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
@@ -2,12 +2,21 @@ package com.lithium.dbi.rdbi;
 
 
 import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
 
 import java.util.Collections;
 import java.util.List;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.fail;
 
 public class RDBIWithHandleTest {
@@ -65,4 +74,47 @@ public class RDBIWithHandleTest {
             }
         });
     }
+
+    @Test
+    public void testInScopeSharesOneConnection() {
+        Jedis jedis = mock(Jedis.class);
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        RDBI rdbi = RDBI.builder(pool).instrumentation(Instrumentation.NONE).build();
+
+        rdbi.inScope(outer -> {
+            rdbi.consumeHandle(handle -> assertSame(handle, outer));
+            assertSame(rdbi.withHandle(handle -> rdbi.inScope(inner -> inner)), outer);
+            try (Handle handle = rdbi.open()) {
+                assertSame(handle, outer);
+            }
+            verify(jedis, never()).close();
+            return null;
+        });
+
+        verify(pool, times(1)).getResource();
+        verify(jedis, times(1)).close();
+    }
+
+    @Test
+    public void testInScopeEndsWithCallback() {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(mock(Jedis.class));
+        RDBI rdbi = RDBI.builder(pool).instrumentation(Instrumentation.NONE).build();
+
+        try {
+            rdbi.inScope(handle -> {
+                throw new IllegalStateException("boom");
+            });
+            fail("Should have rethrown the callback's exception");
+        } catch (RuntimeException e) {
+            assertEquals(e.getCause().getClass(), IllegalStateException.class);
+        }
+
+        Handle scoped = rdbi.inScope(handle -> handle);
+        try (Handle handle = rdbi.open()) {
+            assertNotSame(handle, scoped);
+        }
+        verify(pool, times(3)).getResource();
+    }
 }
@@ -0,0 +1,106 @@
+package com.lithium.dbi.rdbi;
+
+import org.testng.annotations.Test;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class RespCodecTest {
+
+    private static final String NESTED = "*4\r\n$3\r\nfoo\r\n*3\r\n:1\r\n$-1\r\n*0\r\n-ERR bad\r\n*-1\r\n";
+
+    @Test
+    public void testNestedReply() {
+        RespCodec codec = new RespCodec();
+        codec.receive(bytes(NESTED));
+
+        assertNested(codec.decode());
+        assertSame(codec.decode(), RespCodec.INCOMPLETE);
+    }
+
+    @Test
+    public void testReplySplitAcrossReads() {
+        RespCodec codec = new RespCodec();
+        List<Object> replies = new ArrayList<>();
+        for (byte b : NESTED.getBytes(StandardCharsets.UTF_8)) {
+            codec.receive(ByteBuffer.wrap(new byte[]{b}));
+            Object reply;
+            while ((reply = codec.decode()) != RespCodec.INCOMPLETE) {
+                replies.add(reply);
+            }
+        }
+
+        assertEquals(replies.size(), 1);
+        assertNested(replies.get(0));
+    }
+
+    @Test
+    public void testSeveralRepliesInOneRead() {
+        RespCodec codec = new RespCodec();
+        codec.receive(bytes("+OK\r\n$-1\r\n*-1\r\n:-42\r\n-NOSCRIPT No matching script\r\n$0\r\n\r\n"));
+
+        assertEquals(codec.decode(), SafeEncoder.encode("OK"));
+        assertNull(codec.decode());
+        assertNull(codec.decode());
+        assertEquals(codec.decode(), -42L);
+        assertTrue(codec.decode() instanceof JedisNoScriptException);
+        assertEquals(codec.decode(), new byte[0]);
+        assertSame(codec.decode(), RespCodec.INCOMPLETE);
+    }
+
+    @Test
+    public void testLargeReplyOutgrowsBuffer() {
+        char[] value = new char[100_000];
+        Arrays.fill(value, 'x');
+        String bulk = "$" + value.length + "\r\n" + new String(value) + "\r\n";
+        StringBuilder reply = new StringBuilder("*3\r\n");
+        for (int i = 0; i < 3; i++) {
+            reply.append(bulk);
+        }
+        byte[] raw = reply.append(":7\r\n").toString().getBytes(StandardCharsets.UTF_8);
+
+        RespCodec codec = new RespCodec();
+        List<Object> replies = new ArrayList<>();
+        for (int from = 0; from < raw.length; from += 1000) {
+            codec.receive(ByteBuffer.wrap(raw, from, Math.min(1000, raw.length - from)));
+            Object decoded;
+            while ((decoded = codec.decode()) != RespCodec.INCOMPLETE) {
+                replies.add(decoded);
+            }
+        }
+
+        assertEquals(replies.size(), 2);
+        List<?> array = (List<?>) replies.get(0);
+        assertEquals(array.size(), 3);
+        for (Object element : array) {
+            assertEquals(SafeEncoder.encode((byte[]) element), new String(value));
+        }
+        assertEquals(replies.get(1), 7L);
+    }
+
+    private static void assertNested(Object reply) {
+        List<?> array = (List<?>) reply;
+        assertEquals(array.size(), 4);
+        assertEquals(array.get(0), SafeEncoder.encode("foo"));
+        assertEquals(array.get(1), Arrays.asList(1L, null, Collections.emptyList()));
+        assertTrue(array.get(2) instanceof JedisDataException);
+        assertEquals(((JedisDataException) array.get(2)).getMessage(), "ERR bad");
+        assertNull(array.get(3));
+    }
+
+    private static ByteBuffer bytes(String raw) {
+        return ByteBuffer.wrap(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
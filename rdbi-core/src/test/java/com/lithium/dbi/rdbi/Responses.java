@@ -0,0 +1,22 @@
+package com.lithium.dbi.rdbi;
+
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Response;
+
+/**
+ * Pipeline responses for mocked pipelines to return.
+ */
+final class Responses {
+
+    private Responses() {
+    }
+
+    /**
+     * @return a response that is already set, with a raw reply (e.g. a Long, a byte[] or a JedisDataException).
+     */
+    static Response<Object> response(Object data) {
+        Response<Object> response = new Response<>(BuilderFactory.RAW_OBJECT);
+        response.set(data);
+        return response;
+    }
+}
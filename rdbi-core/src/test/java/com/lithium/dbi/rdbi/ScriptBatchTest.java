@@ -0,0 +1,176 @@
+package com.lithium.dbi.rdbi;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ScriptBatchTest {
+
+    interface JobDAO {
+        @Query("return redis.call('ZREM', $queue$, $job$);")
+        int ack(@BindKey("queue") String queue, @BindArg("job") String job);
+
+        @Query("return redis.call('DECR', $count$);")
+        Long decrement(@BindKey("count") String count);
+    }
+
+    @Test
+    public void testCallsRunInOneScript() {
+        Jedis jedis = jedis();
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList()))
+                .thenReturn(Arrays.asList(Collections.singletonList(1L), Collections.singletonList(4L), Collections.emptyList()));
+
+        ScriptBatch batch = new RDBI(pool(jedis)).open().batch();
+        JobDAO dao = batch.attach(JobDAO.class);
+        PipelinedResponse<Integer> acked = batch.response(dao.ack("running", "job1"));
+        PipelinedResponse<Long> decremented = batch.response(dao.decrement("count"));
+        PipelinedResponse<Integer> missing = batch.response(dao.ack("running", "job2"));
+        verify(jedis, never()).evalsha(any(byte[].class), anyList(), anyList());
+
+        batch.execute();
+
+        ArgumentCaptor<List<byte[]>> keys = captor();
+        ArgumentCaptor<List<byte[]>> argv = captor();
+        verify(jedis, times(1)).evalsha(any(byte[].class), keys.capture(), argv.capture());
+        assertEquals(decode(keys.getValue()), Arrays.asList("running", "count", "running"));
+        // 3 calls; ack is script 1 with a key and an argument, decrement script 2 with a key and none
+        assertEquals(decode(argv.getValue()), Arrays.asList("3", "1", "1", "1", "2", "1", "0", "1", "1", "1", "job1", "job2"));
+        assertEquals(acked.get(), (Object) 1L);
+        assertEquals(decremented.get(), (Object) 4L);
+        assertNull(missing.get());
+    }
+
+    @Test
+    public void testWrapperLoadedOnNoScript() {
+        Jedis jedis = jedis();
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList()))
+                .thenThrow(new JedisDataException("NOSCRIPT No matching script. Please use EVAL."));
+        when(jedis.eval(any(byte[].class), anyList(), anyList()))
+                .thenReturn(Arrays.asList(Collections.singletonList(1L), Collections.singletonList(0L)));
+
+        ScriptBatch batch = new RDBI(pool(jedis)).open().batch();
+        JobDAO dao = batch.attach(JobDAO.class);
+        dao.ack("running", "job");
+        dao.decrement("count");
+
+        assertEquals(batch.executeAndReturnAll(), Arrays.asList(1L, 0L));
+
+        ArgumentCaptor<byte[]> sha1 = ArgumentCaptor.forClass(byte[].class);
+        ArgumentCaptor<byte[]> script = ArgumentCaptor.forClass(byte[].class);
+        verify(jedis).evalsha(sha1.capture(), anyList(), anyList());
+        verify(jedis).eval(script.capture(), anyList(), anyList());
+        String wrapper = SafeEncoder.encode(script.getValue());
+        assertTrue(wrapper.contains("return redis.call('ZREM', KEYS[1], ARGV[1]);"), wrapper);
+        assertTrue(wrapper.contains("return redis.call('DECR', KEYS[1]);"), wrapper);
+        assertEquals(SafeEncoder.encode(sha1.getValue()), DigestUtils.sha1Hex(script.getValue()));
+    }
+
+    @Test
+    public void testErrorReplyFailsOnlyItsCall() {
+        Jedis jedis = jedis();
+        JedisDataException wrongType = new JedisDataException("WRONGTYPE Operation against a key holding the wrong kind of value");
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList()))
+                .thenReturn(Arrays.asList(Collections.singletonList(wrongType), Collections.singletonList(2L)));
+
+        ScriptBatch batch = new RDBI(pool(jedis)).open().batch();
+        JobDAO dao = batch.attach(JobDAO.class);
+        dao.decrement("count");
+        dao.decrement("other");
+
+        List<Object> results = batch.executeAndReturnAll();
+        assertSame(results.get(0), wrongType);
+        assertEquals(results.get(1), 2L);
+    }
+
+    @Test
+    public void testRaisedErrorFailsEveryCall() {
+        Jedis jedis = jedis();
+        JedisDataException raised = new JedisDataException("ERR Error running script: WRONGTYPE");
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList())).thenThrow(raised);
+
+        ScriptBatch batch = new RDBI(pool(jedis)).open().batch();
+        JobDAO dao = batch.attach(JobDAO.class);
+        PipelinedResponse<Integer> acked = batch.response(dao.ack("running", "job"));
+        dao.decrement("count");
+
+        assertEquals(batch.executeAndReturnAll(), Arrays.asList(raised, raised));
+        try {
+            acked.get();
+        } catch (JedisDataException e) {
+            assertSame(e, raised);
+            return;
+        }
+        throw new AssertionError("the call should have failed");
+    }
+
+    @Test
+    public void testBrokenConnectionFailsEveryCall() {
+        Jedis jedis = jedis();
+        JedisConnectionException broken = new JedisConnectionException("Unexpected end of stream.");
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList())).thenThrow(broken);
+
+        ScriptBatch batch = new RDBI(pool(jedis)).open().batch();
+        JobDAO dao = batch.attach(JobDAO.class);
+        PipelinedResponse<Integer> acked = batch.response(dao.ack("running", "job"));
+        PipelinedResponse<Long> decremented = batch.response(dao.decrement("count"));
+
+        try {
+            batch.execute();
+            throw new AssertionError("the batch should have failed");
+        } catch (JedisConnectionException e) {
+            assertSame(e, broken);
+        }
+        for (PipelinedResponse<?> response : Arrays.asList(acked, decremented)) {
+            try {
+                response.get();
+                throw new AssertionError("the call should have failed");
+            } catch (JedisConnectionException e) {
+                assertSame(e, broken);
+            }
+        }
+    }
+
+    private static Jedis jedis() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad(anyString())).thenAnswer(invocation -> DigestUtils.sha1Hex((String) invocation.getArgument(0)));
+        return jedis;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<byte[]>> captor() {
+        return ArgumentCaptor.forClass((Class<List<byte[]>>) (Class<?>) List.class);
+    }
+
+    private static List<String> decode(List<byte[]> values) {
+        return values.stream().map(SafeEncoder::encode).collect(Collectors.toList());
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
@@ -0,0 +1,131 @@
+package com.lithium.dbi.rdbi;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.resps.Slowlog;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class ScriptRegistryTest {
+
+    interface CounterDAO {
+        @Query("return redis.call('INCR', $key$);")
+        long incr(@BindKey("key") String key);
+    }
+
+    private static final String HAND_RUN = "return redis.call('GET', KEYS[1])";
+
+    @Test
+    public void testSlowLogAttributedToScripts() {
+        Jedis jedis = jedis();
+        RDBI rdbi = new RDBI(pool(jedis));
+        try (Handle handle = rdbi.open()) {
+            handle.attach(CounterDAO.class);
+        }
+        String handRun = rdbi.getScriptRegistry().register("hand run", HAND_RUN);
+        String counter = rdbi.getScriptRegistry().getScripts().stream()
+                             .filter(script -> script.getNames().contains(CounterDAO.class.getName() + ".incr"))
+                             .findFirst().orElseThrow(AssertionError::new).getSha1();
+
+        when(jedis.slowlogGet(RDBI.SLOW_LOG_ENTRIES)).thenReturn(slowLog(
+                entry(4, 300, "EVALSHA", "0123456789012345678901234567890123456789", "0"),
+                entry(3, 20_000, "GET", "key"),
+                entry(2, 500, "EVAL", HAND_RUN, "1", "key"),
+                entry(1, 1_000, "EVALSHA", counter.toUpperCase(), "1", "hits"),
+                entry(0, 4_000, "evalsha", counter, "1", "hits")));
+        assertEquals(rdbi.pollSlowLog(), 3);
+
+        List<ScriptInfo> scripts = rdbi.getScriptRegistry().getScripts();
+        assertEquals(scripts.get(0).getSha1(), counter);
+        assertEquals(scripts.get(0).getSlowLogCount(), 2L);
+        assertEquals(scripts.get(0).getSlowLogMicros(), 5_000L);
+        assertEquals(scripts.get(0).getMaxSlowLogMicros(), 4_000L);
+        assertEquals(scripts.get(1).getSha1(), handRun);
+        assertEquals(scripts.get(1).getNames(), Collections.singleton("hand run"));
+        assertEquals(scripts.get(1).getSlowLogMicros(), 500L);
+        assertEquals(rdbi.getScriptRegistry().getUnattributedSlowLogCount(), 1L);
+    }
+
+    @Test
+    public void testEntriesReadOnce() {
+        Jedis jedis = jedis();
+        RDBI rdbi = new RDBI(pool(jedis));
+        String sha1 = rdbi.getScriptRegistry().register("hand run", HAND_RUN);
+
+        when(jedis.slowlogGet(RDBI.SLOW_LOG_ENTRIES)).thenReturn(slowLog(
+                entry(11, 100, "EVALSHA", sha1, "0"),
+                entry(10, 100, "EVALSHA", sha1, "0")));
+        assertEquals(rdbi.pollSlowLog(), 2);
+        assertEquals(rdbi.pollSlowLog(), 0);
+
+        when(jedis.slowlogGet(RDBI.SLOW_LOG_ENTRIES)).thenReturn(slowLog(
+                entry(12, 100, "EVALSHA", sha1, "0"),
+                entry(11, 100, "EVALSHA", sha1, "0")));
+        assertEquals(rdbi.pollSlowLog(), 1);
+
+        // redis restarted, its ids start again from zero
+        when(jedis.slowlogGet(RDBI.SLOW_LOG_ENTRIES)).thenReturn(slowLog(
+                entry(0, 100, "EVALSHA", sha1, "0")));
+        assertEquals(rdbi.pollSlowLog(), 1);
+        assertEquals(rdbi.getScriptRegistry().get(sha1).getSlowLogCount(), 4L);
+    }
+
+    @Test
+    public void testBatchWrapperKnown() {
+        Jedis jedis = jedis();
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList()))
+                .thenReturn(Collections.singletonList(Collections.singletonList(1L)));
+        RDBI rdbi = new RDBI(pool(jedis));
+        try (Handle handle = rdbi.open()) {
+            ScriptBatch batch = handle.batch();
+            batch.attach(CounterDAO.class).incr("hits");
+            batch.execute();
+        }
+
+        ScriptBatch.Wrapper wrapper = rdbi.proxyFactory.batchWrappers().iterator().next();
+        ScriptInfo script = rdbi.getScriptRegistry().get(SafeEncoder.encode(wrapper.sha1));
+        assertNotNull(script);
+        assertEquals(script.getNames(), Collections.singleton("batch of " + CounterDAO.class.getName() + ".incr"));
+        assertNull(rdbi.getScriptRegistry().get(DigestUtils.sha1Hex("return 1")));
+    }
+
+    private static List<Slowlog> slowLog(List<?>... entries) {
+        return Slowlog.from(new ArrayList<>(Arrays.asList(entries)));
+    }
+
+    private static List<Object> entry(long id, long micros, String... args) {
+        List<byte[]> encoded = new ArrayList<>();
+        for (String arg : args) {
+            encoded.add(SafeEncoder.encode(arg));
+        }
+        return Arrays.asList(id, 1_600_000_000L, micros, encoded,
+                             SafeEncoder.encode("127.0.0.1:6379"), SafeEncoder.encode(""));
+    }
+
+    private static Jedis jedis() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.scriptLoad(anyString())).thenAnswer(invocation -> DigestUtils.sha1Hex((String) invocation.getArgument(0)));
+        return jedis;
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
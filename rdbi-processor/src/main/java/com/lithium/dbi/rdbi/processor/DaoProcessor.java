@@ -0,0 +1,187 @@
+package com.lithium.dbi.rdbi.processor;
+
+import com.lithium.dbi.rdbi.BindArg;
+import com.lithium.dbi.rdbi.BindKey;
+import com.lithium.dbi.rdbi.FunctionLibrary;
+import com.lithium.dbi.rdbi.GeneratedDao;
+import com.lithium.dbi.rdbi.Query;
+import com.lithium.dbi.rdbi.ReadOnly;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates an implementation of every interface with {@link Query} methods, named after the interface with an
+ * {@code RdbiImpl} suffix (see {@link GeneratedDao#implementationName(String, String)}). rdbi-core picks these up
+ * instead of generating cglib proxies at runtime.
+ * <p>
+ * Types that cannot be implemented in plain java (classes, generic or private interfaces, abstract methods without
+ * {@link Query}), methods binding collections, {@link ReadOnly} methods and {@link FunctionLibrary} DAOs are left
+ * to the runtime proxies, with a note.
+ */
+@SupportedAnnotationTypes("com.lithium.dbi.rdbi.Query")
+public class DaoProcessor extends AbstractProcessor {
+
+    static final String NATIVE_IMAGE_CONFIG = "META-INF/native-image/com.lithium.dbi.rdbi/generated-daos/reflect-config.json";
+
+    private final Set<String> generated = new LinkedHashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+        if (roundEnv.processingOver()) {
+            writeNativeImageConfig();
+            return false;
+        }
+
+        Set<TypeElement> daos = new LinkedHashSet<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(Query.class)) {
+            daos.add((TypeElement) element.getEnclosingElement());
+        }
+
+        for (TypeElement dao : daos) {
+            List<ExecutableElement> methods = implementableMethods(dao);
+            if (methods == null) {
+                continue;
+            }
+            try {
+                generate(dao, methods);
+            } catch (IllegalArgumentException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), dao);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                                         "Could not write rdbi DAO implementation: " + e, dao);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the methods to implement, or null if the DAO is left to the runtime proxies.
+     */
+    private List<ExecutableElement> implementableMethods(TypeElement dao) {
+        if (dao.getKind() != ElementKind.INTERFACE) {
+            return skip(dao, "it is not an interface");
+        }
+        if (dao.getAnnotation(FunctionLibrary.class) != null) {
+            return skip(dao, "it is a function library");
+        }
+        if (!dao.getTypeParameters().isEmpty()) {
+            return skip(dao, "it has type parameters");
+        }
+        for (Element e = dao; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                return skip(dao, "it is private");
+            }
+        }
+
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(dao))) {
+            if (!method.getModifiers().contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+            if (method.getAnnotation(Query.class) == null) {
+                return skip(dao, method.getSimpleName() + " has no @Query");
+            }
+            if (!method.getTypeParameters().isEmpty()) {
+                return skip(dao, method.getSimpleName() + " has type parameters");
+            }
+            if (bindsCollection(method)) {
+                return skip(dao, method.getSimpleName() + " binds a collection");
+            }
+            if (method.getAnnotation(ReadOnly.class) != null) {
+                return skip(dao, method.getSimpleName() + " is read-only");
+            }
+            methods.add(method);
+        }
+        return methods;
+    }
+
+    private boolean bindsCollection(ExecutableElement method) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror collection = types.erasure(processingEnv.getElementUtils().getTypeElement(Collection.class.getName()).asType());
+        for (VariableElement parameter : method.getParameters()) {
+            boolean bound = parameter.getAnnotation(BindKey.class) != null || parameter.getAnnotation(BindArg.class) != null;
+            if (bound && types.isAssignable(types.erasure(parameter.asType()), collection)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<ExecutableElement> skip(TypeElement dao, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                                                 "rdbi will use a runtime proxy for " + dao.getQualifiedName() +
+                                                 ", " + reason, dao);
+        return null;
+    }
+
+    private void generate(TypeElement dao, List<ExecutableElement> methods) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(dao).getQualifiedName().toString();
+        String qualifiedName = dao.getQualifiedName().toString();
+        String nestedName = packageName.isEmpty() ? qualifiedName : qualifiedName.substring(packageName.length() + 1);
+        String implementationName = GeneratedDao.implementationName(packageName, nestedName);
+
+        String source = new DaoSource(processingEnv.getTypeUtils(), dao, packageName, implementationName, methods).render();
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(implementationName, dao);
+        try (Writer writer = file.openWriter()) {
+            writer.write(source);
+        }
+        generated.add(implementationName);
+    }
+
+    /**
+     * The generated classes are instantiated reflectively, which GraalVM native images need to be told about.
+     */
+    private void writeNativeImageConfig() {
+        if (generated.isEmpty()) {
+            return;
+        }
+        StringBuilder json = new StringBuilder("[\n");
+        int i = 0;
+        for (String name : generated) {
+            json.append("  {\"name\": \"").append(name).append("\", ")
+                .append("\"methods\": [{\"name\": \"<init>\", \"parameterTypes\": []}]}")
+                .append(++i < generated.size() ? ",\n" : "\n");
+        }
+        json.append("]\n");
+
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", NATIVE_IMAGE_CONFIG);
+            try (Writer writer = file.openWriter()) {
+                writer.write(json.toString());
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                                     "Could not write native image configuration: " + e);
+        }
+    }
+}
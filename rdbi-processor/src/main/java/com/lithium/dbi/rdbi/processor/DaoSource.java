@@ -0,0 +1,301 @@
+package com.lithium.dbi.rdbi.processor;
+
+import com.lithium.dbi.rdbi.BindArg;
+import com.lithium.dbi.rdbi.BindKey;
+import com.lithium.dbi.rdbi.Mapper;
+import com.lithium.dbi.rdbi.Query;
+import org.antlr.stringtemplate.StringTemplate;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The java source of the implementation of one DAO interface.
+ */
+class DaoSource {
+
+    private static final String GENERATED_DAO = "com.lithium.dbi.rdbi.GeneratedDao";
+
+    private final Types types;
+    private final TypeElement dao;
+    private final String packageName;
+    private final String implementationName;
+    private final List<ExecutableElement> methods;
+
+    DaoSource(Types types, TypeElement dao, String packageName, String implementationName, List<ExecutableElement> methods) {
+        this.types = types;
+        this.dao = dao;
+        this.packageName = packageName;
+        this.implementationName = implementationName;
+        this.methods = methods;
+    }
+
+    String render() {
+        String simpleName = implementationName.substring(implementationName.lastIndexOf('.') + 1);
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("// Generated by rdbi-processor from ").append(dao.getQualifiedName()).append(", do not edit.\n");
+        out.append("public final class ").append(simpleName)
+           .append(" extends ").append(GENERATED_DAO)
+           .append(" implements ").append(dao.getQualifiedName()).append(" {\n\n");
+
+        for (int i = 0; i < methods.size(); i++) {
+            statement(out, i, methods.get(i));
+        }
+
+        out.append("\n    public ").append(simpleName).append("() {\n        super(");
+        for (int i = 0; i < methods.size(); i++) {
+            out.append(i > 0 ? ", " : "").append(statementName(i));
+        }
+        out.append(");\n    }\n");
+
+        for (int i = 0; i < methods.size(); i++) {
+            method(out, i, methods.get(i));
+        }
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private void statement(StringBuilder out, int index, ExecutableElement method) {
+        String script = isRawMethod(method) ? method.getAnnotation(Query.class).value() : render(method);
+        String mapper = mapperType(method);
+
+        out.append("    private static final ").append(GENERATED_DAO).append(".Statement ").append(statementName(index))
+           .append(isBinary(method) ? " = binaryStatement(\n" : " = statement(\n")
+           .append("            ").append(literal(binaryName(dao) + "." + method.getSimpleName())).append(",\n")
+           .append("            ").append(literal(script)).append(",\n")
+           .append("            \"").append(DigestUtils.sha1Hex(script)).append("\",\n")
+           .append("            ").append(types.erasure(method.getReturnType())).append(".class,\n");
+        if (isBinary(method)) {
+            out.append("            ").append(types.erasure(resultType(method))).append(".class,\n");
+        }
+        out.append("            ").append(mapper == null ? "null" : "new " + mapper + "()").append(");\n");
+    }
+
+    private void method(StringBuilder out, int index, ExecutableElement method) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        TypeMirror returnType = method.getReturnType();
+
+        out.append("\n    @Override\n    @SuppressWarnings(\"unchecked\")\n    public ")
+           .append(returnType).append(' ').append(method.getSimpleName()).append('(');
+        for (int i = 0; i < parameters.size(); i++) {
+            out.append(i > 0 ? ", " : "").append(parameters.get(i).asType()).append(" arg").append(i);
+        }
+        out.append(')');
+        List<? extends TypeMirror> thrown = method.getThrownTypes();
+        for (int i = 0; i < thrown.size(); i++) {
+            out.append(i > 0 ? ", " : " throws ").append(thrown.get(i));
+        }
+        out.append(" {\n");
+
+        String keys;
+        String argv;
+        if (isRawMethod(method)) {
+            keys = parameters.size() > 0 ? "arg0" : "null";
+            argv = parameters.size() > 1 ? "arg1" : "null";
+        } else {
+            boolean binary = isBinary(method);
+            List<String> keyValues = new ArrayList<>();
+            List<String> argValues = new ArrayList<>();
+            for (int i = 0; i < parameters.size(); i++) {
+                VariableElement parameter = parameters.get(i);
+                String value;
+                if (binary) {
+                    // the overload is picked by the compiler from the parameter type
+                    value = "bytes(arg" + i + ")";
+                } else if (parameter.asType().getKind().isPrimitive()) {
+                    value = "java.lang.String.valueOf(arg" + i + ")";
+                } else {
+                    value = "arg" + i + ".toString()";
+                }
+                if (isArg(parameter)) {
+                    argValues.add(value);
+                } else {
+                    keyValues.add(value);
+                }
+            }
+            keys = list(keyValues, binary);
+            argv = list(argValues, binary);
+        }
+
+        String call = "call(" + statementName(index) + ", " + keys + ", " + argv + ")";
+        TypeKind kind = returnType.getKind();
+        if (kind == TypeKind.VOID) {
+            out.append("        ").append(call).append(";\n");
+        } else if (kind.isPrimitive()) {
+            out.append("        return ").append(kind.name().toLowerCase()).append("Value(").append(call).append(");\n");
+        } else {
+            out.append("        return (").append(returnType).append(") ").append(call).append(";\n");
+        }
+        out.append("    }\n");
+    }
+
+    /**
+     * Renders the script the same way LuaContextExtractor does at runtime: BindKey parameters become KEYS[n] and
+     * BindArg parameters ARGV[n], numbered in parameter order.
+     */
+    private String render(ExecutableElement method) {
+        StringTemplate st = new StringTemplate(method.getAnnotation(Query.class).value());
+
+        int keyCounter = 0;
+        int argCounter = 0;
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            VariableElement parameter = parameters.get(i);
+            if (isArg(parameter)) {
+                st.setAttribute(parameter.getAnnotation(BindArg.class).value(), "ARGV[" + (++argCounter) + "]");
+            } else if (parameter.getAnnotation(BindKey.class) != null) {
+                st.setAttribute(parameter.getAnnotation(BindKey.class).value(), "KEYS[" + (++keyCounter) + "]");
+            } else {
+                throw new IllegalArgumentException(
+                        "Each argument must contain a Bind or BindKey annotation. " +
+                        " Parameter at " + i + " of " + method.getSimpleName() + " does not have Bind or BindKey annotation.");
+            }
+        }
+        return st.toString();
+    }
+
+    /**
+     * Like LuaContextExtractor, the first of BindArg and BindKey on a parameter wins.
+     */
+    private static boolean isArg(VariableElement parameter) {
+        for (AnnotationMirror annotation : parameter.getAnnotationMirrors()) {
+            String name = annotation.getAnnotationType().toString();
+            if (name.equals(BindArg.class.getCanonicalName())) {
+                return true;
+            } else if (name.equals(BindKey.class.getCanonicalName())) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Like MethodContext, methods taking or returning byte[] or ByteBuffer (or raw methods taking List&lt;byte[]&gt;)
+     * are called with the binary EVALSHA.
+     */
+    private boolean isBinary(ExecutableElement method) {
+        if (isBinaryType(resultType(method))) {
+            return true;
+        }
+        for (VariableElement parameter : method.getParameters()) {
+            TypeMirror type = parameter.asType();
+            if (isBinaryType(type)) {
+                return true;
+            }
+            if (type.getKind() == TypeKind.DECLARED) {
+                List<? extends TypeMirror> typeArguments = ((DeclaredType) type).getTypeArguments();
+                if (!typeArguments.isEmpty() && isBinaryType(typeArguments.get(0))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isBinaryType(TypeMirror type) {
+        String name = types.erasure(type).toString();
+        return name.equals("byte[]") || name.equals(ByteBuffer.class.getName());
+    }
+
+    /**
+     * @return the return type, or the type of the result of a method returning a CompletableFuture.
+     */
+    private TypeMirror resultType(ExecutableElement method) {
+        TypeMirror returnType = method.getReturnType();
+        if (returnType.getKind() == TypeKind.DECLARED
+                && types.erasure(returnType).toString().equals(CompletableFuture.class.getName())) {
+            List<? extends TypeMirror> typeArguments = ((DeclaredType) returnType).getTypeArguments();
+            if (!typeArguments.isEmpty() && typeArguments.get(0).getKind() != TypeKind.WILDCARD) {
+                return typeArguments.get(0);
+            }
+        }
+        return returnType;
+    }
+
+    private boolean isRawMethod(ExecutableElement method) {
+        if (method.getParameters().isEmpty()) {
+            return true;
+        }
+        VariableElement first = method.getParameters().get(0);
+        return types.erasure(first.asType()).toString().equals(List.class.getName())
+                && first.getAnnotation(BindKey.class) == null
+                && first.getAnnotation(BindArg.class) == null;
+    }
+
+    private static String mapperType(ExecutableElement method) {
+        for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+            if (!annotation.getAnnotationType().toString().equals(Mapper.class.getCanonicalName())) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("value")) {
+                    DeclaredType type = (DeclaredType) entry.getValue().getValue();
+                    return ((TypeElement) type.asElement()).getQualifiedName().toString();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the name of the type as Class.getName() has it, which the runtime proxies record their metrics under.
+     */
+    private static String binaryName(TypeElement type) {
+        Element enclosing = type.getEnclosingElement();
+        if (enclosing instanceof TypeElement) {
+            return binaryName((TypeElement) enclosing) + "$" + type.getSimpleName();
+        }
+        return type.getQualifiedName().toString();
+    }
+
+    private static String list(List<String> values, boolean binary) {
+        if (values.isEmpty()) {
+            return binary ? "java.util.Collections.<byte[]>emptyList()" : "java.util.Collections.<java.lang.String>emptyList()";
+        } else if (values.size() == 1) {
+            return "java.util.Collections.singletonList(" + values.get(0) + ")";
+        }
+        return "java.util.Arrays.asList(" + String.join(", ", values) + ")";
+    }
+
+    private static String statementName(int index) {
+        return "STATEMENT_" + index;
+    }
+
+    static String literal(String value) {
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -0,0 +1,295 @@
+package com.lithium.dbi.rdbi.processor;
+
+import com.lithium.dbi.rdbi.GeneratedDao;
+import com.lithium.dbi.rdbi.Handle;
+import com.lithium.dbi.rdbi.Instrumentation;
+import com.lithium.dbi.rdbi.Query;
+import com.lithium.dbi.rdbi.RDBI;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.util.Pool;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class DaoProcessorTest {
+
+    private static final String DAO_SOURCE =
+            "package com.example;\n" +
+            "\n" +
+            "import com.lithium.dbi.rdbi.BindArg;\n" +
+            "import com.lithium.dbi.rdbi.BindKey;\n" +
+            "import com.lithium.dbi.rdbi.Mapper;\n" +
+            "import com.lithium.dbi.rdbi.Query;\n" +
+            "import com.lithium.dbi.rdbi.ResultMapper;\n" +
+            "import java.util.List;\n" +
+            "\n" +
+            "public class Outer {\n" +
+            "    public static class Doubler implements ResultMapper<Long, Long> {\n" +
+            "        public Long map(Long result) { return result * 2; }\n" +
+            "    }\n" +
+            "\n" +
+            "    public interface ExampleDAO {\n" +
+            "        @Query(\"redis.call('SET', $key$, $value$, 'EX', $ttl$); return \\\"ok\\\";\")\n" +
+            "        String set(@BindKey(\"key\") String key, @BindArg(\"value\") String value, @BindArg(\"ttl\") int ttl);\n" +
+            "\n" +
+            "        @Query(\"return redis.call('INCR', $key$);\")\n" +
+            "        @Mapper(Doubler.class)\n" +
+            "        long incr(@BindKey(\"key\") String key);\n" +
+            "\n" +
+            "        @Query(\"return 1;\")\n" +
+            "        int raw();\n" +
+            "    }\n" +
+            "}\n";
+
+    @Test
+    public void testGeneratedDaoUsedInsteadOfProxy() throws Exception {
+        ClassLoader loader = compile(DAO_SOURCE);
+        Class<?> daoType = loader.loadClass("com.example.Outer$ExampleDAO");
+
+        Jedis jedis = mock(Jedis.class);
+        String setSha = DigestUtils.sha1Hex("redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2]); return \"ok\";");
+        String incrSha = DigestUtils.sha1Hex("return redis.call('INCR', KEYS[1]);");
+        when(jedis.evalsha(anyString(), anyList(), anyList())).thenReturn("ok");
+        when(jedis.evalsha(incrSha, Collections.singletonList("counter"), Collections.emptyList())).thenReturn(21L);
+        when(jedis.evalsha(anyString(), isNull(), isNull())).thenReturn(1L);
+
+        RDBI rdbi = new RDBI(pool(jedis));
+        try (Handle handle = rdbi.open()) {
+            Object dao = handle.attach(daoType);
+
+            assertTrue(dao instanceof GeneratedDao);
+            assertEquals(dao.getClass().getName(), "com.example.Outer_ExampleDAORdbiImpl");
+            assertEquals(daoType.getMethod("set", String.class, String.class, int.class).invoke(dao, "a", "b", 10), "ok");
+            assertEquals(daoType.getMethod("incr", String.class).invoke(dao, "counter"), 42L);
+            assertEquals(daoType.getMethod("raw").invoke(dao), 1);
+        }
+
+        // the scripts are rendered and hashed at build time, nothing is loaded until redis asks for it
+        verify(jedis, never()).scriptLoad(anyString());
+        verify(jedis).evalsha(setSha, Collections.singletonList("a"), Arrays.asList("b", "10"));
+        // recorded under the same names as the runtime proxies use
+        assertTrue(rdbi.getDaoMetrics().stream().anyMatch(m -> m.getName().equals("com.example.Outer$ExampleDAO.incr")
+                                                               && m.getSha1().equals(incrSha)
+                                                               && m.getCallCount() == 1));
+    }
+
+    private static final String BINARY_DAO_SOURCE =
+            "package com.example;\n" +
+            "\n" +
+            "import com.lithium.dbi.rdbi.BindArg;\n" +
+            "import com.lithium.dbi.rdbi.BindKey;\n" +
+            "import com.lithium.dbi.rdbi.Query;\n" +
+            "\n" +
+            "public interface BinaryDAO {\n" +
+            "    @Query(\"redis.call('SET', $key$, $value$, 'EX', $ttl$); return redis.call('GET', $key$);\")\n" +
+            "    byte[] set(@BindKey(\"key\") byte[] key, @BindArg(\"value\") java.nio.ByteBuffer value, @BindArg(\"ttl\") int ttl);\n" +
+            "\n" +
+            "    @Query(\"return redis.call('GET', $key$);\")\n" +
+            "    long get(@BindKey(\"key\") byte[] key);\n" +
+            "}\n";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGeneratedBinaryDao() throws Exception {
+        ClassLoader loader = compile("com/example/BinaryDAO.java", BINARY_DAO_SOURCE);
+        Class<?> daoType = loader.loadClass("com.example.BinaryDAO");
+
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(SafeEncoder.encode("12"));
+
+        try (Handle handle = new RDBI(pool(jedis)).open()) {
+            Object dao = handle.attach(daoType);
+
+            assertTrue(dao instanceof GeneratedDao);
+            byte[] set = (byte[]) daoType.getMethod("set", byte[].class, ByteBuffer.class, int.class)
+                                         .invoke(dao, new byte[]{1, 2}, ByteBuffer.wrap(new byte[]{3}), 60);
+            assertEquals(set, SafeEncoder.encode("12"));
+            assertEquals(daoType.getMethod("get", byte[].class).invoke(dao, new byte[]{1, 2}), 12L);
+        }
+
+        ArgumentCaptor<List<byte[]>> keys = ArgumentCaptor.forClass((Class<List<byte[]>>) (Class<?>) List.class);
+        ArgumentCaptor<List<byte[]>> argv = ArgumentCaptor.forClass((Class<List<byte[]>>) (Class<?>) List.class);
+        verify(jedis, times(2)).evalsha(any(byte[].class), keys.capture(), argv.capture());
+        verify(jedis, never()).evalsha(anyString(), anyList(), anyList());
+        assertEquals(keys.getAllValues().get(0).get(0), new byte[]{1, 2});
+        assertEquals(argv.getAllValues().get(0).get(0), new byte[]{3});
+        assertEquals(argv.getAllValues().get(0).get(1), SafeEncoder.encode("60"));
+    }
+
+    @Test
+    public void testNativeImageConfigWritten() throws Exception {
+        ClassLoader loader = compile(DAO_SOURCE);
+        URL config = loader.getResource(DaoProcessor.NATIVE_IMAGE_CONFIG);
+
+        assertTrue(config != null);
+        String json = new String(Files.readAllBytes(new File(config.toURI()).toPath()), "UTF-8");
+        assertTrue(json.contains("\"com.example.Outer_ExampleDAORdbiImpl\""));
+    }
+
+    @Test
+    public void testGeneratedDaoNeedsNoCglib() throws Exception {
+        WithoutCglib isolated = new WithoutCglib(DaoProcessorTest.class.getClassLoader());
+        ClassLoader loader = compile("com/example/Outer.java", DAO_SOURCE, isolated);
+        Class<?> daoType = loader.loadClass("com.example.Outer$ExampleDAO");
+
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.evalsha(anyString(), isNull(), isNull())).thenReturn(1L);
+        when(jedis.get("key")).thenReturn("value");
+
+        // the RDBI of the isolated loader, which cannot see cglib
+        Class<?> rdbiType = isolated.loadClass(RDBI.class.getName());
+        Class<?> instrumentationType = isolated.loadClass(Instrumentation.class.getName());
+        Object builder = rdbiType.getMethod("builder", Pool.class).invoke(null, pool(jedis));
+        builder.getClass().getMethod("instrumentation", instrumentationType)
+               .invoke(builder, instrumentationType.getField("NONE").get(null));
+        Object rdbi = builder.getClass().getMethod("build").invoke(builder);
+        try (AutoCloseable handle = (AutoCloseable) rdbiType.getMethod("open").invoke(rdbi)) {
+            Object dao = handle.getClass().getMethod("attach", Class.class).invoke(handle, daoType);
+            assertEquals(daoType.getMethod("raw").invoke(dao), 1);
+            Jedis plain = (Jedis) handle.getClass().getMethod("jedis").invoke(handle);
+            assertEquals(plain.get("key"), "value");
+        } finally {
+            ((AutoCloseable) rdbi).close();
+        }
+        assertEquals(isolated.cglibRequests, 0);
+    }
+
+    private static ClassLoader compile(String source) throws Exception {
+        return compile("com/example/Outer.java", source);
+    }
+
+    private static ClassLoader compile(String path, String source) throws Exception {
+        return compile(path, source, DaoProcessorTest.class.getClassLoader());
+    }
+
+    private static ClassLoader compile(String path, String source, ClassLoader parent) throws Exception {
+        Path output = Files.createTempDirectory("rdbi-processor");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+
+        String classpath = new File(Query.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        JavaCompiler.CompilationTask task = compiler.getTask(
+                null,
+                fileManager,
+                diagnostics,
+                Arrays.asList("-classpath", classpath, "-d", output.toString()),
+                null,
+                Collections.singletonList(new SourceFile(path, source)));
+        task.setProcessors(Collections.singletonList(new DaoProcessor()));
+
+        boolean success = task.call();
+        StringBuilder errors = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            errors.append(diagnostic).append('\n');
+        }
+        assertTrue(success, errors.toString());
+
+        return new URLClassLoader(new URL[]{output.toUri().toURL()}, parent);
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+
+    /**
+     * Loads its own copy of the rdbi classes, which cannot see (and count the attempts to load) cglib.
+     */
+    private static class WithoutCglib extends ClassLoader {
+        private int cglibRequests;
+
+        WithoutCglib(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                if (name.startsWith("net.sf.cglib.")) {
+                    cglibRequests++;
+                    throw new ClassNotFoundException(name);
+                }
+                if (!name.startsWith("com.lithium.dbi.rdbi.") || name.startsWith("com.lithium.dbi.rdbi.processor.")) {
+                    return super.loadClass(name, resolve);
+                }
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                        if (in == null) {
+                            throw new ClassNotFoundException(name);
+                        }
+                        byte[] bytes = readAll(in);
+                        loaded = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(loaded);
+                }
+                return loaded;
+            }
+        }
+
+        private static byte[] readAll(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String path, String source) {
+            super(URI.create("string:///" + path), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+}
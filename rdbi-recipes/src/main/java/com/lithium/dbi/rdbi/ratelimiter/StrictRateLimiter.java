@@ -41,6 +41,7 @@ public class StrictRateLimiter implements RateLimiter {
 
     public StrictRateLimiter(String keyPrefix, RDBI rdbi, String key, double permitsPerSecond) {
         this.rdbi = rdbi;
+        rdbi.getScriptRegistry().register(StrictRateLimiter.class.getName(), LUA_SCRIPT);
 
         fullyQualifiedKey = Joiner.on(":").join(keyPrefix, "ratelimit", key);
 
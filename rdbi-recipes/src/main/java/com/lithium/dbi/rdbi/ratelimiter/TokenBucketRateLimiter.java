@@ -4,6 +4,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.io.Resources;
+import com.lithium.dbi.rdbi.Deadline;
+import com.lithium.dbi.rdbi.DeadlineExceededException;
 import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -51,6 +53,7 @@ public class TokenBucketRateLimiter implements RateLimiter {
         checkArgument(refillPeriod.toMillis() > 0, "Refill period of %ss must be > 0s", refillPeriod.toMillis() / 1000);
 
         this.rdbi = rdbi;
+        rdbi.getScriptRegistry().register(TokenBucketRateLimiter.class.getName(), LUA_SCRIPT);
         this.maxTokens = maxTokens;
         this.refillRatePerMs = refillValue * 1.0 / refillPeriod.toMillis();
         fullyQualifiedKey = Joiner.on(":").join(keyPrefix, "tokenBucketRateLimit", key);
@@ -89,15 +92,18 @@ public class TokenBucketRateLimiter implements RateLimiter {
      * @param numTokens     number of tokens requested
      * @param timeout       duration willing to wait for the tokens
      * @return true if acquired within the timeout, or false otherwise
+     * @throws DeadlineExceededException if the deadline of {@link RDBI#withDeadline} passes first.
      */
     public boolean acquirePatiently(int numTokens, Duration timeout) {
+        final Deadline deadline = rdbi.getDeadline();
+        final long timeoutMillis = deadline.capMillis(timeout.toMillis());
         long timeWaited = 0L;
-        while (timeWaited < timeout.toMillis()) {
+        while (timeWaited < timeoutMillis) {
             final OptionalLong waitTime = getWaitTimeForPermits(numTokens);
             if (!waitTime.isPresent()) {
                 return true;
             } else {
-                final long timeAvailableToWait = timeout.toMillis() - timeWaited;
+                final long timeAvailableToWait = timeoutMillis - timeWaited;
                 final long timeToSleep = Math.min(timeAvailableToWait, waitTime.getAsLong());
                 try {
                     Thread.sleep(timeToSleep);
@@ -108,6 +114,7 @@ public class TokenBucketRateLimiter implements RateLimiter {
                 }
             }
         }
+        deadline.check("acquiring " + numTokens + " tokens from " + fullyQualifiedKey);
         return false;
     }
 
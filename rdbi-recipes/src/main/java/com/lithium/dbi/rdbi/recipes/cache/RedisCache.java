@@ -3,13 +3,21 @@ package com.lithium.dbi.rdbi.recipes.cache;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.lithium.dbi.rdbi.Deadline;
+import com.lithium.dbi.rdbi.DeadlineExceededException;
 import com.lithium.dbi.rdbi.RDBI;
+import com.lithium.dbi.rdbi.recipes.keys.KeySpace;
+import com.lithium.dbi.rdbi.recipes.keys.RedisKey;
 import com.lithium.dbi.rdbi.recipes.locking.RedisSemaphoreDAO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.util.SafeEncoder;
 
 import javax.annotation.Nullable;
+import java.util.AbstractMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
@@ -31,6 +39,7 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
     private final int lockTimeoutSecs;
     private final int lockReleaseRetries;
     private final long lockReleaseRetryWaitMillis;
+    private final KeySpace<KeyType, CacheKeys> keys;
 
     /**
      * @param keyGenerator - something that will turn your key object into a string redis can use as a key.
@@ -74,6 +83,7 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
         this.lockTimeoutSecs = lockTimeoutSecs;
         lockReleaseRetries = 3;
         lockReleaseRetryWaitMillis = TimeUnit.MILLISECONDS.convert(1, TimeUnit.SECONDS);
+        keys = new KeySpace<>(key -> new CacheKeys(generateRedisKey(key)));
     }
 
     String redisLockKey(String redisKey) {
@@ -84,31 +94,36 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
     public boolean acquireLock(final KeyType key) {
         return rdbi.withHandle(handle ->
                 1 == handle.attach(RedisSemaphoreDAO.class)
-                           .acquireSemaphore(redisLockKey(generateRedisKey(key)),
+                           .acquireSemaphore(keys.get(key).lock.toString(),
                                              String.valueOf(System.currentTimeMillis()),
                                              lockTimeoutSecs));
     }
 
+    /**
+     * @throws DeadlineExceededException if the deadline of {@link RDBI#withDeadline} passes first.
+     */
     public boolean acquireLockPatiently(KeyType key, int maxWaitMillis) {
+        final Deadline deadline = rdbi.getDeadline();
+        final long maxWait = deadline.capMillis(maxWaitMillis);
         final long startTime = System.currentTimeMillis();
         boolean acquiredLock;
-        while (!(acquiredLock = acquireLock(key)) && System.currentTimeMillis() - startTime < maxWaitMillis) {
+        while (!(acquiredLock = acquireLock(key)) && System.currentTimeMillis() - startTime < maxWait) {
             try {
-                TimeUnit.MILLISECONDS.sleep(250L);
+                TimeUnit.MILLISECONDS.sleep(Math.min(250L, deadline.remainingMillis()));
             } catch(InterruptedException ie) {
                 log.info("{}: interrupted acquiring lock", cacheName, ie);
                 Thread.currentThread().interrupt();
             }
         }
         if (!acquiredLock) {
+            deadline.check("acquiring the lock of " + key);
             log.warn("{}: failed to acquire lock within {} milliseconds", cacheName, maxWaitMillis);
         }
         return acquiredLock;
     }
 
     boolean isLocked(KeyType key) {
-        final String redisKey = generateRedisKey(key);
-        final String redisLockKey = redisLockKey(redisKey);
+        final byte[] redisLockKey = keys.get(key).lock.getBytes();
         return rdbi.withHandle(handle -> handle.jedis().exists(redisLockKey));
     }
 
@@ -119,7 +134,7 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
     private void releaseLock(final KeyType key, final Jedis jedis) {
         for(int i = 0; i < lockReleaseRetries; i++) {
             try {
-                jedis.del(redisLockKey(generateRedisKey(key)));
+                jedis.del(keys.get(key).lock.getBytes());
                 return;
             } catch (Exception ex) {
                 log.warn("{}: exception releasing lock, will retry", getCacheName(), ex);
@@ -138,19 +153,37 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
     }
 
     CachedData<ValueType> getCachedDataNewJedis(final KeyType key) {
-        return rdbi.withHandle(handle -> getCachedData(handle.jedis(), key));
+        return rdbi.withHandle(handle -> getCachedData(handle.readOnly(), key));
     }
 
     CachedData<ValueType> getCachedData(Jedis jedis, KeyType key) {
-        final String redisKey = generateRedisKey(key);
+        return read(jedis, key, false).getValue();
+    }
+
+    /**
+     * Reads the value and its TTL, and whether the lock is held if asked, pipelined in one round trip.
+     * @return whether the lock is held (false if not asked), and the cached data or null.
+     */
+    private Map.Entry<Boolean, CachedData<ValueType>> read(Jedis jedis, KeyType key, boolean withLock) {
+        final CacheKeys cacheKeys = keys.get(key);
+        final byte[] redisKey = cacheKeys.value.getBytes();
+
+        final Pipeline pipeline = jedis.pipelined();
+        final Response<byte[]> value = pipeline.get(redisKey);
+        final Response<Long> ttl = pipeline.ttl(redisKey);
+        final Response<Boolean> locked = withLock ? pipeline.exists(cacheKeys.lock.getBytes()) : null;
+        pipeline.sync();
+
+        return new AbstractMap.SimpleImmutableEntry<>(locked != null && locked.get(),
+                                                      decode(cacheKeys.value, value.get(), ttl.get()));
+    }
 
-        final String result = jedis.get(redisKey);
+    private CachedData<ValueType> decode(RedisKey redisKey, byte[] result, Long secondsRemaining) {
         if (result == null) {
             return null;
         }
-        final Long secondsRemaining = jedis.ttl(redisKey);
         try {
-            final ValueType data = serializationHelper.decode(result);
+            final ValueType data = serializationHelper.decode(SafeEncoder.encode(result));
             return new CachedData<>(secondsRemaining, data);
         } catch (Exception e) {
             log.error(cacheName + ": unable to deserialize for " + redisKey, e);
@@ -169,11 +202,11 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
             return null;
         }
 
-        final String redisKey = generateRedisKey(key);
+        final byte[] redisKey = keys.get(key).value.getBytes();
         String response = null;
         try {
             String saveStr = serializationHelper.encode(data);
-            response = jedis.setex(redisKey, ttlSeconds, saveStr);
+            response = jedis.setex(redisKey, ttlSeconds, SafeEncoder.encode(saveStr));
         } catch(Exception jpe) {
             throw new RuntimeException(jpe);
         }
@@ -209,6 +242,8 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
      * present.
      *
      * to complete.
+     * Within {@link RDBI#withDeadline}, it waits no longer than the deadline allows, and the result holds a
+     * {@link DeadlineExceededException} once it has passed.
      * @param key Key to load a value for.
      * @param maxWaitMillis max time in milliseconds to wait if another thread is loading the value.
      * @return a result for the value associated with the key.
@@ -231,6 +266,8 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
      * If we have not acquired the data after maxWaitMillis, then
      * attempt to load data without write lock.
      *
+     * Within {@link RDBI#withDeadline}, it waits no longer than the deadline allows, and the result holds a
+     * {@link DeadlineExceededException} once it has passed.
      * @param key key to load a value for.
      * @param maxWaitMillis max time in milliseconds to wait if another thread is loading the value.
      * @return a result for the value associated with the key.
@@ -247,16 +284,21 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
     }
 
     private CallbackResult<ValueType> getFromCacheOrWait(KeyType key, long maxWaitMillis) {
+        final Deadline deadline = rdbi.getDeadline();
+        final long maxWait = deadline.capMillis(maxWaitMillis);
         try {
             long startTime = System.currentTimeMillis();
             boolean stopTrying = false;
-            while (System.currentTimeMillis() - startTime < maxWaitMillis) {
-                Thread.sleep(250L);
-                if (!isLocked(key)) {
+            while (System.currentTimeMillis() - startTime < maxWait) {
+                Thread.sleep(Math.min(250L, deadline.remainingMillis()));
+                // the lock and the value in one round trip, both from the primary where the lock is taken
+                final Map.Entry<Boolean, CachedData<ValueType>> poll = rdbi.withHandle(
+                        handle -> read(handle.jedis(), key, true));
+                if (!poll.getKey()) {
                     // Allow 1 last attempt.
                     stopTrying = true;
                 }
-                CachedData<ValueType> cached = getCachedDataNewJedis(key);
+                CachedData<ValueType> cached = poll.getValue();
                 if (cached != null) {
                     return new CallbackResult<>(cached.getData());
                 }
@@ -269,6 +311,12 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
             log.info("{}: Thread interrupted", cacheName, ie);
             Thread.currentThread().interrupt();
             // Fall through to service unavailable.
+        } catch (DeadlineExceededException e) {
+            return new CallbackResult<>(e);
+        }
+        if (deadline.isExpired()) {
+            // not service unavailable, which would have the caller load the value anyway
+            return new CallbackResult<>(new DeadlineExceededException("Deadline exceeded waiting for " + key + " to be loaded"));
         }
         log.warn("{}: Max wait time expired: {}", getCacheName(), maxWaitMillis);
         return new CallbackResult<>(new ServiceUnavailableException());
@@ -364,7 +412,7 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
             return;
         }
         KeyType key = (KeyType) objKey;
-        final String redisKey = generateRedisKey(key);
+        final byte[] redisKey = keys.get(key).value.getBytes();
         rdbi.consumeHandle(handle -> handle.jedis().del(redisKey));
         cacheEvictionCount.incrementAndGet();
     }
@@ -407,4 +455,14 @@ public class RedisCache<KeyType, ValueType> extends AbstractRedisCache<KeyType,
     public void cleanUp() {
         log.info("{}: Cleanup not implemented.", cacheName);
     }
+
+    private class CacheKeys {
+        private final RedisKey value;
+        private final RedisKey lock;
+
+        private CacheKeys(String redisKey) {
+            this.value = new RedisKey(redisKey);
+            this.lock = new RedisKey(redisLockKey(redisKey));
+        }
+    }
 }
@@ -3,7 +3,9 @@ package com.lithium.dbi.rdbi.recipes.cache;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
+import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
+import com.lithium.dbi.rdbi.ScanOptions;
 import com.lithium.dbi.rdbi.recipes.locking.RedisSemaphoreDAO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,10 +30,12 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class RedisHashCache<KeyType, ValueType> extends AbstractRedisCache<KeyType, ValueType> implements LoadAllCache<KeyType, ValueType> {
 
     private static final Logger log = LoggerFactory.getLogger(RedisHashCache.class);
+    private static final int SCAN_COUNT = 1000;
 
     private final Function<KeyType, String> keyTypeToRedisKey;
     private final Function<ValueType, KeyType> valueTypeToKeyType;
@@ -286,11 +290,13 @@ public class RedisHashCache<KeyType, ValueType> extends AbstractRedisCache<KeyTy
     public ConcurrentMap<KeyType, ValueType> asMap() {
         // Refresh any invalidated keys before processing the data
         cleanUp();
-        List<ValueType> typedCachedData = rdbi
-                .withHandle(handle -> handle.jedis().hvals(cacheKey))
-                .stream()
-                .map(valueTypeSerializationHelper::decode)
-                .collect(Collectors.toList());
+        // HSCAN rather than HVALS, so that a large hash neither blocks redis nor arrives in one huge reply
+        final List<ValueType> typedCachedData;
+        try (Handle handle = rdbi.open();
+             Stream<Map.Entry<String, String>> fields = handle.hscan(cacheKey, ScanOptions.all().count(SCAN_COUNT))) {
+            typedCachedData = fields.map(field -> valueTypeSerializationHelper.decode(field.getValue()))
+                                    .collect(Collectors.toList());
+        }
         return new ConcurrentHashMap<>(uniqueIndex(typedCachedData));
     }
 
@@ -2,21 +2,28 @@ package com.lithium.dbi.rdbi.recipes.cache;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
 import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
+import com.lithium.dbi.rdbi.ScanOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class RedisMap<KeyType, ValueType> implements Map<KeyType, ValueType> {
     private static final Logger log = LoggerFactory.getLogger(RDBI.class);
+    private static final int SCAN_COUNT = 1000;
     private final KeyGenerator<KeyType> redisKeyGenerator;
     private final SerializationHelper<ValueType> serializationHelper;
     private final String cacheName;
@@ -192,9 +199,29 @@ public class RedisMap<KeyType, ValueType> implements Map<KeyType, ValueType> {
         throw new UnsupportedOperationException("Not supported by this redis map implementation.");
     }
 
+    /**
+     * @return the values of all keys with the key prefix, found with SCAN and fetched a batch at a time with MGET.
+     */
     @Override
     public Collection<ValueType> values() {
-        throw new UnsupportedOperationException("Not supported by this redis map implementation.");
+        final List<ValueType> values = new ArrayList<>();
+        try (final Handle handle = rdbi.open();
+             final Stream<String> keys = handle.scan(ScanOptions.match(escapeGlob(keyPrefix) + "*").count(SCAN_COUNT))) {
+            final Iterator<List<String>> batches = Iterators.partition(keys.iterator(), SCAN_COUNT);
+            while (batches.hasNext()) {
+                for (String value : handle.jedis().mget(batches.next().toArray(new String[0]))) {
+                    // expired since it was scanned
+                    if (value != null) {
+                        values.add(serializationHelper.decode(value));
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private static String escapeGlob(String prefix) {
+        return prefix.replaceAll("([\\\\*?\\[\\]])", "\\\\$1");
     }
 
     @Override
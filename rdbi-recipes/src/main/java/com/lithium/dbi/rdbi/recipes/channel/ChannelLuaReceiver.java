@@ -64,19 +64,19 @@ public class ChannelLuaReceiver implements ChannelReceiver {
         );
 
         @Query(
-            "local number_of_channels = ARGV[1]\n" +
             "local bulk_result = {}\n" +
-            "for i = 1, number_of_channels do\n" +
-            "    local current_count = redis.call(\"GET\", tostring(KEYS[i*2]))\n" +
+            "for i = 1, $lastSeenIds.count$ do\n" +
+            "    local current_count = redis.call(\"GET\", KEYS[$depthKeys.offset$ + i])\n" +
             "    if not current_count then\n" +
             "        current_count = 0\n" +
             "    else\n" +
             "        current_count = tonumber(current_count)\n" +
             "    end\n" +
-            "    if current_count <= tonumber(ARGV[i+1]) then\n" +
+            "    local last_seen = tonumber(ARGV[$lastSeenIds.offset$ + i])\n" +
+            "    if current_count <= last_seen then\n" +
             "        bulk_result[i] = {}\n" +
             "    else\n" +
-            "        local results = redis.call(\"LRANGE\", KEYS[i*2-1], 0, current_count - tonumber(ARGV[i+1]) + 1)\n" +
+            "        local results = redis.call(\"LRANGE\", KEYS[$queueKeys.offset$ + i], 0, current_count - last_seen + 1)\n" +
             "        results[#results + 1] = tostring(current_count)\n" +
             "        bulk_result[i] = results\n" +
             "    end\n" +
@@ -85,8 +85,9 @@ public class ChannelLuaReceiver implements ChannelReceiver {
         )
         @Mapper(GetBulkResultMapper.class)
         GetBulkResult getMulti(
-                @BindKey("allKeys") List<String> inputKeys,
-                @BindArg("allArgs") List<String> inputArgs
+                @BindKey("queueKeys") List<String> queueKeys,
+                @BindKey("depthKeys") List<String> depthKeys,
+                @BindArg("lastSeenIds") List<Long> lastSeenIds
         );
 
         @Query(
@@ -185,17 +186,7 @@ public class ChannelLuaReceiver implements ChannelReceiver {
             List<String> depthKeys = channels.stream().map(ChannelPublisher::getChannelDepthKey).collect(Collectors.toList());
             List<String> queueKeys = channels.stream().map(ChannelPublisher::getChannelQueueKey).collect(Collectors.toList());
 
-            List<String> keysList = new ArrayList<>(depthKeys.size() * 2);
-            List<String> argsList = new ArrayList<>(depthKeys.size());
-            argsList.add(String.valueOf(depthKeys.size()));
-
-            for (int i = 0; i < channels.size(); i++) {
-                keysList.add(queueKeys.get(i));
-                keysList.add(depthKeys.get(i));
-                argsList.add(String.valueOf(lastSeenIds.get(i)));
-            }
-
-            return dao.getMulti(keysList, argsList);
+            return dao.getMulti(queueKeys, depthKeys, lastSeenIds);
         }
     }
 
@@ -0,0 +1,49 @@
+package com.lithium.dbi.rdbi.recipes.keys;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.function.Function;
+
+/**
+ * Remembers the keys a recipe derives from a name (a tube, a channel, a cache key), so that once a name has been
+ * seen its keys cost a map lookup rather than a concatenation and an encoding per call:
+ * <pre>
+ *     KeySpace&lt;String, RedisKey&gt; queues = new KeySpace&lt;&gt;(tube -&gt; new RedisKey(prefix + tube + ":queue"));
+ *     handle.jedis().zcard(queues.get(tube).getBytes());
+ * </pre>
+ * It holds at most {@code maximumSize} names; past that, the least recently used ones are forgotten.
+ *
+ * @param <N> the names, which must be usable as map keys.
+ * @param <K> the keys of a name, e.g. a {@link RedisKey} or a class holding several of them.
+ */
+@ThreadSafe
+public class KeySpace<N, K> {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    private final LoadingCache<N, K> cache;
+
+    public KeySpace(Function<? super N, ? extends K> keys) {
+        this(keys, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public KeySpace(Function<? super N, ? extends K> keys, int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive, was " + maximumSize);
+        }
+        this.cache = CacheBuilder.newBuilder()
+                                 .maximumSize(maximumSize)
+                                 .build(CacheLoader.from(keys::apply));
+    }
+
+    public K get(N name) {
+        return cache.getUnchecked(name);
+    }
+
+    public int size() {
+        return (int) cache.size();
+    }
+}
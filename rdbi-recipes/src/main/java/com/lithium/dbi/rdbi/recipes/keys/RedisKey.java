@@ -0,0 +1,40 @@
+package com.lithium.dbi.rdbi.recipes.keys;
+
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * A redis key together with its encoded form, for the binary Jedis commands, which then need not encode the key
+ * on every call.
+ */
+public final class RedisKey {
+
+    private final String key;
+    private final byte[] encoded;
+
+    public RedisKey(String key) {
+        this.key = key;
+        this.encoded = SafeEncoder.encode(key);
+    }
+
+    /**
+     * @return the encoded key, shared by every caller, so not to be modified.
+     */
+    public byte[] getBytes() {
+        return encoded;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof RedisKey && key.equals(((RedisKey) o).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
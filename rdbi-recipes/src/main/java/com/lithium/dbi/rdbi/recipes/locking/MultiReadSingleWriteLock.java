@@ -1,5 +1,7 @@
 package com.lithium.dbi.rdbi.recipes.locking;
 
+import com.lithium.dbi.rdbi.Deadline;
+import com.lithium.dbi.rdbi.DeadlineExceededException;
 import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
 
@@ -26,7 +28,12 @@ public class MultiReadSingleWriteLock {
         this.readTimeoutMillis = readTimeoutMillis;
     }
 
+    /**
+     * Blocks until the write lock is acquired and the readers holding the read lock have released it or timed out.
+     * @throws DeadlineExceededException if the deadline of {@link RDBI#withDeadline} passes first.
+     */
     public boolean acquireWriteLock(String ownerId) {
+        final Deadline deadline = rdbi.getDeadline();
         try (Handle handle = rdbi.open()) {
             final MultiReadSingleWriteLockDAO dao = handle.attach(MultiReadSingleWriteLockDAO.class);
             while (true) {
@@ -35,7 +42,7 @@ public class MultiReadSingleWriteLock {
                     break;
                 }
 
-                Thread.sleep(250);
+                pause(deadline, "acquiring write lock " + writeLockKey);
             }
 
             // If we wait for readers to quiesce before granting a write lock, a dead lock situation will occur for writers
@@ -46,13 +53,18 @@ public class MultiReadSingleWriteLock {
             //
             // However, since there could be readers when we grant the write lock, we have to give the existing readers
             // a chance to relinquish their lock or time out before we unblock the new writer. So we'll wait in the loop below.
-            while (true) {
-                final Long readerCount = handle.jedis().zcount(readLockKey, Long.toString(Instant.now().toEpochMilli()), "+inf");
-                if (readerCount < 1) {
-                    return true;
-                }
+            try {
+                while (true) {
+                    final Long readerCount = handle.jedis().zcount(readLockKey, Long.toString(Instant.now().toEpochMilli()), "+inf");
+                    if (readerCount < 1) {
+                        return true;
+                    }
 
-                Thread.sleep(250);
+                    pause(deadline, "waiting for the readers of " + readLockKey);
+                }
+            } catch (DeadlineExceededException e) {
+                dao.releaseWriteLock(writeLockKey, ownerId);
+                throw e;
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -68,7 +80,12 @@ public class MultiReadSingleWriteLock {
         }
     }
 
+    /**
+     * Blocks until the read lock is acquired.
+     * @throws DeadlineExceededException if the deadline of {@link RDBI#withDeadline} passes first.
+     */
     public boolean acquireReadLock(String ownerId) {
+        final Deadline deadline = rdbi.getDeadline();
         try (Handle handle = rdbi.open()) {
             final MultiReadSingleWriteLockDAO dao = handle.attach(MultiReadSingleWriteLockDAO.class);
             while (true) {
@@ -80,7 +97,7 @@ public class MultiReadSingleWriteLock {
                     return true;
                 }
 
-                Thread.sleep(250);
+                pause(deadline, "acquiring read lock " + readLockKey);
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -90,6 +107,11 @@ public class MultiReadSingleWriteLock {
         return false;
     }
 
+    private static void pause(Deadline deadline, String operation) throws InterruptedException {
+        deadline.check(operation);
+        Thread.sleep(Math.min(250, deadline.remainingMillis()));
+    }
+
     public boolean releaseReadLock(String ownerId) {
         try (Handle handle = rdbi.open()) {
             return handle.attach(MultiReadSingleWriteLockDAO.class).releaseReadLock(readLockKey, Instant.now().toEpochMilli(), ownerId) > 0;
@@ -4,6 +4,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.lithium.dbi.rdbi.Callback;
 import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
+import com.lithium.dbi.rdbi.recipes.keys.KeySpace;
 
 import java.time.Instant;
 import java.util.List;
@@ -13,11 +14,11 @@ import java.util.Set;
 public class PresenceRepository {
 
     private final RDBI rdbi;
-    private final String prefix;
+    private final KeySpace<String, String> queues;
 
     public PresenceRepository(RDBI rdbi, String redisPrefixKey) {
         this.rdbi = rdbi;
-        this.prefix = redisPrefixKey;
+        this.queues = new KeySpace<>(tube -> redisPrefixKey + tube);
     }
 
     public void addHeartbeat(String tube, String id, long timeToExpireInMS) {
@@ -28,7 +29,7 @@ public class PresenceRepository {
     }
 
     /**
-     * Get all entries that have not expired
+     * Get all entries that have not expired, from a read replica if the RDBI has them
      * @param tube name of the tube
      * @param limit provide a max number of entries to return, will return all if not provided
      * @return all entries that have not expired
@@ -38,9 +39,9 @@ public class PresenceRepository {
 
         try (final Handle handle = rdbi.open()) {
             if (limit != null && limit.isPresent()) {
-                return handle.jedis().zrangeByScore(getQueue(tube), Long.toString(now.toEpochMilli()), "+inf", 0, limit.get());
+                return handle.readOnly().zrangeByScore(getQueue(tube), Long.toString(now.toEpochMilli()), "+inf", 0, limit.get());
             } else {
-                return handle.jedis().zrangeByScore(getQueue(tube), Long.toString(now.toEpochMilli()), "+inf");
+                return handle.readOnly().zrangeByScore(getQueue(tube), Long.toString(now.toEpochMilli()), "+inf");
             }
         }
     }
@@ -102,6 +103,6 @@ public class PresenceRepository {
     }
 
     private String getQueue(String tube) {
-        return prefix + tube;
+        return queues.get(tube);
     }
 }
@@ -4,6 +4,7 @@ import com.google.common.collect.Lists;
 import com.lithium.dbi.rdbi.Callback;
 import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
+import com.lithium.dbi.rdbi.recipes.keys.KeySpace;
 import redis.clients.jedis.resps.Tuple;
 
 import java.util.List;
@@ -13,11 +14,13 @@ public abstract class AbstractDedupJobScheduler {
     protected final RDBI rdbi;
     private final String prefix;
     private final LongSupplier clock;
+    private final KeySpace<String, TubeKeys> tubes;
 
     public AbstractDedupJobScheduler(RDBI rdbi, String redisPrefixKey, LongSupplier clock) {
         this.rdbi = rdbi;
         this.prefix = redisPrefixKey;
         this.clock = clock;
+        this.tubes = new KeySpace<>(tube -> new TubeKeys(redisPrefixKey + tube));
     }
 
     /**
@@ -140,15 +143,15 @@ public abstract class AbstractDedupJobScheduler {
     }
 
     protected String getRunningQueue(String tube) {
-        return prefix + tube + ":running_queue";
+        return tubes.get(tube).runningQueue;
     }
 
     protected String getReadyQueue(String tube) {
-        return prefix + tube + ":ready_queue";
+        return tubes.get(tube).readyQueue;
     }
 
     protected String getPaused(String tube){
-        return prefix + tube + ":paused";
+        return tubes.get(tube).paused;
     }
 
     String getPrefix() {
@@ -158,4 +161,16 @@ public abstract class AbstractDedupJobScheduler {
     LongSupplier getClock() {
         return clock;
     }
+
+    private static class TubeKeys {
+        private final String runningQueue;
+        private final String readyQueue;
+        private final String paused;
+
+        private TubeKeys(String tubePrefix) {
+            this.runningQueue = tubePrefix + ":running_queue";
+            this.readyQueue = tubePrefix + ":ready_queue";
+            this.paused = tubePrefix + ":paused";
+        }
+    }
 }
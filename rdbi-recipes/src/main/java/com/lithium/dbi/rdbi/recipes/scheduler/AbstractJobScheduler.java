@@ -3,6 +3,7 @@ package com.lithium.dbi.rdbi.recipes.scheduler;
 import com.google.common.collect.Lists;
 import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
+import com.lithium.dbi.rdbi.recipes.keys.KeySpace;
 import redis.clients.jedis.resps.Tuple;
 
 import java.time.Instant;
@@ -12,6 +13,7 @@ public abstract class AbstractJobScheduler<T extends JobInfo> {
 
     protected final RDBI rdbi;
     protected final String prefix;
+    private final KeySpace<String, TubeKeys> tubes;
 
     /**
      * @param rdbi the rdbi driver
@@ -20,6 +22,7 @@ public abstract class AbstractJobScheduler<T extends JobInfo> {
     public AbstractJobScheduler(RDBI rdbi, String redisPrefixKey) {
         this.rdbi = rdbi;
         this.prefix = redisPrefixKey;
+        this.tubes = new KeySpace<>(tube -> new TubeKeys(redisPrefixKey + tube));
     }
 
     /**
@@ -104,11 +107,11 @@ public abstract class AbstractJobScheduler<T extends JobInfo> {
     }
 
     protected String getRunningQueue(String tube) {
-        return prefix + tube + ":running_queue";
+        return tubes.get(tube).runningQueue;
     }
 
     protected String getReadyQueue(String tube) {
-        return prefix + tube + ":ready_queue";
+        return tubes.get(tube).readyQueue;
     }
 
     protected List<T> peekInternal(String queue, Double min, Double max, int offset, int count) {
@@ -128,4 +131,14 @@ public abstract class AbstractJobScheduler<T extends JobInfo> {
         return rdbi.withHandle(handle -> handle.jedis().zcard(key));
     }
 
+    private static class TubeKeys {
+        private final String runningQueue;
+        private final String readyQueue;
+
+        private TubeKeys(String tubePrefix) {
+            this.runningQueue = tubePrefix + ":running_queue";
+            this.readyQueue = tubePrefix + ":ready_queue";
+        }
+    }
+
 }
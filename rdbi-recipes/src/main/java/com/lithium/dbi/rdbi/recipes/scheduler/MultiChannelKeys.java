@@ -0,0 +1,69 @@
+package com.lithium.dbi.rdbi.recipes.scheduler;
+
+import com.lithium.dbi.rdbi.recipes.keys.KeySpace;
+import com.lithium.dbi.rdbi.recipes.keys.RedisKey;
+
+/**
+ * The keys of a {@link MultiChannelScheduler}, shared with the {@link ScheduleReader} of its schedule. They are built
+ * once per tube, and once per channel and tube.
+ */
+class MultiChannelKeys {
+
+    // a channel rarely has jobs in more than a few tubes
+    private static final int TUBES_PER_CHANNEL = 64;
+
+    private final RedisKey perChannelTrackingEnabled;
+    private final KeySpace<String, Tube> tubes;
+    private final KeySpace<String, KeySpace<String, Channel>> channels;
+
+    MultiChannelKeys(String prefix) {
+        this.perChannelTrackingEnabled = new RedisKey(prefix + ":per_channel_tracking_enabled");
+        this.tubes = new KeySpace<>(tube -> new Tube(prefix + ":multichannel:" + tube));
+        this.channels = new KeySpace<>(channel -> new KeySpace<>(tube -> new Channel(prefix + ":" + channel + ":" + tube),
+                                                                 TUBES_PER_CHANNEL));
+    }
+
+    RedisKey perChannelTrackingEnabled() {
+        return perChannelTrackingEnabled;
+    }
+
+    Tube tube(String tube) {
+        return tubes.get(tube);
+    }
+
+    Channel channel(String channel, String tube) {
+        return channels.get(channel).get(tube);
+    }
+
+    /**
+     * The keys shared by all channels of a tube.
+     */
+    static class Tube {
+        final RedisKey circularBuffer;
+        final RedisKey set;
+        final RedisKey runningQueue;
+
+        private Tube(String tubePrefix) {
+            this.circularBuffer = new RedisKey(tubePrefix + ":circular_buffer");
+            this.set = new RedisKey(tubePrefix + ":set");
+            this.runningQueue = new RedisKey(tubePrefix + ":running_queue");
+        }
+    }
+
+    /**
+     * The keys of one channel in a tube.
+     */
+    static class Channel {
+        final String tubePrefix;
+        final RedisKey readyQueue;
+        final RedisKey paused;
+        final RedisKey runningCount;
+
+        private Channel(String tubePrefix) {
+            this.tubePrefix = tubePrefix;
+            this.readyQueue = new RedisKey(tubePrefix + ":ready_queue");
+            this.paused = new RedisKey(tubePrefix + ":paused");
+            this.runningCount = new RedisKey(tubePrefix + ":running_count");
+        }
+    }
+}
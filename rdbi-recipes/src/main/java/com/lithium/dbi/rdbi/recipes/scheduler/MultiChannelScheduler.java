@@ -2,11 +2,14 @@ package com.lithium.dbi.rdbi.recipes.scheduler;
 
 import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
+import com.lithium.dbi.rdbi.ScriptBatch;
 import redis.clients.jedis.resps.Tuple;
+import redis.clients.jedis.util.SafeEncoder;
 
 import java.util.List;
 import java.util.function.Function;
 import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -36,11 +39,25 @@ public class MultiChannelScheduler {
     private final RDBI rdbi;
     private final String prefix;
     private final LongSupplier clock;
+    private final MultiChannelKeys keys;
 
     public MultiChannelScheduler(RDBI rdbi, String redisPrefixKey, LongSupplier clock) {
+        this(rdbi, redisPrefixKey, clock, false);
+    }
+
+    /**
+     * @param hashTagged wrap the prefix in a redis cluster hash tag ({@code {prefix}:...}), so that every key of
+     *                   this scheduler is in the same slot. The reserve scripts find the channels' queues from the
+     *                   circular buffer rather than from their arguments, so they only run on a cluster if all of a
+     *                   tube's keys are on one node; the per channel tracking flag is shared by all tubes, hence
+     *                   the whole prefix is tagged. The keys differ from those of an untagged scheduler, so this
+     *                   cannot be switched on for existing data.
+     */
+    public MultiChannelScheduler(RDBI rdbi, String redisPrefixKey, LongSupplier clock, boolean hashTagged) {
         this.rdbi = rdbi;
-        this.prefix = redisPrefixKey;
+        this.prefix = hashTagged ? "{" + redisPrefixKey + "}" : redisPrefixKey;
         this.clock = clock;
+        this.keys = new MultiChannelKeys(prefix);
     }
 
     public MultiChannelScheduler(RDBI rdbi, String redisPrefixKey) {
@@ -146,7 +163,7 @@ public class MultiChannelScheduler {
             return handle.jedis().lrange(getMultiChannelCircularBuffer(tube), 0, -1)
                          .stream()
                          // rm our prefix
-                         .map(chPrefix -> chPrefix.replaceFirst(prefix + ":", ""))
+                         .map(chPrefix -> chPrefix.replaceFirst(Pattern.quote(prefix + ":"), ""))
                          // rm tube suffix
                          .map(channelAndTube -> channelAndTube.replace(":" + tube, ""))
                          .collect(Collectors.toList());
@@ -216,9 +233,23 @@ public class MultiChannelScheduler {
      */
     public List<TimeJobInfo> removeExpiredRunningJobsAndDecrementCount(String tube, Function<TimeJobInfo, String> jobToChannelFunction) {
         final List<TimeJobInfo> timeJobInfoList = removeExpiredRunningJobs(tube);
-        timeJobInfoList.stream()
-                       .map(jobToChannelFunction)
-                       .forEach(channel -> decrementRunningCount(channel, tube));
+        if (timeJobInfoList.isEmpty()) {
+            return timeJobInfoList;
+        }
+
+        // one round trip for all the decrements, rather than one each
+        try (Handle handle = rdbi.open()) {
+            final ScriptBatch batch = handle.batch();
+            final MultiChannelSchedulerDAO dao = batch.attach(MultiChannelSchedulerDAO.class);
+            timeJobInfoList.stream()
+                           .map(jobToChannelFunction)
+                           .forEach(channel -> dao.decrementRunningCount(getRunningCountKey(channel, tube)));
+            for (Object result : batch.executeAndReturnAll()) {
+                if (result instanceof RuntimeException) {
+                    throw (RuntimeException) result;
+                }
+            }
+        }
 
         return timeJobInfoList;
     }
@@ -298,13 +329,14 @@ public class MultiChannelScheduler {
      */
     public void pause(String channel, String tube) {
         rdbi.withHandle(handle -> {
-            handle.jedis().set(getPausedKey(channel, tube), String.valueOf(clock.getAsLong() / 1000));
+            handle.jedis().set(keys.channel(channel, tube).paused.getBytes(), SafeEncoder.encode(String.valueOf(clock.getAsLong() / 1000)));
             return null;
         });
     }
 
     public boolean isPaused(String channel, String tube) {
-        return rdbi.withHandle(handle -> handle.jedis().get(getPausedKey(channel, tube)) != null);
+        final byte[] paused = keys.channel(channel, tube).paused.getBytes();
+        return rdbi.withHandle(handle -> handle.jedis().get(paused) != null);
     }
 
     /**
@@ -320,7 +352,7 @@ public class MultiChannelScheduler {
      */
     public void resume(String channel, String tube) {
         rdbi.withHandle(handle -> {
-            handle.jedis().del(getPausedKey(channel, tube));
+            handle.jedis().del(keys.channel(channel, tube).paused.getBytes());
             return null;
         });
     }
@@ -362,7 +394,7 @@ public class MultiChannelScheduler {
     }
 
     public boolean isPerChannelTrackingEnabled() {
-        return rdbi.withHandle(h -> h.jedis().get(getPerChannelTrackingEnabled()) != null);
+        return rdbi.withHandle(h -> h.jedis().get(keys.perChannelTrackingEnabled().getBytes()) != null);
     }
 
     /**
@@ -372,7 +404,7 @@ public class MultiChannelScheduler {
      * @return true if tracking was previously disabled, false if the tracking had already been enabled
      */
     public boolean enablePerChannelTracking() {
-        return rdbi.withHandle(h -> h.jedis().setnx(getPerChannelTrackingEnabled(), "1") == 1);
+        return rdbi.withHandle(h -> h.jedis().setnx(keys.perChannelTrackingEnabled().getBytes(), SafeEncoder.encode("1")) == 1);
     }
 
 
@@ -382,7 +414,7 @@ public class MultiChannelScheduler {
      * @return true if tracking was previously enabled, false if the tracking had already been disabled
      */
     public boolean disablePerChannelTracking() {
-        return rdbi.withHandle(h -> h.jedis().del(getPerChannelTrackingEnabled()) != 0);
+        return rdbi.withHandle(h -> h.jedis().del(keys.perChannelTrackingEnabled().getBytes()) != 0);
     }
 
 
@@ -394,34 +426,34 @@ public class MultiChannelScheduler {
     }
 
     private String getMultiChannelCircularBuffer(String tube) {
-        return prefix + ":multichannel:" + tube + ":circular_buffer";
+        return keys.tube(tube).circularBuffer.toString();
     }
 
     private String getMultiChannelSet(String tube) {
-        return prefix + ":multichannel:" + tube + ":set";
+        return keys.tube(tube).set.toString();
     }
 
     private String getTubePrefix(String channel, String tube) {
-        return prefix + ":" + channel + ":" + tube;
+        return keys.channel(channel, tube).tubePrefix;
     }
 
     private String getReadyQueue(String channel, String tube) {
-        return getTubePrefix(channel, tube) + ":ready_queue";
+        return keys.channel(channel, tube).readyQueue.toString();
     }
 
     private String getRunningQueue(String tube) {
-        return prefix + ":multichannel:" + tube + ":running_queue";
+        return keys.tube(tube).runningQueue.toString();
     }
 
     private String getPausedKey(String channel, String tube) {
-        return getTubePrefix(channel, tube) + ":paused";
+        return keys.channel(channel, tube).paused.toString();
     }
 
     private String getRunningCountKey(String channel, String tube) {
-        return getTubePrefix(channel, tube) + ":running_count";
+        return keys.channel(channel, tube).runningCount.toString();
     }
 
     private String getPerChannelTrackingEnabled() {
-        return prefix + ":per_channel_tracking_enabled";
+        return keys.perChannelTrackingEnabled().toString();
     }
 }
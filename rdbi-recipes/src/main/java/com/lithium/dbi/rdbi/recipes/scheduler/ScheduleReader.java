@@ -5,6 +5,7 @@ import java.util.function.LongSupplier;
 import com.google.common.primitives.Ints;
 import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
+import redis.clients.jedis.util.SafeEncoder;
 
 /**
  * Designed to read schedules from a data store, particularly redis. We need to break off reading
@@ -14,11 +15,20 @@ public class ScheduleReader {
     protected final RDBI rdbi;
     protected final String prefix;
     protected final LongSupplier clock;
+    private final MultiChannelKeys keys;
 
     public ScheduleReader(RDBI rdbi, String prefix, LongSupplier clock) {
+        this(rdbi, prefix, clock, false);
+    }
+
+    /**
+     * @param hashTagged must match the {@link MultiChannelScheduler} that writes the schedule.
+     */
+    public ScheduleReader(RDBI rdbi, String prefix, LongSupplier clock, boolean hashTagged) {
         this.rdbi = rdbi;
-        this.prefix = prefix;
+        this.prefix = hashTagged ? "{" + prefix + "}" : prefix;
         this.clock = clock;
+        this.keys = new MultiChannelKeys(this.prefix);
     }
 
     public ScheduleReader(RDBI rdbi, String prefix) {
@@ -29,48 +39,28 @@ public class ScheduleReader {
         try (Handle handle = rdbi.open()) {
             return handle.attach(MultiChannelSchedulerDAO.class)
                     .getAllReadyJobCount(
-                            getMultiChannelCircularBuffer(tube),
+                            keys.tube(tube).circularBuffer.toString(),
                             clock.getAsLong());
         }
     }
 
     public long getReadyJobCount(String channel, String tube) {
-        final String queue = getReadyQueue(channel, tube);
-        return rdbi.withHandle(handle -> handle.jedis().zcount(queue, 0, clock.getAsLong()));
+        final byte[] queue = keys.channel(channel, tube).readyQueue.getBytes();
+        return rdbi.withHandle(handle -> handle.readOnly().zcount(queue, 0, clock.getAsLong()));
     }
 
     public long getRunningJobCount(String tube) {
-        final String queue = getRunningQueue(tube);
-        return rdbi.withHandle(handle -> handle.jedis().zcard(queue));
+        final byte[] queue = keys.tube(tube).runningQueue.getBytes();
+        return rdbi.withHandle(handle -> handle.readOnly().zcard(queue));
     }
 
     public Integer getRunningCountForChannel(String channel, String tube) {
-        final String key = getRunningCountKey(channel, tube);
-        final String count = rdbi.withHandle(h -> h.jedis().get(key));
+        final byte[] key = keys.channel(channel, tube).runningCount.getBytes();
+        final byte[] count = rdbi.withHandle(h -> h.readOnly().get(key));
         return Optional.ofNullable(count)
+                .map(SafeEncoder::encode)
                 .map(Ints::tryParse)
                 .orElse(0);
     }
 
-    private String getMultiChannelCircularBuffer(String tube) {
-        return prefix + ":multichannel:" + tube + ":circular_buffer";
-    }
-
-    private String getTubePrefix(String channel, String tube) {
-        return prefix + ":" + channel + ":" + tube;
-    }
-
-    private String getReadyQueue(String channel, String tube) {
-        return getTubePrefix(channel, tube) + ":ready_queue";
-    }
-
-    private String getRunningQueue(String tube) {
-        return prefix + ":multichannel:" + tube + ":running_queue";
-    }
-
-    private String getRunningCountKey(String channel, String tube) {
-        return getTubePrefix(channel, tube) + ":running_count";
-    }
-
-
 }
@@ -3,6 +3,7 @@ package com.lithium.dbi.rdbi.recipes.scheduler;
 import com.google.common.collect.ImmutableList;
 import com.lithium.dbi.rdbi.Handle;
 import com.lithium.dbi.rdbi.RDBI;
+import com.lithium.dbi.rdbi.recipes.keys.KeySpace;
 
 import java.util.List;
 import java.util.function.LongSupplier;
@@ -21,6 +22,8 @@ import java.util.function.LongSupplier;
  */
 public class StateDedupedJobScheduler extends AbstractDedupJobScheduler {
 
+    private final KeySpace<String, String> readyAndRunningQueues;
+
     /**
      * @param rdbi the rdbi driver
      * @param redisPrefixKey the prefix key for the job system. All keys the job system uses will have the prefix redisPrefixKey
@@ -36,6 +39,7 @@ public class StateDedupedJobScheduler extends AbstractDedupJobScheduler {
      */
     public StateDedupedJobScheduler(RDBI rdbi, String redisPrefixKey, LongSupplier clock) {
         super(rdbi, redisPrefixKey, clock);
+        this.readyAndRunningQueues = new KeySpace<>(tube -> redisPrefixKey + tube + ":ready_and_running_queue");
     }
 
     /**
@@ -158,6 +162,6 @@ public class StateDedupedJobScheduler extends AbstractDedupJobScheduler {
     }
 
     protected String getReadyAndRunningQueue(String tube) {
-        return getPrefix() + tube + ":ready_and_running_queue";
+        return readyAndRunningQueues.get(tube);
     }
 }
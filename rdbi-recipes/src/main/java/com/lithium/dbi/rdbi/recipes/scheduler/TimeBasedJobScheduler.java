@@ -135,26 +135,6 @@ public class TimeBasedJobScheduler extends AbstractJobScheduler<TimeJobInfo> {
         }
     }
 
-    /**
-     * Get the current number of jobs that have been reserved.
-     *
-     * @param tube Used in conjunction with the redisPrefixKey (constructor) to make up the full redis key name.
-     * @return The number of reserved jobs
-     */
-    public long runningSize(String tube) {
-        return getSortedSetSize(getRunningQueue(tube));
-    }
-
-    /**
-     * Get the current number of jobs available to be reserved.
-     *
-     * @param tube Used in conjunction with the redisPrefixKey (constructor) to make up the full redis key name.
-     * @return The number of available (ready) jobs to be reserved
-     */
-    public long readySize(String tube) {
-        return getSortedSetSize(getReadyQueue(tube));
-    }
-
 
     public List<TimeJobInfo> peekDelayed(String tube, int offset, int count) {
         return peekInternal(getReadyQueue(tube), (double) Instant.now().toEpochMilli(), Double.MAX_VALUE, offset, count);
@@ -172,18 +152,6 @@ public class TimeBasedJobScheduler extends AbstractJobScheduler<TimeJobInfo> {
         return peekInternal(getRunningQueue(tube), 0.0d, (double) Instant.now().toEpochMilli(), offset, count);
     }
 
-    protected String getRunningQueue(String tube) {
-        return prefix + tube + ":running_queue";
-    }
-
-    protected String getReadyQueue(String tube) {
-        return prefix + tube + ":ready_queue";
-    }
-
-    private long getSortedSetSize(final String key) {
-        return rdbi.withHandle(handle -> handle.jedis().zcard(key));
-    }
-
     @Override
     protected TimeJobInfo createJobInfo(String jobStr, double jobScore) {
         return new TimeJobInfo(jobStr, jobScore);
@@ -2,11 +2,13 @@ package com.lithium.dbi.rdbi.recipes.cache;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.lithium.dbi.rdbi.DeadlineExceededException;
 import com.lithium.dbi.rdbi.RDBI;
 import org.testng.annotations.Test;
 import redis.clients.jedis.JedisPool;
 
 import javax.annotation.Nullable;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
@@ -247,4 +249,49 @@ public class RedisCacheTest {
         assertEquals(1, loadSuccess.get());
         assertEquals(0, loadFailure.get());
     }
+
+    @Test
+    public void waitingForLoaderStopsAtDeadline() {
+        final String key1 = "key1";
+        final CounterRunnable loads = new CounterRunnable();
+        final Function<String, TestContainer> loader = s -> {
+            loads.run();
+            return new TestContainer(UUID.randomUUID());
+        };
+
+        final RDBI rdbi = new RDBI(new JedisPool("localhost", 6379));
+
+        final RedisCache<String, TestContainer> cache = new RedisCache<>(keyGenerator,
+                                                                         helper,
+                                                                         rdbi,
+                                                                         loader,
+                                                                         "deadlineCache",
+                                                                         "prefix",
+                                                                         120,
+                                                                         0,
+                                                                         60,
+                                                                         Optional.empty(),
+                                                                         new CounterRunnable(),
+                                                                         new CounterRunnable(),
+                                                                         new CounterRunnable(),
+                                                                         new CounterRunnable());
+
+        cache.invalidateAll(ImmutableList.of(key1));
+        cache.releaseLock(key1); // just in case...
+
+        // another loader holds the lock for longer than the deadline
+        assertTrue(cache.acquireLock(key1));
+        try {
+            final long start = System.currentTimeMillis();
+            final CallbackResult<TestContainer> result = rdbi.withDeadline(
+                    Duration.ofMillis(1000), () -> cache.getPatientlyThenForcibly(key1, 5000));
+            final long elapsed = System.currentTimeMillis() - start;
+            assertTrue(result.getError() instanceof DeadlineExceededException, String.valueOf(result.getError()));
+            // waited out the whole deadline rather than loading the value itself
+            assertTrue(elapsed >= 900 && elapsed < 2000, String.valueOf(elapsed));
+            assertEquals(0, loads.get());
+        } finally {
+            cache.releaseLock(key1);
+        }
+    }
 }
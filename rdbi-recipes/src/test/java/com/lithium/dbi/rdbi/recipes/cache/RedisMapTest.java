@@ -8,6 +8,7 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.Pipeline;
 
 import java.time.Duration;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -101,4 +102,27 @@ public class RedisMapTest {
         assertFalse(rMap2.containsKey("key1"));
         assertTrue(rMap2.containsKey("key2"));
     }
+
+    @Test
+    public void valuesTest() {
+        final RDBI rdbi = new RDBI(new JedisPool("localhost", 6379));
+
+        final Map<String, RedisCacheTest.TestContainer> rMap = new RedisMap<>(RedisCacheTest.keyGenerator,
+                                                                              RedisCacheTest.helper,
+                                                                              rdbi,
+                                                                              "mycache" + UUID.randomUUID().toString(),
+                                                                              cachePrefix,
+                                                                              Duration.ofSeconds(60));
+
+        assertTrue(rMap.values().isEmpty());
+
+        final Set<RedisCacheTest.TestContainer> expected = new HashSet<>();
+        for (int i = 0; i < 2500; i++) {
+            final RedisCacheTest.TestContainer value = new RedisCacheTest.TestContainer(UUID.randomUUID());
+            rMap.put("key" + i, value);
+            expected.add(value);
+        }
+
+        assertEquals(new HashSet<>(rMap.values()), expected);
+    }
 }
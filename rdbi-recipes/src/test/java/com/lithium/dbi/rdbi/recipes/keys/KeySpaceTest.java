@@ -0,0 +1,69 @@
+package com.lithium.dbi.rdbi.recipes.keys;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+public class KeySpaceTest {
+
+    @Test
+    public void testKeysBuiltOncePerName() {
+        final AtomicInteger built = new AtomicInteger();
+        final KeySpace<String, RedisKey> queues = new KeySpace<>(tube -> {
+            built.incrementAndGet();
+            return new RedisKey("prefix:" + tube + ":queue");
+        });
+
+        final RedisKey queue = queues.get("tube");
+        assertEquals(queue.toString(), "prefix:tube:queue");
+        assertEquals(queue.getBytes(), "prefix:tube:queue".getBytes());
+        assertSame(queues.get("tube"), queue);
+        assertSame(queues.get("tube").getBytes(), queue.getBytes());
+        assertEquals(built.get(), 1);
+    }
+
+    @Test
+    public void testBounded() {
+        final KeySpace<Integer, RedisKey> keys = new KeySpace<>(i -> new RedisKey("key" + i), 2);
+
+        final RedisKey first = keys.get(1);
+        keys.get(2);
+        keys.get(3);
+        assertEquals(keys.size(), 2);
+
+        // whichever name was forgotten gets equal keys again
+        assertEquals(keys.get(1), first);
+        assertEquals(keys.size(), 2);
+    }
+
+    @Test
+    public void testRecentlyUsedKept() {
+        final KeySpace<Integer, RedisKey> keys = new KeySpace<>(i -> new RedisKey("key" + i), 2);
+
+        final RedisKey first = keys.get(1);
+        final RedisKey second = keys.get(2);
+        keys.get(1);
+        keys.get(3);
+
+        assertSame(keys.get(1), first);
+        assertFalse(keys.get(2) == second);
+    }
+
+    @Test
+    public void testForgottenKeysRebuilt() {
+        final KeySpace<Integer, RedisKey> keys = new KeySpace<>(i -> new RedisKey("key" + i), 1);
+
+        final RedisKey first = keys.get(1);
+        keys.get(2);
+        assertFalse(keys.get(1) == first);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaximumSizeMustBePositive() {
+        new KeySpace<>(name -> name, 0);
+    }
+}
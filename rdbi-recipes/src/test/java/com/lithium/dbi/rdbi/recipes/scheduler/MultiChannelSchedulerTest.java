@@ -28,6 +28,8 @@ public class MultiChannelSchedulerTest {
         try (Handle handle = rdbi.open()) {
             handle.jedis().keys(prefix + "*")
                   .forEach(key -> handle.jedis().del(key));
+            handle.jedis().keys("{" + prefix + "}*")
+                  .forEach(key -> handle.jedis().del(key));
         }
     }
 
@@ -76,6 +78,27 @@ public class MultiChannelSchedulerTest {
 
     }
 
+    @Test
+    public void testHashTaggedKeys() {
+        MultiChannelScheduler scheduledJobSystem = new MultiChannelScheduler(rdbi, prefix, System::currentTimeMillis, true);
+        ScheduleReader hashTaggedReader = new ScheduleReader(rdbi, prefix, System::currentTimeMillis, true);
+        scheduledJobSystem.enablePerChannelTracking();
+
+        String jobId = channel1 + ":" + tube1 + "_1";
+        assertThat(scheduledJobSystem.schedule(channel1, tube1, jobId, 0)).isTrue();
+        assertThat(scheduledJobSystem.getAllReadyChannels(tube1)).containsExactly(channel1);
+
+        try (Handle handle = rdbi.open()) {
+            assertThat(handle.jedis().keys("{" + prefix + "}*")).isNotEmpty();
+            assertThat(handle.jedis().keys(prefix + "*")).isEmpty();
+        }
+
+        List<TimeJobInfo> reserved = scheduledJobSystem.reserveMulti(tube1, 1000, 1);
+        assertThat(reserved).hasSize(1);
+        assertThat(hashTaggedReader.getRunningCountForChannel(channel1, tube1)).isEqualTo(1);
+        assertThat(scheduledJobSystem.ackJob(channel1, tube1, jobId)).isTrue();
+    }
+
     @Test
     public void testPerChannelTrackingToggles() {
         MultiChannelScheduler scheduledJobSystem = new MultiChannelScheduler(rdbi, prefix);